@@ -6,6 +6,7 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 import javax.swing.JFrame;
 
@@ -28,9 +29,41 @@ import com.jogamp.opengl.util.texture.TextureCoords;
 public class AirHockeyGame extends JFrame
         implements GLEventListener, KeyListener, PlayerSetupScreen.Listener {
 
+    // Simulation runs at a fixed rate, independent of the render rate.
+    // Both can be overridden with -Dairhockey.tickRate=... / -Dairhockey.fps=...
+    private static final int TICK_RATE =
+            Integer.getInteger("airhockey.tickRate", GameSimulation.DEFAULT_TICK_RATE);
+    private static final int RENDER_FPS = Integer.getInteger("airhockey.fps", 60);
+
+    // with no key pressed for -Dairhockey.idleAfterMs=..., menus and paused
+    // games drop to -Dairhockey.idleFps=... and still screens stop redrawing
+    private static final int IDLE_FPS = Integer.getInteger("airhockey.idleFps", 15);
+    private static final long IDLE_AFTER_MS = Long.getLong("airhockey.idleAfterMs", 10_000L);
+
+    // never simulate more than a quarter second at once after a stall
+    private static final int MAX_CATCH_UP_TICKS = Math.max(1, TICK_RATE / 4);
+
+    // number of pucks in "Puck Frenzy" mode (-Dairhockey.pucks=...)
+    private static final int MULTI_PUCK_COUNT = Integer.getInteger("airhockey.pucks", 64);
+
+    // -Dairhockey.replay=file.ahr opens straight into watching that replay,
+    // sped up by -Dairhockey.replaySpeed=N
+    private static final String REPLAY_FILE = System.getProperty("airhockey.replay");
+    private static final int REPLAY_SPEED = Math.max(1, Integer.getInteger("airhockey.replaySpeed", 1));
+
+    // -Dairhockey.server=host[:port] plays every mode on a MatchServer
+    // instead of the shared keyboard; -Dairhockey.name=... is our name there
+    private static final String SERVER_ADDRESS = System.getProperty("airhockey.server");
+    private static final String ONLINE_NAME = System.getProperty("airhockey.name", "Player");
+    // -Dairhockey.watch=matchId (0 = featured) opens straight into spectating it
+    private static final Integer WATCH_MATCH = Integer.getInteger("airhockey.watch");
+
     private GLCanvas canvas;
     private FPSAnimator animator;
+    private RedrawPolicy redraw;
     private TextRenderer textRenderer;
+    // flat shapes for the rink and backgrounds; 64 pucks take about 6000 vertices
+    private final ShapeBatch shapes = new ShapeBatch(16384);
 
     // Background texture for main menu
     private Texture menuBgTexture;
@@ -82,7 +115,8 @@ public class AirHockeyGame extends JFrame
         aiDifficultyScreen = new AiDifficultyScreen();
         highScores = new HighScoresScreen();
         instructions = new InstructionsScreen();
-        gameWorld = new GameWorld(highScores);
+        gameWorld = new GameWorld(highScores, TICK_RATE, MAX_CATCH_UP_TICKS);
+        gameWorld.setReplaySpeed(REPLAY_SPEED);
         playerSetup = new PlayerSetupScreen(this);
         settings = new SettingsScreen();
 
@@ -99,8 +133,16 @@ public class AirHockeyGame extends JFrame
         setLocationRelativeTo(null);
         setVisible(true);
 
-        animator = new FPSAnimator(canvas, 60, true);
+        if (REPLAY_FILE != null) {
+            playReplay(REPLAY_FILE);
+        } else if (WATCH_MATCH != null && SERVER_ADDRESS != null) {
+            watchOnline(WATCH_MATCH);
+        }
+
+        animator = new FPSAnimator(canvas, RENDER_FPS, true);
         animator.start();
+        redraw = new RedrawPolicy(canvas, animator, IDLE_FPS, IDLE_AFTER_MS);
+        redraw.start();
 
         mainMenu.open(false);
         canvas.requestFocusInWindow();
@@ -115,6 +157,11 @@ public class AirHockeyGame extends JFrame
     public void init(GLAutoDrawable drawable) {
         GL2 gl = drawable.getGL().getGL2();
         gl.glClearColor(0f, 0f, 0f, 1f);
+        // a new context: buffers made in an old one are gone
+        shapes.reset();
+        gameWorld.onGraphicsReset();
+        mainMenu.onGraphicsReset();
+        settings.onGraphicsReset();
 
         gl.glMatrixMode(GL2.GL_PROJECTION);
         gl.glLoadIdentity();
@@ -153,13 +200,17 @@ public class AirHockeyGame extends JFrame
         gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
         gl.glLoadIdentity();
 
+        // the match ticks on its own thread, only while it is on screen
+        gameWorld.setRunning(currentScreen == Screen.GAME);
+        if (redraw != null) {
+            redraw.setNeed(redrawNeed());
+        }
+
         switch (currentScreen) {
             case MAIN_MENU:
                 drawMenuBackground(gl);
                 if (textRenderer == null) return;
-                textRenderer.beginRendering(windowWidth, windowHeight);
-                mainMenu.draw(textRenderer, windowWidth, windowHeight);
-                textRenderer.endRendering();
+                mainMenu.draw(gl, textRenderer.getFont(), windowWidth, windowHeight);
                 break;
 
             case MODE_SELECT:
@@ -187,8 +238,7 @@ public class AirHockeyGame extends JFrame
                 break;
 
             case GAME:
-                gameWorld.update();
-                gameWorld.draw(gl, textRenderer, windowWidth, windowHeight);
+                gameWorld.draw(gl, shapes, textRenderer, windowWidth, windowHeight);
 
                 if (gameWorld.consumeMatchFinished()) {
                     currentScreen = Screen.HIGH_SCORES;
@@ -215,9 +265,7 @@ public class AirHockeyGame extends JFrame
             case SETTINGS:
                 drawSettingsBackground(gl);
                 if (textRenderer == null) return;
-                textRenderer.beginRendering(windowWidth, windowHeight);
-                settings.draw(textRenderer, windowWidth, windowHeight);
-                textRenderer.endRendering();
+                settings.draw(gl, textRenderer.getFont(), windowWidth, windowHeight);
                 break;
         }
     }
@@ -229,6 +277,7 @@ public class AirHockeyGame extends JFrame
         windowHeight = h;
 
         gl.glViewport(0, 0, w, h);
+        gameWorld.onResize();
         gl.glMatrixMode(GL2.GL_PROJECTION);
         gl.glLoadIdentity();
         gl.glOrtho(-380, 380, -240, 240, -1, 1);
@@ -238,10 +287,17 @@ public class AirHockeyGame extends JFrame
 
     @Override
     public void dispose(GLAutoDrawable drawable) {
+        if (redraw != null) {
+            redraw.stop();
+        }
         if (animator != null && animator.isStarted()) {
             animator.stop();
         }
         SoundManager.getInstance().stopGameMusic();
+        shapes.dispose(drawable.getGL().getGL2());
+        gameWorld.disposeGraphics(drawable.getGL().getGL2());
+        mainMenu.disposeGraphics(drawable.getGL().getGL2());
+        settings.disposeGraphics(drawable.getGL().getGL2());
 
         // Optional: free texture resources
         if (menuBgTexture != null) {
@@ -262,27 +318,81 @@ public class AirHockeyGame extends JFrame
     @Override
     public void onTwoPlayerNamesConfirmed(String leftName, String rightName) {
         gameWorld.startNewMatch(leftName, rightName); // 2-player
-        currentScreen = Screen.GAME;
+        showGame();
     }
 
     @Override
     public void onFourPlayers2v2NamesConfirmed(String left1, String left2,
                                                String right1, String right2) {
         gameWorld.startNewMatch2v2(left1, left2, right1, right2);
-        currentScreen = Screen.GAME;
+        showGame();
     }
 
     @Override
     public void onFourPlayersFfaNamesConfirmed(String left, String right,
                                                String top, String bottom) {
         gameWorld.startNewFreeForAll(left, right, top, bottom);
+        showGame();
+    }
+
+    private void playReplay(String file) {
+        try {
+            gameWorld.startReplay(Replay.read(Paths.get(file)));
+            showGame();
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("[Replay] Cannot play " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private void joinOnline(String mode, GameSimulation.Difficulty difficulty) {
+        try {
+            NetClient client = NetClient.connect(SERVER_ADDRESS,
+                    NetProtocol.gameTypeForMode(mode), difficulty, ONLINE_NAME);
+            gameWorld.startOnline(client);
+            showGame();
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("[Net] Cannot join " + mode + " on " + SERVER_ADDRESS + ": " + ex.getMessage());
+        }
+    }
+
+    private void watchOnline(int matchId) {
+        try {
+            gameWorld.startOnline(NetClient.watch(SERVER_ADDRESS, matchId));
+            showGame();
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("[Net] Cannot watch on " + SERVER_ADDRESS + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * How often the current screen has to be redrawn (see RedrawPolicy).
+     */
+    private RedrawPolicy.Need redrawNeed() {
+        switch (currentScreen) {
+            case GAME:
+                // a paused match only shows chat and connection changes
+                return gameWorld.isPaused() ? RedrawPolicy.Need.ANIMATION : RedrawPolicy.Need.MOTION;
+            case HIGH_SCORES:
+            case PLAYER_SETUP:
+                return RedrawPolicy.Need.STILL;
+            default:
+                // the other menus glow and wobble
+                return RedrawPolicy.Need.ANIMATION;
+        }
+    }
+
+    private void showGame() {
         currentScreen = Screen.GAME;
+        gameWorld.setRunning(true);
     }
 
     // ==================== KeyListener ====================
 
     @Override
     public void keyPressed(KeyEvent e) {
+        if (redraw != null) {
+            redraw.onInput();
+        }
         int code = e.getKeyCode();
 
         switch (currentScreen) {
@@ -331,7 +441,7 @@ public class AirHockeyGame extends JFrame
                 case "continue":
                     if (gameWorld.isGameInProgress()) {
                         gameWorld.setPaused(false);
-                        currentScreen = Screen.GAME;
+                        showGame();
                     }
                     break;
                 case "settings":
@@ -350,7 +460,7 @@ public class AirHockeyGame extends JFrame
         } else if (code == KeyEvent.VK_ESCAPE) {
             if (gameWorld.isGameInProgress()) {
                 gameWorld.setPaused(false);
-                currentScreen = Screen.GAME;
+                showGame();
             } else {
                 System.exit(0);
             }
@@ -367,6 +477,10 @@ public class AirHockeyGame extends JFrame
         } else if (code == KeyEvent.VK_ENTER) {
             SoundManager.getInstance().playClick();
             String action = gameModeScreen.getSelectedAction();
+            if (SERVER_ADDRESS != null && !action.equals("ai") && !action.equals("back")) {
+                joinOnline(action, GameSimulation.Difficulty.MEDIUM);
+                return;
+            }
             switch (action) {
                 case "pvp2":
                     playerSetup.configureTwoPlayers();
@@ -384,6 +498,10 @@ public class AirHockeyGame extends JFrame
                     aiDifficultyScreen.reset();
                     currentScreen = Screen.AI_DIFFICULTY;
                     break;
+                case "multi":
+                    gameWorld.startNewMultiPuck("Player 1", "Player 2", MULTI_PUCK_COUNT);
+                    showGame();
+                    break;
                 case "back":
                     currentScreen = Screen.MAIN_MENU;
                     break;
@@ -403,18 +521,22 @@ public class AirHockeyGame extends JFrame
         } else if (code == KeyEvent.VK_ENTER) {
             SoundManager.getInstance().playClick();
             String action = aiDifficultyScreen.getSelectedAction();
+            if (SERVER_ADDRESS != null && !action.equals("back")) {
+                joinOnline("ai", GameSimulation.Difficulty.valueOf(action.toUpperCase()));
+                return;
+            }
             switch (action) {
                 case "easy":
-                    gameWorld.startNewMatch("Player 1", "AI (Easy)", true, GameWorld.Difficulty.EASY);
-                    currentScreen = Screen.GAME;
+                    gameWorld.startNewMatch("Player 1", "AI (Easy)", true, GameSimulation.Difficulty.EASY);
+                    showGame();
                     break;
                 case "medium":
-                    gameWorld.startNewMatch("Player 1", "AI (Medium)", true, GameWorld.Difficulty.MEDIUM);
-                    currentScreen = Screen.GAME;
+                    gameWorld.startNewMatch("Player 1", "AI (Medium)", true, GameSimulation.Difficulty.MEDIUM);
+                    showGame();
                     break;
                 case "hard":
-                    gameWorld.startNewMatch("Player 1", "AI (Hard)", true, GameWorld.Difficulty.HARD);
-                    currentScreen = Screen.GAME;
+                    gameWorld.startNewMatch("Player 1", "AI (Hard)", true, GameSimulation.Difficulty.HARD);
+                    showGame();
                     break;
                 case "back":
                     currentScreen = Screen.MODE_SELECT;
@@ -466,6 +588,9 @@ public class AirHockeyGame extends JFrame
 
     @Override
     public void keyReleased(KeyEvent e) {
+        if (redraw != null) {
+            redraw.onInput();
+        }
         if (currentScreen == Screen.GAME) {
             gameWorld.handleKeyReleased(e.getKeyCode());
         }
@@ -577,16 +702,8 @@ public class AirHockeyGame extends JFrame
     private void drawVerticalGradient(GL2 gl,
                                       float rTop, float gTop, float bTop,
                                       float rBottom, float gBottom, float bBottom) {
-        gl.glBegin(GL2.GL_QUADS);
-
-        gl.glColor3f(rTop, gTop, bTop);
-        gl.glVertex2d(-380, 240);
-        gl.glVertex2d(380, 240);
-
-        gl.glColor3f(rBottom, gBottom, bBottom);
-        gl.glVertex2d(380, -240);
-        gl.glVertex2d(-380, -240);
-
-        gl.glEnd();
+        shapes.begin(gl);
+        shapes.verticalGradient(-380, -240, 380, 240, rTop, gTop, bTop, rBottom, gBottom, bBottom);
+        shapes.end();
     }
 }
@@ -0,0 +1,355 @@
+package com.cs304.airhockey;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays many headless matches in parallel on a ForkJoinPool.
+ * Every match gets its own GameSimulation, so nothing is shared
+ * between threads except the final merge of the summaries.
+ * Used to tune AI difficulty and level progression without a window.
+ */
+public class BatchSimulator {
+
+    /**
+     * Starts the match on a fresh simulation (and may hand paddles to the AI).
+     */
+    public interface Setup {
+        void start(GameSimulation sim, int matchIndex);
+    }
+
+    /**
+     * Supplies the pressed-key bits for scripted (non-AI) paddles each tick.
+     */
+    public interface InputScript {
+        int inputBits(GameSimulation sim, long tick);
+    }
+
+    public static final InputScript NO_INPUT = (sim, tick) -> 0;
+
+    // matches per leaf task; each match is already a few thousand ticks
+    private static final int MATCHES_PER_TASK = 8;
+
+    private final int tickRate;
+    private final long maxTicks;
+    private final Setup setup;
+    private final InputScript script;
+    private long baseSeed = System.nanoTime();
+
+    /**
+     * @param maxTicks a match still running after this many ticks is
+     *                 stopped and counted as a timeout
+     */
+    public BatchSimulator(int tickRate, long maxTicks, Setup setup, InputScript script) {
+        if (maxTicks <= 0) {
+            throw new IllegalArgumentException("maxTicks must be > 0");
+        }
+        this.tickRate = tickRate;
+        this.maxTicks = maxTicks;
+        this.setup = setup;
+        this.script = script != null ? script : NO_INPUT;
+    }
+
+    /**
+     * Match i is played with seed SimRandom.seedFor(baseSeed, i), so a batch
+     * gives the same results however the matches are spread over threads.
+     */
+    public void setBaseSeed(long baseSeed) {
+        this.baseSeed = baseSeed;
+    }
+
+    public long getBaseSeed() {
+        return baseSeed;
+    }
+
+    public Summary run(int matches) {
+        return run(ForkJoinPool.commonPool(), matches);
+    }
+
+    public Summary run(ForkJoinPool pool, int matches) {
+        return pool.invoke(new BatchTask(0, matches));
+    }
+
+    /**
+     * Play a single match to the end (or the tick limit) on this thread.
+     */
+    public MatchResult playMatch(int matchIndex) {
+        MatchResult result = new MatchResult();
+        GameSimulation sim = new GameSimulation(result, tickRate);
+        result.seed = SimRandom.seedFor(baseSeed, matchIndex);
+        sim.setSeed(result.seed);
+        setup.start(sim, matchIndex);
+
+        long tick = 0;
+        while (sim.isGameInProgress() && tick < maxTicks) {
+            sim.setInputBits(script.inputBits(sim, tick));
+            sim.update();
+            tick++;
+        }
+
+        result.ticks = tick;
+        result.timedOut = sim.isGameInProgress();
+        result.winner = sim.getWinnerName();
+        result.level = sim.getLevel();
+        return result;
+    }
+
+    // ==================== Results ====================
+
+    /**
+     * Outcome of one match. Also counts hits and goals while the match runs.
+     */
+    public static class MatchResult implements GameSimulation.Listener {
+        private long seed;
+        private String winner;
+        private int finalScore;
+        private int goals;
+        private int hits;
+        private int level;
+        private long ticks;
+        private boolean timedOut;
+
+        @Override
+        public void onPaddleHit() {
+            hits++;
+        }
+
+        @Override
+        public void onGoal(GameSimulation.Side side) {
+            goals++;
+        }
+
+        @Override
+        public void onMatchFinished(String scoreName, int score) {
+            // the high-score entry: vs the AI it is the losing player's;
+            // the winner is read from the simulation when the match ends
+            this.finalScore = score;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        /** Winner's name, or null if the match timed out. */
+        public String getWinner() {
+            return winner;
+        }
+
+        /** Score of the match's high-score entry (vs the AI: the player's). */
+        public int getFinalScore() {
+            return finalScore;
+        }
+
+        public int getGoals() {
+            return goals;
+        }
+
+        public int getHits() {
+            return hits;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+    }
+
+    /**
+     * Totals over a batch of matches. Each task fills its own summary
+     * and the summaries are merged on the way back up the task tree.
+     */
+    public static class Summary {
+        private final int tickRate;
+        private int matches;
+        private int timeouts;
+        private long goals;
+        private long hits;
+        private long ticks;
+        private long minTicks = Long.MAX_VALUE;
+        private long maxTicks;
+        private long levelSum;
+        private int maxLevel;
+        private long finalScoreSum;
+        private final Map<String, Integer> wins = new HashMap<>();
+
+        Summary(int tickRate) {
+            this.tickRate = tickRate;
+        }
+
+        void add(MatchResult r) {
+            matches++;
+            goals += r.goals;
+            hits += r.hits;
+            ticks += r.ticks;
+            minTicks = Math.min(minTicks, r.ticks);
+            maxTicks = Math.max(maxTicks, r.ticks);
+            levelSum += r.level;
+            maxLevel = Math.max(maxLevel, r.level);
+            if (r.timedOut) {
+                timeouts++;
+            } else if (r.winner != null) {
+                wins.merge(r.winner, 1, Integer::sum);
+                finalScoreSum += r.finalScore;
+            }
+        }
+
+        void merge(Summary o) {
+            matches += o.matches;
+            timeouts += o.timeouts;
+            goals += o.goals;
+            hits += o.hits;
+            ticks += o.ticks;
+            minTicks = Math.min(minTicks, o.minTicks);
+            maxTicks = Math.max(maxTicks, o.maxTicks);
+            levelSum += o.levelSum;
+            maxLevel = Math.max(maxLevel, o.maxLevel);
+            finalScoreSum += o.finalScoreSum;
+            o.wins.forEach((name, n) -> wins.merge(name, n, Integer::sum));
+        }
+
+        public int getMatches() {
+            return matches;
+        }
+
+        public int getTimeouts() {
+            return timeouts;
+        }
+
+        public long getGoals() {
+            return goals;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getTotalTicks() {
+            return ticks;
+        }
+
+        public long getMinTicks() {
+            return matches == 0 ? 0 : minTicks;
+        }
+
+        public long getMaxTicks() {
+            return maxTicks;
+        }
+
+        public double getAverageLevel() {
+            return matches == 0 ? 0 : (double) levelSum / matches;
+        }
+
+        public int getMaxLevel() {
+            return maxLevel;
+        }
+
+        /** Average high-score entry: the winner's score, in vs-AI matches the player's. */
+        public double getAverageFinalScore() {
+            int finished = matches - timeouts;
+            return finished == 0 ? 0 : (double) finalScoreSum / finished;
+        }
+
+        public Map<String, Integer> getWins() {
+            return wins;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            double avgTicks = matches == 0 ? 0 : (double) ticks / matches;
+            sb.append(String.format("Matches:    %d (%d timed out)%n", matches, timeouts));
+            sb.append(String.format("Duration:   avg %.0f ticks (%.1f s), min %d, max %d%n",
+                    avgTicks, avgTicks / tickRate, getMinTicks(), maxTicks));
+            sb.append(String.format("Goals:      %.2f per match%n", matches == 0 ? 0 : (double) goals / matches));
+            sb.append(String.format("Hits:       %.2f per match%n", matches == 0 ? 0 : (double) hits / matches));
+            sb.append(String.format("Level:      avg %.2f, max %d%n", getAverageLevel(), maxLevel));
+            sb.append(String.format("Score:      avg %.2f%n", getAverageFinalScore()));
+            wins.forEach((name, n) -> sb.append(String.format("Wins:       %-12s %d%n", name, n)));
+            return sb.toString();
+        }
+    }
+
+    // ==================== Fork/join ====================
+
+    private class BatchTask extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        BatchTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= MATCHES_PER_TASK) {
+                Summary summary = new Summary(tickRate);
+                for (int i = from; i < to; i++) {
+                    summary.add(playMatch(i));
+                }
+                return summary;
+            }
+
+            int mid = (from + to) >>> 1;
+            BatchTask left = new BatchTask(from, mid);
+            left.fork();
+            Summary summary = new BatchTask(mid, to).compute();
+            summary.merge(left.join());
+            return summary;
+        }
+    }
+
+    // ==================== Command line ====================
+
+    /**
+     * AI vs AI in the single-player ruleset, so level progression is exercised.
+     * Usage: BatchSimulator [matches] [leftDifficulty] [rightDifficulty] [tickRate] [seed]
+     */
+    public static void main(String[] args) {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        GameSimulation.Difficulty left = args.length > 1
+                ? GameSimulation.Difficulty.valueOf(args[1].toUpperCase()) : GameSimulation.Difficulty.MEDIUM;
+        GameSimulation.Difficulty right = args.length > 2
+                ? GameSimulation.Difficulty.valueOf(args[2].toUpperCase()) : GameSimulation.Difficulty.MEDIUM;
+        int tickRate = args.length > 3 ? Integer.parseInt(args[3]) : GameSimulation.DEFAULT_TICK_RATE;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+
+        // ten minutes of game time is far longer than any normal match
+        long maxTicks = 600L * tickRate;
+
+        BatchSimulator batch = new BatchSimulator(tickRate, maxTicks, (sim, index) -> {
+            sim.startNewMatch("Left AI", "Right AI", true, right);
+            sim.setAiControlled(GameSimulation.Side.LEFT, left);
+        }, NO_INPUT);
+        batch.setBaseSeed(seed);
+
+        long start = System.nanoTime();
+        Summary summary = batch.run(matches);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("Left " + left + " vs Right " + right + " @ " + tickRate + " Hz, seed " + seed);
+        System.out.print(summary);
+        System.out.println("Wall time:  " + elapsedMs + " ms on "
+                + ForkJoinPool.commonPool().getParallelism() + " workers");
+
+        // vs the AI a match only ends when the left side runs out of lives
+        int finished = summary.getMatches() - summary.getTimeouts();
+        int rightWins = summary.getWins().getOrDefault("Right AI", 0);
+        if (rightWins != finished || summary.getWins().size() > 1) {
+            System.err.println("[Batch] Wins " + summary.getWins() + " do not match "
+                    + finished + " finished matches all won by Right AI");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.cs304.airhockey;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Load-test client for MatchServer: opens many bot connections from one
+ * selector thread. Each bot joins a match, mirrors the state it receives
+ * and chases the puck with its paddle; when a match ends it joins again.
+ * With mode "watch" the bots are spectators of the featured match instead.
+ *
+ * <p>Usage: BotClient [host] [port] [bots] [mode|watch] [seconds]
+ */
+public class BotClient {
+
+    // bots re-aim every few states, roughly human reaction time
+    private static final int STATES_PER_DECISION = 6;
+
+    private static final long REPORT_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final Selector selector;
+    private final GameSimulation.GameType gameType;     // null when watching
+
+    // ----- stats -----
+    private int connected;
+    private int inMatch;
+    private long statesReceived;
+    private long bytesReceived;
+    private long matchesEnded;
+    private long goalsReceived;
+    private long chatsReceived;
+    private long maxStateGapNanos;
+
+    private BotClient(GameSimulation.GameType gameType) throws IOException {
+        this.selector = Selector.open();
+        this.gameType = gameType;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : NetProtocol.DEFAULT_PORT;
+        int bots = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        String mode = args.length > 3 ? args[3] : "pvp2";
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+
+        BotClient client = new BotClient(mode.equals("watch") ? null : NetProtocol.gameTypeForMode(mode));
+        client.run(new InetSocketAddress(host, port), bots, seconds);
+    }
+
+    private void run(InetSocketAddress address, int bots, int seconds) throws IOException {
+        for (int i = 0; i < bots; i++) {
+            SocketChannel ch = SocketChannel.open();
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            ch.connect(address);
+            ch.register(selector, SelectionKey.OP_CONNECT, new Bot(ch, i));
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        long lastReport = start;
+
+        while (System.nanoTime() < deadline) {
+            selector.select(100);
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                Bot bot = (Bot) key.attachment();
+                try {
+                    if (key.isConnectable()) {
+                        bot.ch.finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                        connected++;
+                        if (gameType != null) {
+                            bot.sendHello();
+                        } else {
+                            bot.sendWatch();
+                        }
+                    } else if (key.isReadable()) {
+                        bot.read();
+                    }
+                } catch (IOException ex) {
+                    bot.close(key);
+                }
+            }
+
+            long now = System.nanoTime();
+            if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+                report(now - lastReport, bots);
+                lastReport = now;
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void report(long elapsedNanos, int bots) {
+        double seconds = elapsedNanos / 1e9;
+        double perBot = inMatch == 0 ? 0 : statesReceived / seconds / inMatch;
+        System.out.printf("[Bots] %d/%d connected, %d in a match | %.0f states/s (%.1f per bot),"
+                        + " %.1f KB/s in, max gap %.1f ms | %d results, %d goals, %d chat lines received%n",
+                connected, bots, inMatch, statesReceived / seconds, perBot,
+                bytesReceived / seconds / 1e3, maxStateGapNanos / 1e6, matchesEnded, goalsReceived, chatsReceived);
+        statesReceived = 0;
+        bytesReceived = 0;
+        maxStateGapNanos = 0;
+    }
+
+    /**
+     * One bot connection.
+     */
+    private class Bot {
+        private final SocketChannel ch;
+        private final String name;
+        private final ByteBuffer in;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(512);
+        private final NetProtocol.Writer writer = new NetProtocol.Writer();
+        private final NetProtocol.Reader reader = new NetProtocol.Reader();
+
+        private GameSimulation mirror;
+        private final StateCodec codec = new StateCodec();
+        private int seat;
+        private boolean playing = false;
+        private int sentBits = 0;
+        private int statesUntilDecision = 0;
+        private long lastStateNanos;
+
+        Bot(SocketChannel ch, int index) {
+            this.ch = ch;
+            this.name = "Bot " + index;
+            // multi-puck states are big; everything else fits in a few KB
+            this.in = ByteBuffer.allocateDirect(gameType == GameSimulation.GameType.MULTI_PUCK
+                    ? NetProtocol.MAX_FRAME_BYTES : 4096);
+        }
+
+        void sendHello() throws IOException {
+            out.clear();
+            writer.wrap(out).hello(gameType, GameSimulation.Difficulty.MEDIUM, name);
+            write();
+        }
+
+        void sendWatch() throws IOException {
+            out.clear();
+            writer.wrap(out).watch(0);
+            write();
+        }
+
+        void sendAck(int tick) throws IOException {
+            out.clear();
+            writer.wrap(out).ack(tick, 0);
+            write();
+        }
+
+        void sendInput(int bits) throws IOException {
+            out.clear();
+            writer.wrap(out).input(bits);
+            write();
+        }
+
+        void sendChat(CharSequence text) throws IOException {
+            out.clear();
+            writer.wrap(out).chat(seat, text);
+            write();
+        }
+
+        private void write() throws IOException {
+            out.flip();
+            // a few bytes: the socket buffer always has room for them
+            while (out.hasRemaining()) {
+                ch.write(out);
+            }
+        }
+
+        void read() throws IOException {
+            int n = ch.read(in);
+            if (n < 0) throw new IOException("closed");
+            bytesReceived += n;
+
+            in.flip();
+            while (reader.next(in)) {
+                handleMessage();
+            }
+            in.compact();
+        }
+
+        private void handleMessage() throws IOException {
+            switch (reader.type()) {
+                case NetProtocol.MSG_WELCOME: {
+                    seat = reader.welcomeSeat();
+                    int tickRate = reader.welcomeTickRate();
+                    MatchSpec spec = reader.welcomeSpec();
+                    if (mirror == null || mirror.getTickRate() != tickRate) {
+                        mirror = new GameSimulation(null, tickRate);
+                    }
+                    spec.start(mirror);
+                    codec.reset();
+                    sentBits = 0;
+                    lastStateNanos = 0;
+                    playing = true;
+                    inMatch++;
+                    if (gameType != null) {
+                        sendChat("gl hf");
+                    }
+                    break;
+                }
+                case NetProtocol.MSG_STATE: {
+                    statesReceived++;
+                    long now = System.nanoTime();
+                    if (lastStateNanos != 0) {
+                        maxStateGapNanos = Math.max(maxStateGapNanos, now - lastStateNanos);
+                    }
+                    lastStateNanos = now;
+
+                    // every state is decoded and acked: later ones are deltas against it
+                    int tick = reader.stateTick();
+                    reader.decodeState(codec);
+                    if (gameType == null) break;        // spectators do not ack or steer
+                    sendAck(tick);
+
+                    if (--statesUntilDecision > 0) break;
+                    statesUntilDecision = STATES_PER_DECISION;
+
+                    codec.apply(tick, mirror);
+                    steer();
+                    break;
+                }
+                case NetProtocol.MSG_GOAL:
+                    goalsReceived++;
+                    break;
+                case NetProtocol.MSG_CHAT:
+                    chatsReceived++;
+                    break;
+                case NetProtocol.MSG_END:
+                    matchesEnded++;
+                    playing = false;
+                    inMatch--;
+                    // spectators are disconnected after the match
+                    if (gameType != null) {
+                        sendHello();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void steer() throws IOException {
+            boolean vertical = mirror.getPaddleHalfH(seat) > mirror.getPaddleHalfW(seat);
+            double d = vertical
+                    ? mirror.getPuckY(0) - mirror.getPaddleY(seat)
+                    : mirror.getPuckX(0) - mirror.getPaddleX(seat);
+
+            int bits = 0;
+            if (d > 10) bits = NetProtocol.INPUT_PLUS;
+            else if (d < -10) bits = NetProtocol.INPUT_MINUS;
+
+            if (bits != sentBits) {
+                sentBits = bits;
+                sendInput(bits);
+            }
+        }
+
+        void close(SelectionKey key) {
+            key.cancel();
+            connected--;
+            if (playing) {
+                inMatch--;
+            }
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
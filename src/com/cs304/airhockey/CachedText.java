@@ -0,0 +1,214 @@
+package com.cs304.airhockey;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureCoords;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
+
+/**
+ * Lines of text kept as ready-made textures, one per slot (HUD lines,
+ * menu entries).
+ *
+ * <p>TextRenderer lays out and draws every glyph of every string on every
+ * frame. These lines change rarely, so here each slot's text is drawn once
+ * with Java2D (white) and kept on the GPU; a frame just draws a textured
+ * quad per copy, tinted, faded and moved as it likes. A slot is redrawn
+ * only when it is handed a different string, so callers should keep
+ * handing the same String object while the text is unchanged: that check
+ * is a reference compare, and a frame with no changes allocates nothing.
+ */
+public class CachedText {
+
+    private static final class Block {
+        String text;            // null: slot not drawn yet
+        Texture texture;
+        int width;
+        int height;
+        int descent;
+    }
+
+    private final Block[] blocks;
+
+    private Font font;
+    private FontMetrics metrics;
+    private GL2 gl;
+
+    // lines drawn into a texture so far
+    private long rebuilds = 0;
+
+    /**
+     * @param slots number of separate lines (slot ids are 0..slots-1)
+     */
+    public CachedText(int slots) {
+        blocks = new Block[slots];
+        for (int i = 0; i < slots; i++) {
+            blocks[i] = new Block();
+        }
+    }
+
+    /**
+     * Start drawing in window pixels, (0,0) at the bottom left, as
+     * TextRenderer.beginRendering() does.
+     *
+     * @param font font of every line; a different one redraws them all
+     */
+    public void begin(GL2 gl, Font font, int windowWidth, int windowHeight) {
+        this.gl = gl;
+        if (!font.equals(this.font)) {
+            this.font = font;
+            this.metrics = null;
+            for (Block block : blocks) {
+                block.text = null;
+            }
+        }
+
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_TEXTURE_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_CURRENT_BIT);
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glDisable(GL2.GL_CULL_FACE);
+        gl.glEnable(GL2.GL_TEXTURE_2D);
+        gl.glEnable(GL2.GL_BLEND);
+        gl.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glTexEnvi(GL2.GL_TEXTURE_ENV, GL2.GL_TEXTURE_ENV_MODE, GL2.GL_MODULATE);
+
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(0, windowWidth, 0, windowHeight, -1, 1);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+    }
+
+    /**
+     * Draw a slot's text with its baseline starting at (x, y).
+     * Drawing the same slot again (shadows, outlines) costs one more quad.
+     *
+     * @param text null draws nothing (and keeps the slot's texture)
+     */
+    public void draw(int slot, String text, int x, int y, float r, float g, float b, float a) {
+        if (text == null) return;
+        Block block = prepare(slot, text);
+
+        TextureCoords tc = block.texture.getImageTexCoords();
+        block.texture.bind(gl);
+        gl.glColor4f(r, g, b, a);
+
+        int x2 = x + block.width;
+        int y1 = y - block.descent;
+        int y2 = y1 + block.height;
+        gl.glBegin(GL2.GL_QUADS);
+        gl.glTexCoord2f(tc.left(), tc.bottom());
+        gl.glVertex2i(x, y1);
+        gl.glTexCoord2f(tc.right(), tc.bottom());
+        gl.glVertex2i(x2, y1);
+        gl.glTexCoord2f(tc.right(), tc.top());
+        gl.glVertex2i(x2, y2);
+        gl.glTexCoord2f(tc.left(), tc.top());
+        gl.glVertex2i(x, y2);
+        gl.glEnd();
+    }
+
+    /**
+     * Width in pixels of a slot's text, e.g. to center it. Only between
+     * begin() and end(), as the text may have to be drawn into the slot.
+     */
+    public int width(int slot, String text) {
+        return prepare(slot, text).width;
+    }
+
+    public void end() {
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPopMatrix();
+        gl.glPopAttrib();
+        gl = null;
+    }
+
+    /**
+     * How many times a line has been drawn into a texture so far.
+     */
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * The GL context was (re)created: the old textures are gone.
+     */
+    public void reset() {
+        for (Block block : blocks) {
+            block.text = null;
+            block.texture = null;
+        }
+    }
+
+    public void dispose(GL2 gl) {
+        for (Block block : blocks) {
+            if (block.texture != null) {
+                block.texture.destroy(gl);
+            }
+        }
+        reset();
+    }
+
+    // ----- drawing a line into its texture -----
+
+    private Block prepare(int slot, String text) {
+        Block block = blocks[slot];
+        if (text != block.text && !text.equals(block.text)) {
+            rebuild(block, text);
+        }
+        return block;
+    }
+
+    private void rebuild(Block block, String text) {
+        block.text = text;
+        rebuilds++;
+        if (metrics == null) {
+            Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            applyHints(g);
+            metrics = g.getFontMetrics(font);
+            g.dispose();
+        }
+
+        int width = Math.max(1, metrics.stringWidth(text));
+        int height = metrics.getAscent() + metrics.getDescent();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        applyHints(g);
+        g.setFont(font);
+        g.setColor(Color.WHITE);
+        g.drawString(text, 0, metrics.getAscent());
+        g.dispose();
+
+        TextureData data = AWTTextureIO.newTextureData(gl.getGLProfile(), image, false);
+        if (block.texture == null) {
+            block.texture = TextureIO.newTexture(data);
+        } else {
+            block.texture.updateImage(gl, data);
+        }
+        data.flush();
+        // drawn at exactly its own size: no filtering blur
+        block.texture.setTexParameteri(gl, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_NEAREST);
+        block.texture.setTexParameteri(gl, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_NEAREST);
+
+        block.width = width;
+        block.height = height;
+        block.descent = metrics.getDescent();
+    }
+
+    // same look as TextRenderer(font, antialiased, useFractionalMetrics)
+    private static void applyHints(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+    }
+}
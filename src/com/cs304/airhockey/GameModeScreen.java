@@ -7,6 +7,7 @@ import java.awt.geom.Rectangle2D;
  * Screen for choosing game mode:
  *  - 2 Players (Local)
  *  - 1 Player vs AI
+ *  - Puck Frenzy (2 players, many pucks)
  */
 public class GameModeScreen {
 
@@ -27,6 +28,7 @@ public class GameModeScreen {
         items = new Item[] {
                 new Item("2 Players (Same Keyboard)",  "pvp"),
                 new Item("1 Player vs AI",            "ai"),
+                new Item("Puck Frenzy (Multi-puck)",  "multi"),
                 new Item("Back to Main Menu",         "back")
         };
     }
@@ -0,0 +1,1973 @@
+package com.cs304.airhockey;
+
+import java.awt.event.KeyEvent;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * GL-free match simulation: rink, paddles, puck, scores and rules.
+ * GameWorld wraps one of these for rendering; headless tools can
+ * create and step it directly without a window or animator.
+ */
+public class GameSimulation {
+
+    // Difficulty for AI mode
+    public enum Difficulty {
+        EASY,
+        MEDIUM,
+        HARD
+    }
+
+    // Game type
+    enum GameType {
+        TWO_PLAYERS,
+        VS_AI,
+        FOUR_PLAYERS_2V2,
+        FOUR_PLAYERS_FFA,
+        MULTI_PUCK
+    }
+
+    public enum Side {
+        LEFT,
+        RIGHT,
+        TOP,
+        BOTTOM
+    }
+
+    /**
+     * Receives match events (for sound, high scores, stats...).
+     * All callbacks run on the thread that calls update().
+     */
+    public interface Listener {
+        void onPaddleHit();
+
+        /** The puck went into the goal on the given side. */
+        void onGoal(Side side);
+
+        /**
+         * The match is over. The name and score are its high-score entry:
+         * the winner's, except against the AI. There the match only ends
+         * when the player is out of lives, so the AI has won and the
+         * entry is the player's name and final score.
+         * {@link GameSimulation#getWinnerName()} always names the winner.
+         */
+        void onMatchFinished(String scoreName, int score);
+    }
+
+    static final Listener NO_LISTENER = new Listener() {
+        @Override
+        public void onPaddleHit() {
+        }
+
+        @Override
+        public void onGoal(Side side) {
+        }
+
+        @Override
+        public void onMatchFinished(String scoreName, int score) {
+        }
+    };
+
+    /** Tick rate the original per-frame tuning values were made for. */
+    public static final int REFERENCE_TICK_RATE = 60;
+    public static final int DEFAULT_TICK_RATE = 120;
+
+    // ----- Input bits (one per game key, see handleKeyPressed) -----
+    public static final int KEY_W = 1;
+    public static final int KEY_S = 1 << 1;
+    public static final int KEY_UP = 1 << 2;
+    public static final int KEY_DOWN = 1 << 3;
+    public static final int KEY_T = 1 << 4;
+    public static final int KEY_G = 1 << 5;
+    public static final int KEY_I = 1 << 6;
+    public static final int KEY_K = 1 << 7;
+    public static final int KEY_A = 1 << 8;
+    public static final int KEY_D = 1 << 9;
+    public static final int KEY_J = 1 << 10;
+    public static final int KEY_L = 1 << 11;
+
+    // ----- Paddle table constants -----
+    public static final int MAX_PADDLES = 8;
+
+    public static final int ORIENTATION_VERTICAL = 0;     // moves up/down
+    public static final int ORIENTATION_HORIZONTAL = 1;   // moves left/right
+
+    private static final int CONTROL_KEYS = 0;
+    private static final int CONTROL_AI = 1;
+
+    private static final int NO_PADDLE = -1;
+
+    private static final Side[] SIDES = Side.values();
+    private static final Difficulty[] DIFFICULTIES = Difficulty.values();
+    private static final GameType[] GAME_TYPES = GameType.values();
+
+    private GameType gameType = GameType.TWO_PLAYERS;
+
+    // ----- Time step -----
+    private final int tickRate;
+    private final double dt;                  // seconds per tick
+
+    // ----- World bounds (rink) -----
+    public static final double WORLD_LEFT = -360;
+    public static final double WORLD_RIGHT = 360;
+    public static final double WORLD_BOTTOM = -220;
+    public static final double WORLD_TOP = 220;
+
+    // ----- Paddles -----
+    // side paddles sit 40 units in front of their goal line
+    private static final double SIDE_PADDLE_X = 320;
+    private static final double PADDLE_LONG_HALF = 60;
+    private static final double PADDLE_SHORT_HALF = 10;
+
+    private double paddleSpeed = 360;         // units per second
+
+    // Structure-of-arrays paddle table: paddle i is column i of every array.
+    // Movement and collision walk these in one pass, whatever the mode.
+    private int paddleCount = 0;
+    private final double[] paddleX = new double[MAX_PADDLES];
+    private final double[] paddleY = new double[MAX_PADDLES];
+    private final double[] paddleHalfW = new double[MAX_PADDLES];
+    private final double[] paddleHalfH = new double[MAX_PADDLES];
+    private final int[] paddleOrientation = new int[MAX_PADDLES];
+    private final int[] paddleOwner = new int[MAX_PADDLES];       // Side ordinal (team / goal)
+    private final int[] paddleSlot = new int[MAX_PADDLES];        // 0 = main, 1 = second, ... per owner
+    private final int[] paddleControl = new int[MAX_PADDLES];
+    private final Difficulty[] paddleAiDifficulty = new Difficulty[MAX_PADDLES];
+    private final int[] paddleKeyPlus = new int[MAX_PADDLES];     // moves up / right
+    private final int[] paddleKeyMinus = new int[MAX_PADDLES];    // moves down / left
+
+    // pressed game keys, one KEY_* bit each (used for human players)
+    private int inputBits = 0;
+
+    // ----- Pucks -----
+    // Every mode uses puck 0; MULTI_PUCK uses 0..puckCount-1.
+    public static final int MAX_PUCKS = 512;
+    private static final double PUCK_RADIUS = 12;
+
+    private int puckCount = 1;
+    private double puckR = PUCK_RADIUS;
+
+    private final double[] puckX = new double[MAX_PUCKS];
+    private final double[] puckY = new double[MAX_PUCKS];
+    // units per second
+    private final double[] puckVX = new double[MAX_PUCKS];
+    private final double[] puckVY = new double[MAX_PUCKS];
+
+    // last paddle to touch each puck
+    private final int[] puckLastHit = new int[MAX_PUCKS];
+
+    // ----- Multi-puck broadphase -----
+    private UniformGrid puckGrid;
+    private final UniformGrid.PairVisitor puckPairResolver = this::resolvePuckPair;
+    private int broadphasePairs = 0;      // candidate pairs checked last tick
+    private int puckContacts = 0;         // pairs that actually collided last tick
+
+    // ----- Game state -----
+    private int leftScore = 0;
+    private int rightScore = 0;
+    private int winningScore = 5;
+    private boolean paused = false;
+    private boolean gameInProgress = false;
+
+    // 2-player / vsAI labels
+    private String leftPlayerName = "Left Player";
+    private String rightPlayerName = "Right Player";
+
+    // 4-player 2v2 names (two per side)
+    private String leftTeamP1Name = "Left P1";
+    private String leftTeamP2Name = "Left P2";
+    private String rightTeamP1Name = "Right P1";
+    private String rightTeamP2Name = "Right P2";
+
+    // 4-player free-for-all names and scores, indexed by Side ordinal
+    private final String[] ffaNames = {"Left Player", "Right Player", "Top Player", "Bottom Player"};
+    private final int[] ffaScores = new int[SIDES.length];
+    private int ffaWinningScore = 5;
+
+    private boolean matchFinished = false;
+    // who won the match that ended last; null while one is being played
+    private String winnerName;
+
+    // ----- Single-player vs AI meta -----
+    private boolean vsAi = false;
+    private Difficulty aiDifficulty = Difficulty.MEDIUM;
+
+    // score/lives/levels only used when vsAi == true
+    private int playerScore = 0;
+    private int playerLives = 3;
+    private int level = 1;
+
+    // ----- Round-start countdown (3..2..1) -----
+    private boolean roundStarting = false;
+    private static final double ROUND_START_SECONDS = 3.0;
+    private final int roundTicksTotal;
+    private int roundTicksRemaining = 0;
+    private int nextServeDirection = 1;       // +1 = towards right, -1 = towards left
+
+    // speed progression for AI mode levels
+    private double puckSpeedMultiplier = 1.0;
+
+    // ----- Lag compensation (server only, see setViewLag) -----
+    // a player is never credited with a save they saw more than this late
+    private static final double MAX_VIEW_LAG_SECONDS = 0.2;
+    private final int maxViewLagTicks;
+    private final int[] viewLagTicks = new int[MAX_PADDLES];
+    private LagHistory lagHistory;        // null until a view lag is set
+    private final int[] goalWaitTicks = new int[MAX_PUCKS];
+    private long lagSaves = 0;
+
+    // ----- Swept collision scratch (reused every tick, no allocation) -----
+    private static final int MAX_PUCK_BOUNCES_PER_TICK = 4;
+    private static final double CONTACT_EPSILON = 1e-6;
+
+    private static final int HIT_NONE = 0;
+    private static final int HIT_WALL = 1;
+    private static final int HIT_PADDLE = 2;
+
+    private double hitT;
+    private double hitNX;
+    private double hitNY;
+    private int hitKind;
+    private int hitPaddle;
+
+    // ----- Randomness -----
+    // every random decision comes from this world's own generator, so the
+    // same seed + the same inputs replay the same match bit for bit
+    private final SimRandom random = new SimRandom(0);
+    // hands out a fresh seed for each match unless one was set explicitly
+    private final SimRandom seedSource = new SimRandom(System.nanoTime() ^ SEED_SALT);
+    private static final long SEED_SALT = 0x2545F4914F6CDD1DL;
+    private long nextSeed;
+    private long matchSeed;
+
+    // records inputs of every advancing tick when attached
+    private ReplayRecorder replayRecorder;
+
+    private final Listener listener;
+
+    public GameSimulation() {
+        this(NO_LISTENER);
+    }
+
+    public GameSimulation(Listener listener) {
+        this(listener, DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * @param tickRate how many times per second update() will be called
+     */
+    public GameSimulation(Listener listener, int tickRate) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("tickRate must be > 0");
+        }
+        this.listener = listener != null ? listener : NO_LISTENER;
+        this.tickRate = tickRate;
+        this.dt = 1.0 / tickRate;
+        this.roundTicksTotal = (int) Math.round(ROUND_START_SECONDS * tickRate);
+        this.maxViewLagTicks = (int) Math.ceil(MAX_VIEW_LAG_SECONDS * tickRate);
+        layoutPaddles();
+
+        puckVX[0] = 360;
+        puckVY[0] = 240;
+        Arrays.fill(puckLastHit, NO_PADDLE);
+        nextSeed = seedSource.nextLong();
+    }
+
+    // ==================== Public API ====================
+
+    /**
+     * Start a local 2-player match (no AI).
+     */
+    public void startNewMatch(String leftName, String rightName) {
+        startNewMatch(leftName, rightName, false, Difficulty.MEDIUM);
+    }
+
+    /**
+     * Start a new match, with option to play vs AI (2 players only).
+     */
+    public void startNewMatch(String leftName,
+                              String rightName,
+                              boolean vsAi,
+                              Difficulty difficulty) {
+        this.gameType = vsAi ? GameType.VS_AI : GameType.TWO_PLAYERS;
+
+        this.leftPlayerName = sanitizeName(leftName, "Left Player");
+        this.rightPlayerName = sanitizeName(rightName, "Right Player");
+
+        this.vsAi = vsAi;
+        this.aiDifficulty = difficulty;
+
+        resetCommonState();
+    }
+
+    /**
+     * Start a 4 players 2 vs 2 match (two paddles on left, two on right).
+     */
+    public void startNewMatch2v2(String left1, String left2,
+                                 String right1, String right2) {
+        this.gameType = GameType.FOUR_PLAYERS_2V2;
+        this.vsAi = false;
+        this.aiDifficulty = Difficulty.MEDIUM;
+
+        this.leftTeamP1Name = sanitizeName(left1, "Left P1");
+        this.leftTeamP2Name = sanitizeName(left2, "Left P2");
+        this.rightTeamP1Name = sanitizeName(right1, "Right P1");
+        this.rightTeamP2Name = sanitizeName(right2, "Right P2");
+
+        // Team labels used in some HUD text
+        this.leftPlayerName = leftTeamP1Name + " & " + leftTeamP2Name;
+        this.rightPlayerName = rightTeamP1Name + " & " + rightTeamP2Name;
+
+        resetCommonState();
+    }
+
+    /**
+     * Start a 4 players free-for-all:
+     * - Left side
+     * - Right side
+     * - Top
+     * - Bottom
+     */
+    public void startNewFreeForAll(String leftName, String rightName,
+                                   String topName, String bottomName) {
+        this.gameType = GameType.FOUR_PLAYERS_FFA;
+        this.vsAi = false;
+        this.aiDifficulty = Difficulty.MEDIUM;
+
+        ffaNames[Side.LEFT.ordinal()] = sanitizeName(leftName, "Left Player");
+        ffaNames[Side.RIGHT.ordinal()] = sanitizeName(rightName, "Right Player");
+        ffaNames[Side.TOP.ordinal()] = sanitizeName(topName, "Top Player");
+        ffaNames[Side.BOTTOM.ordinal()] = sanitizeName(bottomName, "Bottom Player");
+
+        resetCommonState();
+    }
+
+    /**
+     * Start a 2-player match with many pucks at once. Every goal scores
+     * a point and the puck re-enters from the center straight away.
+     */
+    public void startNewMultiPuck(String leftName, String rightName, int pucks) {
+        if (pucks < 1 || pucks > MAX_PUCKS) {
+            throw new IllegalArgumentException("pucks must be 1.." + MAX_PUCKS);
+        }
+        this.gameType = GameType.MULTI_PUCK;
+        this.vsAi = false;
+        this.aiDifficulty = Difficulty.MEDIUM;
+
+        this.leftPlayerName = sanitizeName(leftName, "Left Player");
+        this.rightPlayerName = sanitizeName(rightName, "Right Player");
+
+        // shrink pucks so they cover at most ~20% of the rink
+        double rinkArea = (WORLD_RIGHT - WORLD_LEFT) * (WORLD_TOP - WORLD_BOTTOM);
+        this.puckCount = pucks;
+        this.puckR = Math.min(PUCK_RADIUS, Math.sqrt(0.2 * rinkArea / (Math.PI * pucks)));
+        ensurePuckGrid();
+
+        resetCommonState();
+    }
+
+    public void endCurrentGame() {
+        gameInProgress = false;
+        paused = false;
+        matchFinished = false;
+        winnerName = null;
+
+        leftScore = 0;
+        rightScore = 0;
+
+        Arrays.fill(ffaScores, 0);
+
+        playerScore = 0;
+        playerLives = 3;
+        level = 1;
+
+        layoutPaddles();
+
+        puckCount = 1;
+        puckR = PUCK_RADIUS;
+        puckX[0] = 0;
+        puckY[0] = 0;
+        puckVX[0] = 360;
+        puckVY[0] = 240;
+        puckLastHit[0] = NO_PADDLE;
+
+        roundStarting = false;
+        roundTicksRemaining = 0;
+        puckSpeedMultiplier = 1.0;
+    }
+
+    public boolean isGameInProgress() {
+        return gameInProgress;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public void togglePause() {
+        this.paused = !this.paused;
+    }
+
+    public void handleKeyPressed(int code) {
+        inputBits |= keyBit(code);
+    }
+
+    public void handleKeyReleased(int code) {
+        inputBits &= ~keyBit(code);
+    }
+
+    /**
+     * Currently pressed game keys as KEY_* bits.
+     */
+    public int getInputBits() {
+        return inputBits;
+    }
+
+    public void setInputBits(int inputBits) {
+        this.inputBits = inputBits;
+    }
+
+    /**
+     * Advance the match by one fixed tick (1 / tickRate seconds).
+     */
+    public void update() {
+        if (!gameInProgress || paused) return;
+
+        if (replayRecorder != null) {
+            replayRecorder.recordTick(inputBits);
+        }
+        if (lagHistory != null) {
+            // where everything ended up last tick
+            lagHistory.record(paddleX, paddleY, puckX, puckY, puckVX, puckVY);
+        }
+
+        updatePaddles();
+
+        if (roundStarting) {
+            if (roundTicksRemaining > 0) {
+                roundTicksRemaining--;
+            }
+            if (roundTicksRemaining <= 0) {
+                launchPuck();
+            }
+        } else {
+            for (int p = 0; p < puckCount; p++) {
+                updatePuck(p);
+                // a goal in a single-puck mode resets the round
+                if (roundStarting || !gameInProgress) return;
+            }
+            if (puckCount > 1) {
+                collidePucks();
+            }
+        }
+    }
+
+    /**
+     * Hand every paddle guarding the given side over to the AI.
+     * Used for headless AI-vs-AI runs; call it after starting the match,
+     * since starting a match lays the paddles out again.
+     */
+    public void setAiControlled(Side side, Difficulty difficulty) {
+        for (int i = 0; i < paddleCount; i++) {
+            if (paddleOwner[i] == side.ordinal()) {
+                paddleControl[i] = CONTROL_AI;
+                paddleAiDifficulty[i] = difficulty;
+            }
+        }
+    }
+
+    /**
+     * How many ticks late the player steering paddle i sees the puck:
+     * their round trip plus how far behind the newest state their client
+     * draws. A puck crossing into that player's goal waits on the line
+     * until they have seen it, and counts as saved if their paddle hit the
+     * puck as they saw it (see heldForLag). Capped at {@link #MAX_VIEW_LAG_SECONDS}; 0 turns
+     * it off. For servers only: it makes the match depend on network
+     * timing, so it is not part of the saved state, and starting a match
+     * turns it off again.
+     */
+    public void setViewLag(int i, int ticks) {
+        viewLagTicks[i] = Math.max(0, Math.min(ticks, maxViewLagTicks));
+        if (viewLagTicks[i] > 0 && (lagHistory == null || !lagHistory.fits(paddleCount, puckCount))) {
+            // the puck is looked at up to twice the lag back: see heldForLag()
+            lagHistory = new LagHistory(2 * maxViewLagTicks, paddleCount, puckCount);
+        }
+    }
+
+    /**
+     * Goals turned into saves by lag compensation so far.
+     */
+    public long getLagSaves() {
+        return lagSaves;
+    }
+
+    /**
+     * Seed for the next startNew...() call only; later matches go back
+     * to fresh seeds. The same seed and the same inputs give an
+     * identical match.
+     */
+    public void setSeed(long seed) {
+        nextSeed = seed;
+    }
+
+    /**
+     * Seed of the current (or last) match.
+     */
+    public long getSeed() {
+        return matchSeed;
+    }
+
+    /**
+     * Record every match started from now on (null to stop recording).
+     */
+    public void setReplayRecorder(ReplayRecorder replayRecorder) {
+        this.replayRecorder = replayRecorder;
+    }
+
+    /**
+     * Name of the side that won the last finished match (team names
+     * joined by " & " in 2 vs 2), or null if no match has finished.
+     */
+    public String getWinnerName() {
+        return winnerName;
+    }
+
+    public boolean consumeMatchFinished() {
+        if (matchFinished) {
+            matchFinished = false;
+            return true;
+        }
+        return false;
+    }
+
+    // ==================== State accessors (for rendering) ====================
+
+    GameType getGameType() {
+        return gameType;
+    }
+
+    public boolean isVsAi() {
+        return vsAi;
+    }
+
+    public boolean isFreeForAll() {
+        return gameType == GameType.FOUR_PLAYERS_FFA;
+    }
+
+    public boolean isMultiPuck() {
+        return gameType == GameType.MULTI_PUCK;
+    }
+
+    public Difficulty getAiDifficulty() {
+        return aiDifficulty;
+    }
+
+    public int getPaddleCount() {
+        return paddleCount;
+    }
+
+    public double getPaddleX(int i) {
+        return paddleX[i];
+    }
+
+    public double getPaddleY(int i) {
+        return paddleY[i];
+    }
+
+    public double getPaddleHalfW(int i) {
+        return paddleHalfW[i];
+    }
+
+    public double getPaddleHalfH(int i) {
+        return paddleHalfH[i];
+    }
+
+    public Side getPaddleOwner(int i) {
+        return SIDES[paddleOwner[i]];
+    }
+
+    /** 0 for the owner's main paddle, 1 for the second one, and so on. */
+    public int getPaddleSlot(int i) {
+        return paddleSlot[i];
+    }
+
+    /**
+     * Paddle speed in world units per second.
+     */
+    double getPaddleSpeed() {
+        return paddleSpeed;
+    }
+
+    /**
+     * Input bit that moves paddle i up / right (0 for AI paddles).
+     */
+    int getPaddleKeyPlus(int i) {
+        return paddleKeyPlus[i];
+    }
+
+    /**
+     * Input bit that moves paddle i down / left (0 for AI paddles).
+     */
+    int getPaddleKeyMinus(int i) {
+        return paddleKeyMinus[i];
+    }
+
+    public int getPuckCount() {
+        return puckCount;
+    }
+
+    public double getPuckX(int p) {
+        return puckX[p];
+    }
+
+    public double getPuckY(int p) {
+        return puckY[p];
+    }
+
+    public double getPuckR() {
+        return puckR;
+    }
+
+    /** Broadphase candidate pairs tested on the last tick (multi-puck only). */
+    public int getBroadphasePairs() {
+        return broadphasePairs;
+    }
+
+    /** Puck-puck collisions resolved on the last tick (multi-puck only). */
+    public int getPuckContacts() {
+        return puckContacts;
+    }
+
+    public int getLeftScore() {
+        return leftScore;
+    }
+
+    public int getRightScore() {
+        return rightScore;
+    }
+
+    public String getLeftPlayerName() {
+        return leftPlayerName;
+    }
+
+    public String getRightPlayerName() {
+        return rightPlayerName;
+    }
+
+    public String getLeftTeamP1Name() {
+        return leftTeamP1Name;
+    }
+
+    public String getLeftTeamP2Name() {
+        return leftTeamP2Name;
+    }
+
+    public String getRightTeamP1Name() {
+        return rightTeamP1Name;
+    }
+
+    public String getRightTeamP2Name() {
+        return rightTeamP2Name;
+    }
+
+    public String getFfaName(Side side) {
+        return ffaNames[side.ordinal()];
+    }
+
+    public int getFfaScore(Side side) {
+        return ffaScores[side.ordinal()];
+    }
+
+    public int getPlayerScore() {
+        return playerScore;
+    }
+
+    public int getPlayerLives() {
+        return playerLives;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isRoundStarting() {
+        return roundStarting;
+    }
+
+    public int getRoundTicksTotal() {
+        return roundTicksTotal;
+    }
+
+    public int getRoundTicksRemaining() {
+        return roundTicksRemaining;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    // ==================== Snapshots ====================
+
+    private static final int STATE_MAGIC = 0x41485331;    // "AHS1"
+
+    private static final int STATE_HEADER_BYTES = 4 + 4 + 1;
+    private static final int STATE_PADDLE_BYTES = 4 * 8 + 7 * 4;
+    private static final int STATE_PUCK_BYTES = 4 * 8 + 4;
+    private static final int STATE_FIXED_BYTES = 8 + 4 + 4 + 8 + 4 + 4
+            + 3 * 4 + 1 + 4 * 4 + 4 + 1 + 3 * 4 + 2 * 4 + 8 + 2 * 8;
+
+    /**
+     * Largest number of bytes saveState() can write.
+     */
+    public static final int MAX_STATE_BYTES = STATE_HEADER_BYTES + STATE_FIXED_BYTES
+            + MAX_PADDLES * STATE_PADDLE_BYTES + 4 + MAX_PUCKS * STATE_PUCK_BYTES;
+
+    /**
+     * Bytes saveState() writes for the current match (depends on puck count).
+     */
+    public int getStateSize() {
+        return STATE_HEADER_BYTES + STATE_FIXED_BYTES
+                + paddleCount * STATE_PADDLE_BYTES + 4 + puckCount * STATE_PUCK_BYTES;
+    }
+
+    /**
+     * Write the whole match state at the buffer's position (advancing it),
+     * without allocating. Player names, the listener and the replay
+     * recorder are not part of the state.
+     */
+    public void saveState(ByteBuffer out) {
+        out.putInt(STATE_MAGIC);
+        out.putInt(tickRate);
+        out.put((byte) gameType.ordinal());
+
+        // ----- paddles -----
+        out.putDouble(paddleSpeed);
+        out.putInt(inputBits);
+        out.putInt(paddleCount);
+        for (int i = 0; i < paddleCount; i++) {
+            out.putDouble(paddleX[i]);
+            out.putDouble(paddleY[i]);
+            out.putDouble(paddleHalfW[i]);
+            out.putDouble(paddleHalfH[i]);
+            out.putInt(paddleOrientation[i]);
+            out.putInt(paddleOwner[i]);
+            out.putInt(paddleSlot[i]);
+            out.putInt(paddleControl[i]);
+            out.putInt(paddleAiDifficulty[i].ordinal());
+            out.putInt(paddleKeyPlus[i]);
+            out.putInt(paddleKeyMinus[i]);
+        }
+
+        // ----- pucks -----
+        out.putDouble(puckR);
+        out.putInt(broadphasePairs);
+        out.putInt(puckContacts);
+        out.putInt(puckCount);
+        for (int p = 0; p < puckCount; p++) {
+            out.putDouble(puckX[p]);
+            out.putDouble(puckY[p]);
+            out.putDouble(puckVX[p]);
+            out.putDouble(puckVY[p]);
+            out.putInt(puckLastHit[p]);
+        }
+
+        // ----- scores, rules and meta -----
+        out.putInt(leftScore);
+        out.putInt(rightScore);
+        out.putInt(winningScore);
+        out.put((byte) ((paused ? 1 : 0)
+                | (gameInProgress ? 2 : 0)
+                | (matchFinished ? 4 : 0)
+                | (vsAi ? 8 : 0)
+                | (roundStarting ? 16 : 0)));
+        for (int s = 0; s < ffaScores.length; s++) {
+            out.putInt(ffaScores[s]);
+        }
+        out.putInt(ffaWinningScore);
+        out.put((byte) aiDifficulty.ordinal());
+        out.putInt(playerScore);
+        out.putInt(playerLives);
+        out.putInt(level);
+        out.putInt(roundTicksRemaining);
+        out.putInt(nextServeDirection);
+        out.putDouble(puckSpeedMultiplier);
+        out.putLong(random.getState());
+        out.putLong(matchSeed);
+    }
+
+    /**
+     * Load a state written by saveState() from the buffer's position
+     * (advancing it). The simulation must run at the same tick rate.
+     * No listener events are fired.
+     */
+    public void restoreState(ByteBuffer in) {
+        if (in.getInt() != STATE_MAGIC) {
+            throw new IllegalArgumentException("Not a simulation snapshot");
+        }
+        int savedTickRate = in.getInt();
+        if (savedTickRate != tickRate) {
+            throw new IllegalArgumentException("Snapshot was taken at " + savedTickRate
+                    + " ticks/s, simulation runs at " + tickRate);
+        }
+        gameType = GAME_TYPES[in.get()];
+
+        // ----- paddles -----
+        paddleSpeed = in.getDouble();
+        inputBits = in.getInt();
+        paddleCount = in.getInt();
+        for (int i = 0; i < paddleCount; i++) {
+            paddleX[i] = in.getDouble();
+            paddleY[i] = in.getDouble();
+            paddleHalfW[i] = in.getDouble();
+            paddleHalfH[i] = in.getDouble();
+            paddleOrientation[i] = in.getInt();
+            paddleOwner[i] = in.getInt();
+            paddleSlot[i] = in.getInt();
+            paddleControl[i] = in.getInt();
+            paddleAiDifficulty[i] = DIFFICULTIES[in.getInt()];
+            paddleKeyPlus[i] = in.getInt();
+            paddleKeyMinus[i] = in.getInt();
+        }
+
+        // ----- pucks -----
+        puckR = in.getDouble();
+        broadphasePairs = in.getInt();
+        puckContacts = in.getInt();
+        puckCount = in.getInt();
+        for (int p = 0; p < puckCount; p++) {
+            puckX[p] = in.getDouble();
+            puckY[p] = in.getDouble();
+            puckVX[p] = in.getDouble();
+            puckVY[p] = in.getDouble();
+            puckLastHit[p] = in.getInt();
+        }
+        if (gameType == GameType.MULTI_PUCK) {
+            ensurePuckGrid();
+        }
+
+        // ----- scores, rules and meta -----
+        leftScore = in.getInt();
+        rightScore = in.getInt();
+        winningScore = in.getInt();
+        int flags = in.get();
+        paused = (flags & 1) != 0;
+        gameInProgress = (flags & 2) != 0;
+        matchFinished = (flags & 4) != 0;
+        vsAi = (flags & 8) != 0;
+        roundStarting = (flags & 16) != 0;
+        for (int s = 0; s < ffaScores.length; s++) {
+            ffaScores[s] = in.getInt();
+        }
+        ffaWinningScore = in.getInt();
+        aiDifficulty = DIFFICULTIES[in.get()];
+        playerScore = in.getInt();
+        playerLives = in.getInt();
+        level = in.getInt();
+        roundTicksRemaining = in.getInt();
+        nextServeDirection = in.getInt();
+        puckSpeedMultiplier = in.getDouble();
+        random.setState(in.getLong());
+        matchSeed = in.getLong();
+    }
+
+    // ----- quantized network state -----
+
+    // positions, sizes and speeds are sent in 1/16 of a world unit, so
+    // anything on the +-360 x +-220 rink fits in 14 bits
+    private static final double NET_POSITION_SCALE = 16.0;
+    private static final double NET_MULTIPLIER_SCALE = 1024.0;
+
+    private static final int NET_FIXED_FIELDS = 18 + SIDES.length;
+    private static final int NET_PADDLE_FIELDS = 4;
+    private static final int NET_PUCK_FIELDS = 5;
+
+    /**
+     * Largest number of fields writeNetFields() can write.
+     */
+    public static final int MAX_NET_FIELDS = NET_FIXED_FIELDS
+            + MAX_PADDLES * NET_PADDLE_FIELDS + MAX_PUCKS * NET_PUCK_FIELDS;
+
+    /**
+     * Number of fields writeNetFields() writes when the paddle and puck
+     * counts are the given ones (fields 1 and 2 of its output).
+     */
+    static int netFieldCount(int paddles, int pucks) {
+        return NET_FIXED_FIELDS + paddles * NET_PADDLE_FIELDS + pucks * NET_PUCK_FIELDS;
+    }
+
+    /**
+     * Fields writeNetFields() writes for the current match.
+     */
+    int getNetFieldCount() {
+        return netFieldCount(paddleCount, puckCount);
+    }
+
+    /**
+     * Write what a remote player needs to draw the match as quantized ints,
+     * for StateCodec to delta-encode. Unlike saveState() this leaves out
+     * what never changes during a match (paddle layout, key bindings),
+     * the random generator and the collision stats, so the receiving
+     * simulation must have been started with the same MatchSpec.
+     *
+     * @return number of fields written
+     */
+    int writeNetFields(int[] out) {
+        int f = 0;
+        out[f++] = gameType.ordinal();
+        out[f++] = paddleCount;
+        out[f++] = puckCount;
+        out[f++] = netQuantize(paddleSpeed);
+        out[f++] = inputBits;
+        out[f++] = netQuantize(puckR);
+        out[f++] = leftScore;
+        out[f++] = rightScore;
+        out[f++] = winningScore;
+        out[f++] = (paused ? 1 : 0)
+                | (gameInProgress ? 2 : 0)
+                | (matchFinished ? 4 : 0)
+                | (vsAi ? 8 : 0)
+                | (roundStarting ? 16 : 0);
+        for (int s = 0; s < ffaScores.length; s++) {
+            out[f++] = ffaScores[s];
+        }
+        out[f++] = ffaWinningScore;
+        out[f++] = aiDifficulty.ordinal();
+        out[f++] = playerScore;
+        out[f++] = playerLives;
+        out[f++] = level;
+        out[f++] = roundTicksRemaining;
+        out[f++] = nextServeDirection;
+        out[f++] = (int) Math.round(puckSpeedMultiplier * NET_MULTIPLIER_SCALE);
+
+        for (int i = 0; i < paddleCount; i++) {
+            out[f++] = netQuantize(paddleX[i]);
+            out[f++] = netQuantize(paddleY[i]);
+            out[f++] = netQuantize(paddleHalfW[i]);
+            out[f++] = netQuantize(paddleHalfH[i]);
+        }
+        for (int p = 0; p < puckCount; p++) {
+            out[f++] = netQuantize(puckX[p]);
+            out[f++] = netQuantize(puckY[p]);
+            out[f++] = netQuantize(puckVX[p]);
+            out[f++] = netQuantize(puckVY[p]);
+            out[f++] = puckLastHit[p];
+        }
+        return f;
+    }
+
+    /**
+     * Load fields written by writeNetFields(). The simulation must have
+     * been started with the same MatchSpec as the one that wrote them.
+     */
+    void readNetFields(int[] in) {
+        int f = 0;
+        if (in[f++] != gameType.ordinal()) {
+            throw new IllegalArgumentException("Network state is for a different game mode");
+        }
+        int paddles = in[f++];
+        int pucks = in[f++];
+        if (paddles != paddleCount || pucks < 0 || pucks > MAX_PUCKS) {
+            throw new IllegalArgumentException("Network state does not match this match's layout");
+        }
+        paddleSpeed = in[f++] / NET_POSITION_SCALE;
+        inputBits = in[f++];
+        puckR = in[f++] / NET_POSITION_SCALE;
+        leftScore = in[f++];
+        rightScore = in[f++];
+        winningScore = in[f++];
+        int flags = in[f++];
+        paused = (flags & 1) != 0;
+        gameInProgress = (flags & 2) != 0;
+        matchFinished = (flags & 4) != 0;
+        vsAi = (flags & 8) != 0;
+        roundStarting = (flags & 16) != 0;
+        for (int s = 0; s < ffaScores.length; s++) {
+            ffaScores[s] = in[f++];
+        }
+        ffaWinningScore = in[f++];
+        aiDifficulty = DIFFICULTIES[in[f++]];
+        playerScore = in[f++];
+        playerLives = in[f++];
+        level = in[f++];
+        roundTicksRemaining = in[f++];
+        nextServeDirection = in[f++];
+        puckSpeedMultiplier = in[f++] / NET_MULTIPLIER_SCALE;
+
+        for (int i = 0; i < paddleCount; i++) {
+            paddleX[i] = in[f++] / NET_POSITION_SCALE;
+            paddleY[i] = in[f++] / NET_POSITION_SCALE;
+            paddleHalfW[i] = in[f++] / NET_POSITION_SCALE;
+            paddleHalfH[i] = in[f++] / NET_POSITION_SCALE;
+        }
+        puckCount = pucks;
+        for (int p = 0; p < puckCount; p++) {
+            puckX[p] = in[f++] / NET_POSITION_SCALE;
+            puckY[p] = in[f++] / NET_POSITION_SCALE;
+            puckVX[p] = in[f++] / NET_POSITION_SCALE;
+            puckVY[p] = in[f++] / NET_POSITION_SCALE;
+            puckLastHit[p] = in[f++];
+        }
+        if (gameType == GameType.MULTI_PUCK) {
+            ensurePuckGrid();
+        }
+    }
+
+    /**
+     * After readNetFields(), move paddles and pucks t (0..1) of the way
+     * toward a state written the given number of ticks later, for drawing
+     * between two network states. A puck that moved further than its speed
+     * allows was served again after a goal, and is not blended.
+     */
+    void blendNetPositions(int[] next, int ticks, double t) {
+        if (next[1] != paddleCount || next[2] != puckCount) return;
+        int f = NET_FIXED_FIELDS;
+        for (int i = 0; i < paddleCount; i++) {
+            paddleX[i] += (next[f] / NET_POSITION_SCALE - paddleX[i]) * t;
+            paddleY[i] += (next[f + 1] / NET_POSITION_SCALE - paddleY[i]) * t;
+            f += NET_PADDLE_FIELDS;
+        }
+        double span = ticks * dt;
+        for (int p = 0; p < puckCount; p++) {
+            double dx = next[f] / NET_POSITION_SCALE - puckX[p];
+            double dy = next[f + 1] / NET_POSITION_SCALE - puckY[p];
+            double speed = Math.max(Math.hypot(puckVX[p], puckVY[p]),
+                    Math.hypot(next[f + 2], next[f + 3]) / NET_POSITION_SCALE);
+            double reach = speed * span + puckR;
+            if (dx * dx + dy * dy <= reach * reach) {
+                puckX[p] += dx * t;
+                puckY[p] += dy * t;
+            }
+            f += NET_PUCK_FIELDS;
+        }
+    }
+
+    /**
+     * Move a paddle along its line of travel, stopping at the walls like
+     * update() does. Used to predict the local player's paddle online.
+     */
+    void nudgePaddle(int i, double distance) {
+        if (paddleOrientation[i] == ORIENTATION_VERTICAL) {
+            paddleY[i] = clamp(paddleY[i] + distance,
+                    WORLD_BOTTOM + paddleHalfH[i], WORLD_TOP - paddleHalfH[i]);
+        } else {
+            paddleX[i] = clamp(paddleX[i] + distance,
+                    WORLD_LEFT + paddleHalfW[i], WORLD_RIGHT - paddleHalfW[i]);
+        }
+    }
+
+    /**
+     * Put a paddle where a state written by writeNetFields() has it.
+     */
+    void setPaddleFromNetFields(int i, int[] in) {
+        int f = NET_FIXED_FIELDS + i * NET_PADDLE_FIELDS;
+        paddleX[i] = in[f] / NET_POSITION_SCALE;
+        paddleY[i] = in[f + 1] / NET_POSITION_SCALE;
+    }
+
+    /**
+     * Key bits the server applied in a state written by writeNetFields().
+     */
+    static int netInputBits(int[] in) {
+        return in[4];
+    }
+
+    private static int netQuantize(double v) {
+        return (int) Math.round(v * NET_POSITION_SCALE);
+    }
+
+    // ==================== Internal logic ====================
+
+    /**
+     * (Re)create the multi-puck broadphase grid if the puck size changed.
+     */
+    private void ensurePuckGrid() {
+        if (puckGrid == null || puckGrid.getCellSize() != 2 * puckR) {
+            puckGrid = new UniformGrid(WORLD_LEFT, WORLD_BOTTOM, WORLD_RIGHT, WORLD_TOP,
+                    2 * puckR, MAX_PUCKS);
+        }
+    }
+
+    private void resetCommonState() {
+        matchSeed = nextSeed;
+        nextSeed = seedSource.nextLong();
+        random.setState(matchSeed);
+
+        leftScore = 0;
+        rightScore = 0;
+        Arrays.fill(ffaScores, 0);
+
+        paused = false;
+        gameInProgress = true;
+        matchFinished = false;
+        winnerName = null;
+
+        layoutPaddles();
+
+        if (gameType != GameType.MULTI_PUCK) {
+            puckCount = 1;
+            puckR = PUCK_RADIUS;
+        }
+        broadphasePairs = 0;
+        puckContacts = 0;
+        Arrays.fill(viewLagTicks, 0);
+        Arrays.fill(goalWaitTicks, 0);
+        lagHistory = null;
+
+        // reset key state
+        inputBits = 0;
+
+        // reset meta
+        puckSpeedMultiplier = 1.0;
+        playerScore = 0;
+        playerLives = 3;
+        level = 1;
+
+        // center puck and start countdown for first serve
+        startRoundCountdown(randomDirection());
+
+        if (replayRecorder != null) {
+            replayRecorder.begin(this);
+        }
+    }
+
+    private int randomDirection() {
+        return random.nextBoolean() ? 1 : -1;
+    }
+
+    private String sanitizeName(String name, String fallback) {
+        if (name == null) return fallback;
+        String trimmed = name.trim();
+        return trimmed.isEmpty() ? fallback : trimmed;
+    }
+
+    static int keyBit(int code) {
+        switch (code) {
+            case KeyEvent.VK_W:
+                return KEY_W;
+            case KeyEvent.VK_S:
+                return KEY_S;
+            case KeyEvent.VK_UP:
+                return KEY_UP;
+            case KeyEvent.VK_DOWN:
+                return KEY_DOWN;
+            case KeyEvent.VK_T:
+                return KEY_T;
+            case KeyEvent.VK_G:
+                return KEY_G;
+            case KeyEvent.VK_I:
+                return KEY_I;
+            case KeyEvent.VK_K:
+                return KEY_K;
+            case KeyEvent.VK_A:
+                return KEY_A;
+            case KeyEvent.VK_D:
+                return KEY_D;
+            case KeyEvent.VK_J:
+                return KEY_J;
+            case KeyEvent.VK_L:
+                return KEY_L;
+            default:
+                return 0;
+        }
+    }
+
+    // ---------- paddle table ----------
+
+    /**
+     * Fill the paddle table for the current game type.
+     * This is the only place that knows which modes have which paddles.
+     */
+    private void layoutPaddles() {
+        paddleCount = 0;
+
+        switch (gameType) {
+            case TWO_PLAYERS:
+            case MULTI_PUCK:
+                addSidePaddle(Side.LEFT, 0, 0, KEY_W, KEY_S);
+                addSidePaddle(Side.RIGHT, 0, 0, KEY_UP, KEY_DOWN);
+                break;
+
+            case VS_AI:
+                addSidePaddle(Side.LEFT, 0, 0, KEY_W, KEY_S);
+                int ai = addSidePaddle(Side.RIGHT, 0, 0, 0, 0);
+                paddleControl[ai] = CONTROL_AI;
+                paddleAiDifficulty[ai] = aiDifficulty;
+                break;
+
+            case FOUR_PLAYERS_2V2:
+                // left team: P1 = W/S, P2 = T/G
+                addSidePaddle(Side.LEFT, 0, 80, KEY_W, KEY_S);
+                addSidePaddle(Side.LEFT, 1, -80, KEY_T, KEY_G);
+                // right team: P1 = Up/Down, P2 = I/K
+                addSidePaddle(Side.RIGHT, 0, 80, KEY_UP, KEY_DOWN);
+                addSidePaddle(Side.RIGHT, 1, -80, KEY_I, KEY_K);
+                break;
+
+            case FOUR_PLAYERS_FFA:
+                addSidePaddle(Side.LEFT, 0, 0, KEY_W, KEY_S);
+                addSidePaddle(Side.RIGHT, 0, 0, KEY_UP, KEY_DOWN);
+                // top horizontal: L = right, J = left
+                addSidePaddle(Side.TOP, 0, 0, KEY_L, KEY_J);
+                // bottom horizontal: D = right, A = left
+                addSidePaddle(Side.BOTTOM, 0, 0, KEY_D, KEY_A);
+                break;
+        }
+    }
+
+    /**
+     * Add a paddle guarding the given side's goal, 40 units in front of it.
+     *
+     * @param along position along the paddle's line of travel
+     * @return the new paddle index
+     */
+    private int addSidePaddle(Side owner, int slot, double along, int keyPlus, int keyMinus) {
+        switch (owner) {
+            case LEFT:
+                return addPaddle(-SIDE_PADDLE_X, along, PADDLE_SHORT_HALF, PADDLE_LONG_HALF,
+                        ORIENTATION_VERTICAL, owner, slot, keyPlus, keyMinus);
+            case RIGHT:
+                return addPaddle(SIDE_PADDLE_X, along, PADDLE_SHORT_HALF, PADDLE_LONG_HALF,
+                        ORIENTATION_VERTICAL, owner, slot, keyPlus, keyMinus);
+            case TOP:
+                return addPaddle(along, WORLD_TOP - 40, PADDLE_LONG_HALF, PADDLE_SHORT_HALF,
+                        ORIENTATION_HORIZONTAL, owner, slot, keyPlus, keyMinus);
+            default:
+                return addPaddle(along, WORLD_BOTTOM + 40, PADDLE_LONG_HALF, PADDLE_SHORT_HALF,
+                        ORIENTATION_HORIZONTAL, owner, slot, keyPlus, keyMinus);
+        }
+    }
+
+    private int addPaddle(double x, double y, double halfW, double halfH,
+                          int orientation, Side owner, int slot,
+                          int keyPlus, int keyMinus) {
+        if (paddleCount >= MAX_PADDLES) {
+            throw new IllegalStateException("Too many paddles (max " + MAX_PADDLES + ")");
+        }
+        int i = paddleCount++;
+        paddleX[i] = x;
+        paddleY[i] = y;
+        paddleHalfW[i] = halfW;
+        paddleHalfH[i] = halfH;
+        paddleOrientation[i] = orientation;
+        paddleOwner[i] = owner.ordinal();
+        paddleSlot[i] = slot;
+        paddleControl[i] = CONTROL_KEYS;
+        paddleAiDifficulty[i] = aiDifficulty;
+        paddleKeyPlus[i] = keyPlus;
+        paddleKeyMinus[i] = keyMinus;
+        return i;
+    }
+
+    private void updatePaddles() {
+        double step = paddleSpeed * dt;
+        int keys = inputBits;
+
+        for (int i = 0; i < paddleCount; i++) {
+            double move;
+            if (paddleControl[i] == CONTROL_AI) {
+                move = aiPaddleMove(i);
+            } else {
+                move = 0;
+                if ((keys & paddleKeyPlus[i]) != 0) move += step;
+                if ((keys & paddleKeyMinus[i]) != 0) move -= step;
+            }
+
+            if (paddleOrientation[i] == ORIENTATION_VERTICAL) {
+                paddleY[i] = clamp(paddleY[i] + move,
+                        WORLD_BOTTOM + paddleHalfH[i], WORLD_TOP - paddleHalfH[i]);
+            } else {
+                paddleX[i] = clamp(paddleX[i] + move,
+                        WORLD_LEFT + paddleHalfW[i], WORLD_RIGHT - paddleHalfW[i]);
+            }
+        }
+    }
+
+    /**
+     * Simple AI: follow the puck along the paddle's line of travel,
+     * with speed based on difficulty + level.
+     */
+    private double aiPaddleMove(int i) {
+        boolean vertical = paddleOrientation[i] == ORIENTATION_VERTICAL;
+        int p = aiTargetPuck(i);
+        double d = vertical ? puckY[p] - paddleY[i] : puckX[p] - paddleX[i];
+
+        // units per second
+        Difficulty difficulty = paddleAiDifficulty[i];
+        double baseSpeed;
+        switch (difficulty) {
+            case EASY:
+                baseSpeed = 240.0;
+                break;
+            case MEDIUM:
+                baseSpeed = 420.0;
+                break;
+            case HARD:
+                baseSpeed = 600.0;
+                break;
+            default:
+                baseSpeed = 420.0;
+        }
+
+        // slightly faster each level
+        double aiSpeed = (baseSpeed + (level - 1) * 48.0) * dt;
+
+        if (Math.abs(d) <= 3) {
+            return 0;
+        }
+
+        double step = Math.min(Math.abs(d), aiSpeed);
+        double dir = Math.signum(d);
+
+        double noiseFactor;
+        switch (difficulty) {
+            case EASY:
+                noiseFactor = 0.6;
+                break;
+            case MEDIUM:
+                noiseFactor = 0.3;
+                break;
+            case HARD:
+                noiseFactor = 0.1;
+                break;
+            default:
+                noiseFactor = 0.3;
+        }
+        // jitter was tuned per 60 FPS frame, scale it to our tick
+        double noise = (random.nextDouble() - 0.5) * noiseFactor * 6.0
+                * REFERENCE_TICK_RATE * dt;
+
+        return dir * step + noise;
+    }
+
+    /**
+     * Puck the AI paddle should chase: the closest one to the paddle.
+     */
+    private int aiTargetPuck(int i) {
+        int best = 0;
+        double bestDist = Double.MAX_VALUE;
+        for (int p = 0; p < puckCount; p++) {
+            double dx = puckX[p] - paddleX[i];
+            double dy = puckY[p] - paddleY[i];
+            double dist = dx * dx + dy * dy;
+            if (dist < bestDist) {
+                bestDist = dist;
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    private void updatePuck(int p) {
+        // paddles may have moved into the puck since last tick
+        checkPaddleCollision(p);
+
+        movePuckSwept(p);
+
+        if (gameType == GameType.MULTI_PUCK) {
+            checkMultiPuckGoal(p);
+            return;
+        }
+
+        double puckX = this.puckX[p];
+        double puckY = this.puckY[p];
+
+        // Left/right goals (all modes)
+        if (puckX - puckR < WORLD_LEFT) {
+            if (heldForLag(p, Side.LEFT)) return;
+            listener.onGoal(Side.LEFT);
+            if (gameType == GameType.FOUR_PLAYERS_FFA) {
+                handleFreeForAllGoal(Side.LEFT);
+            } else if (vsAi) {
+                handleAiGoal();
+            } else {
+                rightScore++;
+                boolean someoneWon = checkWinTwoPlayerOrTeam();
+                if (!someoneWon) {
+                    startRoundCountdown(-1);
+                }
+            }
+            return;
+        } else if (puckX + puckR > WORLD_RIGHT) {
+            if (heldForLag(p, Side.RIGHT)) return;
+            listener.onGoal(Side.RIGHT);
+            if (gameType == GameType.FOUR_PLAYERS_FFA) {
+                handleFreeForAllGoal(Side.RIGHT);
+            } else if (vsAi) {
+                handlePlayerGoal();
+            } else {
+                leftScore++;
+                boolean someoneWon = checkWinTwoPlayerOrTeam();
+                if (!someoneWon) {
+                    startRoundCountdown(1);
+                }
+            }
+            return;
+        }
+
+        // Top / bottom goals only in free-for-all
+        if (gameType == GameType.FOUR_PLAYERS_FFA) {
+            if (puckY + puckR > WORLD_TOP) {
+                if (heldForLag(p, Side.TOP)) return;
+                listener.onGoal(Side.TOP);
+                handleFreeForAllGoal(Side.TOP);
+                return;
+            } else if (puckY - puckR < WORLD_BOTTOM) {
+                if (heldForLag(p, Side.BOTTOM)) return;
+                listener.onGoal(Side.BOTTOM);
+                handleFreeForAllGoal(Side.BOTTOM);
+            }
+        }
+    }
+
+    private void checkMultiPuckGoal(int p) {
+        if (puckX[p] - puckR < WORLD_LEFT) {
+            if (heldForLag(p, Side.LEFT)) return;
+            listener.onGoal(Side.LEFT);
+            rightScore++;
+        } else if (puckX[p] + puckR > WORLD_RIGHT) {
+            if (heldForLag(p, Side.RIGHT)) return;
+            listener.onGoal(Side.RIGHT);
+            leftScore++;
+        } else {
+            return;
+        }
+
+        if (!checkWinTwoPlayerOrTeam()) {
+            // straight back into play from the center, towards the scorer
+            respawnPuck(p, puckX[p] < 0 ? -1 : 1);
+        }
+    }
+
+    // start a countdown for the next round, freezing the puck(s) at center
+    private void startRoundCountdown(int directionToRight) {
+        roundStarting = true;
+        nextServeDirection = directionToRight;
+        roundTicksRemaining = roundTicksTotal;
+
+        if (puckCount == 1) {
+            // place puck at center and freeze it
+            freezePuck(0, 0, 0);
+            return;
+        }
+
+        // lay multiple pucks out on a square grid around the center
+        int perRow = (int) Math.ceil(Math.sqrt(puckCount));
+        double spacing = puckR * 3;
+        double origin = -(perRow - 1) * spacing / 2;
+        for (int p = 0; p < puckCount; p++) {
+            freezePuck(p, origin + (p % perRow) * spacing, origin + (p / perRow) * spacing);
+        }
+    }
+
+    private void freezePuck(int p, double x, double y) {
+        puckX[p] = x;
+        puckY[p] = y;
+        puckVX[p] = 0;
+        puckVY[p] = 0;
+        puckLastHit[p] = NO_PADDLE;
+        goalWaitTicks[p] = 0;
+    }
+
+    // actually launch the puck(s) after countdown
+    private void launchPuck() {
+        for (int p = 0; p < puckCount; p++) {
+            int direction = (p == 0) ? nextServeDirection : randomDirection();
+            servePuck(p, direction);
+        }
+
+        roundStarting = false;
+    }
+
+    private void servePuck(int p, int directionToRight) {
+        double randomY = (random.nextDouble() - 0.5) * 360;
+
+        double baseSpeed = 360.0 * puckSpeedMultiplier;
+        puckVX[p] = baseSpeed * directionToRight;
+        puckVY[p] = randomY * puckSpeedMultiplier;
+    }
+
+    private void respawnPuck(int p, int directionToRight) {
+        freezePuck(p, 0, (random.nextDouble() - 0.5) * (WORLD_TOP - WORLD_BOTTOM) * 0.5);
+        servePuck(p, directionToRight);
+    }
+
+    private void handlePlayerGoal() {
+        leftScore++;
+        playerScore += 100 * level;
+
+        if (leftScore >= winningScore) {
+            // Level up!
+            level++;
+            leftScore = 0;
+            rightScore = 0;
+
+            // Slightly faster puck as level rises
+            puckSpeedMultiplier *= 1.05;
+        }
+
+        // next serve from center towards AI (positive X)
+        startRoundCountdown(-1);
+    }
+
+    private void handleAiGoal() {
+        rightScore++;
+        playerLives--;
+
+        if (playerLives <= 0) {
+            // Game over for player (vs AI)
+            gameInProgress = false;
+            paused = true;
+            matchFinished = true;
+            winnerName = rightPlayerName;
+
+            // the AI won; the high score entry is the player's
+            listener.onMatchFinished(leftPlayerName, playerScore);
+        } else {
+            // serve towards player again (negative X)
+            startRoundCountdown(1);
+        }
+    }
+
+    private void handleFreeForAllGoal(Side side) {
+        // award a point to the player who last hit the puck,
+        // unless they put it into their own goal
+        int lastHitPaddle = puckLastHit[0];
+        if (lastHitPaddle != NO_PADDLE) {
+            int owner = paddleOwner[lastHitPaddle];
+            if (owner != side.ordinal()) {
+                ffaScores[owner]++;
+            }
+        }
+
+        // reset puck to center with random direction
+        startRoundCountdown(randomDirection());
+
+        checkWinFreeForAll();
+    }
+
+    /**
+     * Move puck p for one tick using continuous collision detection.
+     * Each pass finds the earliest time of impact against the walls and
+     * paddles (circle vs box, i.e. a ray vs the box grown by the puck
+     * radius), moves the puck there, bounces it and spends the rest of
+     * the tick from the new position. Fast pucks can't skip over paddles.
+     */
+    private void movePuckSwept(int p) {
+        double remaining = 1.0;   // fraction of this tick still to simulate
+
+        for (int pass = 0; pass < MAX_PUCK_BOUNCES_PER_TICK && remaining > 0; pass++) {
+            double moveX = puckVX[p] * dt * remaining;
+            double moveY = puckVY[p] * dt * remaining;
+
+            hitT = 1.0;
+            hitKind = HIT_NONE;
+
+            // For free-for-all mode, top/bottom are goals, so no bounce on them.
+            // A puck already past a wall and still heading out hits it at once.
+            if (gameType != GameType.FOUR_PLAYERS_FFA) {
+                if (moveY > 0) {
+                    sweepWall(Math.max(0, (WORLD_TOP - puckR - puckY[p]) / moveY), 0, -1);
+                } else if (moveY < 0) {
+                    sweepWall(Math.max(0, (WORLD_BOTTOM + puckR - puckY[p]) / moveY), 0, 1);
+                }
+            }
+
+            for (int i = 0; i < paddleCount; i++) {
+                sweepPaddle(i, puckX[p], puckY[p], moveX, moveY);
+            }
+
+            if (hitKind == HIT_NONE) {
+                puckX[p] += moveX;
+                puckY[p] += moveY;
+                return;
+            }
+
+            // move to the point of impact, nudged off the surface
+            puckX[p] += moveX * hitT + hitNX * CONTACT_EPSILON;
+            puckY[p] += moveY * hitT + hitNY * CONTACT_EPSILON;
+            remaining *= (1.0 - hitT);
+
+            // reflect the velocity about the contact normal
+            double vn = puckVX[p] * hitNX + puckVY[p] * hitNY;
+            if (vn < 0) {
+                puckVX[p] -= 2 * vn * hitNX;
+                puckVY[p] -= 2 * vn * hitNY;
+            }
+
+            if (hitKind == HIT_PADDLE) {
+                // english: hitting off-center curves the shot
+                if (paddleOrientation[hitPaddle] == ORIENTATION_VERTICAL) {
+                    puckVY[p] += (puckY[p] - paddleY[hitPaddle]) * 6.0;
+                } else {
+                    puckVX[p] += (puckX[p] - paddleX[hitPaddle]) * 6.0;
+                }
+
+                puckLastHit[p] = hitPaddle;
+                listener.onPaddleHit();
+            }
+        }
+    }
+
+    private void sweepWall(double t, double nx, double ny) {
+        if (t >= 0 && t < hitT) {
+            hitT = t;
+            hitNX = nx;
+            hitNY = ny;
+            hitKind = HIT_WALL;
+        }
+    }
+
+    /**
+     * Time of impact of a puck starting at (px, py) and moving by
+     * (moveX, moveY) against paddle i, as a fraction of the move.
+     * Records it if it beats the current best.
+     * Starting overlaps are left to checkPaddleCollision().
+     */
+    private void sweepPaddle(int i, double px, double py, double moveX, double moveY) {
+        double minX = paddleX[i] - paddleHalfW[i];
+        double maxX = paddleX[i] + paddleHalfW[i];
+        double minY = paddleY[i] - paddleHalfH[i];
+        double maxY = paddleY[i] + paddleHalfH[i];
+
+        // slab test against the box grown by the puck radius
+        double tEnter = 0;
+        double tExit = 1.0;
+        double nx = 0;
+        double ny = 0;
+
+        if (moveX == 0) {
+            if (px <= minX - puckR || px >= maxX + puckR) return;
+        } else {
+            double inv = 1.0 / moveX;
+            double t1 = (minX - puckR - px) * inv;
+            double t2 = (maxX + puckR - px) * inv;
+            double axisNX = moveX > 0 ? -1 : 1;
+            if (t1 > t2) {
+                double tmp = t1;
+                t1 = t2;
+                t2 = tmp;
+            }
+            if (t1 > tEnter) {
+                tEnter = t1;
+                nx = axisNX;
+                ny = 0;
+            }
+            tExit = Math.min(tExit, t2);
+        }
+
+        if (moveY == 0) {
+            if (py <= minY - puckR || py >= maxY + puckR) return;
+        } else {
+            double inv = 1.0 / moveY;
+            double t1 = (minY - puckR - py) * inv;
+            double t2 = (maxY + puckR - py) * inv;
+            double axisNY = moveY > 0 ? -1 : 1;
+            if (t1 > t2) {
+                double tmp = t1;
+                t1 = t2;
+                t2 = tmp;
+            }
+            if (t1 > tEnter) {
+                tEnter = t1;
+                nx = 0;
+                ny = axisNY;
+            }
+            tExit = Math.min(tExit, t2);
+        }
+
+        // no entry this tick, or already overlapping at the start
+        if (tEnter > tExit || (nx == 0 && ny == 0) || tEnter >= hitT) return;
+
+        // the grown box has rounded corners: if we entered through a
+        // corner square, redo the test against that corner's circle
+        double cx = px + moveX * tEnter;
+        double cy = py + moveY * tEnter;
+        boolean outX = cx < minX || cx > maxX;
+        boolean outY = cy < minY || cy > maxY;
+        if (outX && outY) {
+            double cornerX = cx < minX ? minX : maxX;
+            double cornerY = cy < minY ? minY : maxY;
+            double t = rayCircle(px - cornerX, py - cornerY, moveX, moveY, puckR);
+            if (t < 0 || t >= hitT) return;
+            tEnter = t;
+            nx = (px + moveX * t - cornerX) / puckR;
+            ny = (py + moveY * t - cornerY) / puckR;
+        }
+
+        hitT = tEnter;
+        hitNX = nx;
+        hitNY = ny;
+        hitKind = HIT_PADDLE;
+        hitPaddle = i;
+    }
+
+    /**
+     * First t in [0, 1] where origin + t * move is at distance r from (0, 0),
+     * or -1 if it never gets there.
+     */
+    private static double rayCircle(double ox, double oy, double mx, double my, double r) {
+        double a = mx * mx + my * my;
+        if (a == 0) return -1;
+        double b = ox * mx + oy * my;
+        double c = ox * ox + oy * oy - r * r;
+        double disc = b * b - a * c;
+        if (disc < 0) return -1;
+        double t = (-b - Math.sqrt(disc)) / a;
+        return (t >= 0 && t <= 1.0) ? t : -1;
+    }
+
+    private void checkPaddleCollision(int p) {
+        for (int i = 0; i < paddleCount; i++) {
+            checkPaddleCollision(i, p);
+        }
+    }
+
+    /**
+     * @return true if paddle i hit puck p
+     */
+    private boolean checkPaddleCollision(int i, int p) {
+        return paddleOrientation[i] == ORIENTATION_VERTICAL
+                ? checkVerticalPaddleCollision(i, p)
+                : checkHorizontalPaddleCollision(i, p);
+    }
+
+    /**
+     * Lag compensation: puck p has crossed the goal line on this side.
+     * A lagging player guarding it has not seen that happen yet, and is
+     * still steering toward the puck they see. So the puck waits on the
+     * line until they have (their view lag at most), and every tick their
+     * paddle from each of the last few ticks is paired with the puck they
+     * were seeing at that moment and run through the normal paddle
+     * collision. If a pair hits, the save counts and the puck bounces off
+     * from where the player saw it; otherwise the goal stands.
+     *
+     * @return true if the goal was saved or is still waiting
+     */
+    private boolean heldForLag(int p, Side goal) {
+        if (lagHistory == null) return false;
+
+        double x = puckX[p];
+        double y = puckY[p];
+        double vx = puckVX[p];
+        double vy = puckVY[p];
+        int wait = 0;
+        for (int i = 0; i < paddleCount; i++) {
+            int lag = viewLagTicks[i];
+            if (lag == 0 || paddleOwner[i] != goal.ordinal()) continue;
+            wait = Math.max(wait, lag);
+
+            double paddleNowX = paddleX[i];
+            double paddleNowY = paddleY[i];
+            for (int ago = 0; ago <= lag && lagHistory.has(ago + lag); ago++) {
+                if (ago > 0) {
+                    paddleX[i] = lagHistory.paddleX(ago, i);
+                    paddleY[i] = lagHistory.paddleY(ago, i);
+                }
+                lagHistory.loadPuck(ago + lag, p, puckX, puckY, puckVX, puckVY);
+                boolean hit = checkPaddleCollision(i, p);
+                paddleX[i] = paddleNowX;
+                paddleY[i] = paddleNowY;
+                if (hit) {
+                    lagSaves++;
+                    goalWaitTicks[p] = 0;
+                    return true;
+                }
+            }
+        }
+
+        puckX[p] = x;
+        puckY[p] = y;
+        if (goalWaitTicks[p] < wait) {
+            goalWaitTicks[p]++;
+            puckVX[p] = 0;
+            puckVY[p] = 0;
+            return true;
+        }
+        puckVX[p] = vx;
+        puckVY[p] = vy;
+        goalWaitTicks[p] = 0;
+        return false;
+    }
+
+    private boolean checkVerticalPaddleCollision(int i, int p) {
+        double px = paddleX[i];
+        double py = paddleY[i];
+        double pLeft = px - paddleHalfW[i];
+        double pRight = px + paddleHalfW[i];
+        double pTop = py + paddleHalfH[i];
+        double pBottom = py - paddleHalfH[i];
+        boolean isLeftSide = px < 0;
+
+        if (puckX[p] + puckR > pLeft && puckX[p] - puckR < pRight &&
+                puckY[p] + puckR > pBottom && puckY[p] - puckR < pTop) {
+
+            if (isLeftSide && puckVX[p] < 0) {
+                puckX[p] = pRight + puckR;
+                puckVX[p] = -puckVX[p];
+            } else if (!isLeftSide && puckVX[p] > 0) {
+                puckX[p] = pLeft - puckR;
+                puckVX[p] = -puckVX[p];
+            } else {
+                return false;
+            }
+
+            // 0.1 per frame of offset, in units per second
+            double offset = puckY[p] - py;
+            puckVY[p] += offset * 6.0;
+
+            puckLastHit[p] = i;
+            listener.onPaddleHit();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean checkHorizontalPaddleCollision(int i, int p) {
+        double px = paddleX[i];
+        double py = paddleY[i];
+        double pLeft = px - paddleHalfW[i];
+        double pRight = px + paddleHalfW[i];
+        double pTop = py + paddleHalfH[i];
+        double pBottom = py - paddleHalfH[i];
+        boolean isTop = py > 0;
+
+        if (puckX[p] + puckR > pLeft && puckX[p] - puckR < pRight &&
+                puckY[p] + puckR > pBottom && puckY[p] - puckR < pTop) {
+
+            if (isTop && puckVY[p] > 0) {
+                // moving up, hit bottom of top paddle
+                puckY[p] = pBottom - puckR;
+                puckVY[p] = -puckVY[p];
+            } else if (!isTop && puckVY[p] < 0) {
+                // moving down, hit top of bottom paddle
+                puckY[p] = pTop + puckR;
+                puckVY[p] = -puckVY[p];
+            } else {
+                return false;
+            }
+
+            double offset = puckX[p] - px;
+            puckVX[p] += offset * 6.0;
+
+            puckLastHit[p] = i;
+            listener.onPaddleHit();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Puck-puck collisions for multi-puck mode. The uniform grid keeps
+     * this near-linear: only pucks in neighbouring cells are compared.
+     */
+    private void collidePucks() {
+        puckGrid.build(puckX, puckY, puckCount);
+        puckContacts = 0;
+        broadphasePairs = puckGrid.visitPairs(puckPairResolver);
+    }
+
+    /**
+     * Narrowphase for one broadphase pair: equal-mass elastic collision,
+     * i.e. swap the velocity components along the line of centers.
+     */
+    private void resolvePuckPair(int a, int b) {
+        double dx = puckX[b] - puckX[a];
+        double dy = puckY[b] - puckY[a];
+        double minDist = 2 * puckR;
+        double distSq = dx * dx + dy * dy;
+        if (distSq >= minDist * minDist) return;
+
+        double dist = Math.sqrt(distSq);
+        double nx;
+        double ny;
+        if (dist > 0) {
+            nx = dx / dist;
+            ny = dy / dist;
+        } else {
+            nx = 1;
+            ny = 0;
+        }
+
+        // push them apart so they don't stay stuck together
+        double push = (minDist - dist) * 0.5;
+        puckX[a] -= nx * push;
+        puckY[a] -= ny * push;
+        puckX[b] += nx * push;
+        puckY[b] += ny * push;
+        // a pair pressed against a wall must not be pushed through it
+        // (multi-puck only: top and bottom are walls there, not goals)
+        puckY[a] = clamp(puckY[a], WORLD_BOTTOM + puckR, WORLD_TOP - puckR);
+        puckY[b] = clamp(puckY[b], WORLD_BOTTOM + puckR, WORLD_TOP - puckR);
+
+        // only bounce if they are moving towards each other
+        double approach = (puckVX[a] - puckVX[b]) * nx + (puckVY[a] - puckVY[b]) * ny;
+        if (approach > 0) {
+            puckVX[a] -= approach * nx;
+            puckVY[a] -= approach * ny;
+            puckVX[b] += approach * nx;
+            puckVY[b] += approach * ny;
+        }
+        puckContacts++;
+    }
+
+    private boolean checkWinTwoPlayerOrTeam() {
+        if (vsAi || gameType == GameType.FOUR_PLAYERS_FFA) return false;
+
+        // multi-puck scores come in proportionally faster
+        int target = (gameType == GameType.MULTI_PUCK) ? winningScore * puckCount : winningScore;
+
+        if (leftScore >= target || rightScore >= target) {
+            String winnerName;
+            int winnerScore = Math.max(leftScore, rightScore);
+
+            if (gameType == GameType.FOUR_PLAYERS_2V2) {
+                if (leftScore > rightScore) {
+                    winnerName = leftTeamP1Name + " & " + leftTeamP2Name;
+                } else {
+                    winnerName = rightTeamP1Name + " & " + rightTeamP2Name;
+                }
+            } else {
+                winnerName = (leftScore > rightScore) ? leftPlayerName : rightPlayerName;
+            }
+
+            gameInProgress = false;
+            paused = true;
+            matchFinished = true;
+            this.winnerName = winnerName;
+
+            listener.onMatchFinished(winnerName, winnerScore);
+            return true;
+        }
+        return false;
+    }
+
+    private void checkWinFreeForAll() {
+        if (gameType != GameType.FOUR_PLAYERS_FFA) return;
+
+        // first side (in Side order) with the top score wins ties
+        int best = 0;
+        for (int s = 1; s < ffaScores.length; s++) {
+            if (ffaScores[s] > ffaScores[best]) {
+                best = s;
+            }
+        }
+        int maxScore = ffaScores[best];
+
+        if (maxScore >= ffaWinningScore) {
+            gameInProgress = false;
+            paused = true;
+            matchFinished = true;
+            winnerName = ffaNames[best];
+
+            listener.onMatchFinished(ffaNames[best], maxScore);
+        }
+    }
+
+    private double clamp(double v, double min, double max) {
+        return Math.max(min, Math.min(max, v));
+    }
+}
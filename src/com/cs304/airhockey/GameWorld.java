@@ -1,173 +1,159 @@
 package com.cs304.airhockey;
 
-import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.util.awt.TextRenderer;
 
 /**
- * Handles all in-game logic (puck, paddles, scores) and drawing.
+ * Draws the match and connects it to sound and high scores.
+ * All game rules live in {@link GameSimulation}.
+ *
+ * <p>The match runs on its own {@link SimulationLoop} thread. The public
+ * methods only post commands to it; every tick it publishes a
+ * {@link RenderFrame} that {@link #draw} picks up and interpolates, so
+ * neither thread ever waits for the other.
  */
-public class GameWorld {
+public class GameWorld implements GameSimulation.Listener {
+
+    // Paddle colors per owner side (GameSimulation.Side order),
+    // one shade per paddle slot: main paddle first, then teammates.
+    private static final float[][][] PADDLE_COLORS = {
+            {{0.1f, 0.5f, 1.0f}, {0.1f, 0.8f, 1.0f}},   // left: blue shades
+            {{0.1f, 1.0f, 0.4f}, {0.3f, 1.0f, 0.7f}},   // right: green shades
+            {{1.0f, 0.6f, 0.2f}},                       // top: orange
+            {{0.7f, 0.3f, 1.0f}}                        // bottom: purple
+    };
+
+    private static final long MIN_HIT_SOUND_GAP_NANOS = 40_000_000L;
+    // online chat lines stay above the controls line this long
+    private static final long CHAT_SHOW_MILLIS = 6000;
+
+    // online status shown on the HUD (RenderFrame.netStatus)
+    static final int NET_NONE = 0;
+    static final int NET_DISCONNECTED = 1;
+    static final int NET_WAITING_PLAYERS = 2;
+    static final int NET_WAITING_MATCH = 3;
+    static final int NET_SPECTATING = 4;
+
+    // HUD lines, each kept as its own ready-made texture
+    private static final int HUD_TOP_1 = 0;
+    private static final int HUD_TOP_2 = 1;
+    private static final int HUD_BOTTOM = 2;
+    private static final int HUD_COUNTDOWN = 3;
+    private static final int HUD_PAUSED = 4;
+    private static final int HUD_REPLAY = 5;
+    private static final int HUD_NET = 6;
+    private static final int HUD_CHAT = 7;
+    private static final int HUD_SLOTS = 8;
+
+    // the multi-puck broadphase numbers change every tick; show them this often
+    private static final int HUD_STATS_PER_SECOND = 4;
+
+    // every match is recorded and saved here (-Dairhockey.replayDir=...)
+    private static final Path REPLAY_DIR =
+            Paths.get(System.getProperty("airhockey.replayDir", "replays"));
+
+    // finished replays are written here, so a slow disk never holds up a tick
+    private static final ExecutorService REPLAY_WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "airhockey-replay-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // ----- simulation thread only -----
+
+    // the simulation being drawn: localSim, or a mirror of a server match
+    private GameSimulation sim;
+    private final GameSimulation localSim;
+    private final ReplayRecorder replayRecorder = new ReplayRecorder();
+
+    // non-null while a recorded match is being watched
+    private ReplayPlayer replayPlayer;
+
+    // non-null while playing on a MatchServer
+    private NetClient netClient;
+    private boolean onlineMirrorReady = false;
+
+    private long lastHitSoundNanos = 0;
+    private int replaySpeed = 1;
+    private RenderFrame lastPublished;
+
+    // HUD lines are rebuilt only when a value in them changes
+    private final int[] hudValues = new int[14];
+    private boolean hudDirty = true;        // names or mode may have changed
+    private String hudTopLine1;
+    private String hudTopLine2;
+    private String hudBottomLine;
+    private int hudStatsTicks = 0;
+    private int hudPairs;
+    private int hudContacts;
+
+    // ----- shared between the threads -----
+
+    private final SimulationLoop loop;
+    private final TripleBuffer<RenderFrame> frames = new TripleBuffer<>(RenderFrame::new);
+    // copied from the simulation after every tick and command
+    private volatile boolean gameInProgress = false;
+    private volatile boolean paused = false;
+    private final AtomicBoolean matchFinished = new AtomicBoolean(false);
+
+    // ----- render thread only -----
+
+    // border, center line and circle never move: built once, kept on the GPU
+    private final ShapeBatch rink = new ShapeBatch(256, true);
+    // paddles and pucks, when the context has shaders; else the caller's ShapeBatch
+    private final InstancedShapes instanced = new InstancedShapes(-380, 380, -240, 240);
+    private final CachedText hud = new CachedText(HUD_SLOTS);
 
-    // Difficulty for AI mode
-    public enum Difficulty {
-        EASY,
-        MEDIUM,
-        HARD
-    }
+    private final HighScoresScreen highScores;
 
-    // Game type
-    private enum GameType {
-        TWO_PLAYERS,
-        VS_AI,
-        FOUR_PLAYERS_2V2,
-        FOUR_PLAYERS_FFA
+    /**
+     * @param maxCatchUpTicks most ticks run at once after the loop stalls
+     */
+    public GameWorld(HighScoresScreen highScores, int tickRate, int maxCatchUpTicks) {
+        this.highScores = highScores;
+        this.localSim = new GameSimulation(this, tickRate);
+        this.sim = localSim;
+        localSim.setReplayRecorder(replayRecorder);
+        this.loop = new SimulationLoop("airhockey-sim", tickRate, maxCatchUpTicks, this::tick);
+        loop.start();
+        loop.post(() -> publish(System.nanoTime()));
     }
 
-    private enum Side {
-        LEFT,
-        RIGHT,
-        TOP,
-        BOTTOM
-    }
+    // ==================== Public API ====================
+    // Any thread may call these; changes reach the match before its next tick.
 
-    private enum LastHit {
-        NONE,
-        LEFT_MAIN,
-        LEFT_SECOND,
-        RIGHT_MAIN,
-        RIGHT_SECOND,
-        TOP,
-        BOTTOM
+    /**
+     * Tick the match, or hold it (e.g. while a menu is showing).
+     * Time spent held is not caught up afterwards.
+     */
+    public void setRunning(boolean running) {
+        loop.setRunning(running);
     }
 
-    private GameType gameType = GameType.TWO_PLAYERS;
-
-    // ----- World bounds (rink) -----
-    private final double WORLD_LEFT = -360;
-    private final double WORLD_RIGHT = 360;
-    private final double WORLD_BOTTOM = -220;
-    private final double WORLD_TOP = 220;
-
-    // ----- Paddles -----
-    // vertical side paddles (used in all modes)
-    private double paddleHalfW = 10;
-    private double paddleHalfH = 60;
-
-    private double leftPaddleX = -320;
-    private double leftPaddleY = 0;      // main left paddle
-
-    private double rightPaddleX = 320;
-    private double rightPaddleY = 0;     // main right paddle
-
-    // extra vertical paddles for 4-player 2v2
-    private double leftPaddle2Y = -120;
-    private double rightPaddle2Y = 120;
-
-    // horizontal paddles for 4-player free-for-all
-    private double horizontalPaddleHalfW = 60;
-    private double horizontalPaddleHalfH = 10;
-
-    private double topPaddleX = 0;
-    private double topPaddleY = WORLD_TOP - 40;
-
-    private double bottomPaddleX = 0;
-    private double bottomPaddleY = WORLD_BOTTOM + 40;
-
-    private double paddleSpeed = 6;
-
-    // key state for smooth controls (used for human players)
-    private boolean wPressed = false;
-    private boolean sPressed = false;
-    private boolean upPressed = false;
-    private boolean downPressed = false;
-
-    // extra keys for 4-player modes
-    // 2v2 second paddles
-    private boolean tPressed = false;
-    private boolean gPressed = false;
-    private boolean iPressed = false;
-    private boolean kPressed = false;
-
-    // free-for-all horizontal paddles
-    private boolean aPressed = false;
-    private boolean dPressed = false;
-    private boolean jPressed = false;
-    private boolean lPressed = false;
-
-    // ----- Puck -----
-    private double puckX = 0;
-    private double puckY = 0;
-    private double puckR = 12;
-
-    private double puckVX = 6;
-    private double puckVY = 4;
-
-    private LastHit lastHit = LastHit.NONE;
-
-    // ----- Game state -----
-    private int leftScore = 0;
-    private int rightScore = 0;
-    private int winningScore = 5;
-    private boolean paused = false;
-    private boolean gameInProgress = false;
-
-    // 2-player / vsAI labels
-    private String leftPlayerName = "Left Player";
-    private String rightPlayerName = "Right Player";
-
-    // 4-player 2v2 names (two per side)
-    private String leftTeamP1Name = "Left P1";
-    private String leftTeamP2Name = "Left P2";
-    private String rightTeamP1Name = "Right P1";
-    private String rightTeamP2Name = "Right P2";
-
-    // 4-player free-for-all names and scores
-    private String ffaLeftName = "Left Player";
-    private String ffaRightName = "Right Player";
-    private String ffaTopName = "Top Player";
-    private String ffaBottomName = "Bottom Player";
-
-    private int ffaLeftScore = 0;
-    private int ffaRightScore = 0;
-    private int ffaTopScore = 0;
-    private int ffaBottomScore = 0;
-    private int ffaWinningScore = 5;
-
-    private boolean matchFinished = false;
-
-    // ----- Single-player vs AI meta -----
-    private boolean vsAi = false;
-    private Difficulty aiDifficulty = Difficulty.MEDIUM;
-
-    // score/lives/levels only used when vsAi == true
-    private int playerScore = 0;
-    private int playerLives = 3;
-    private int level = 1;
-
-    // ----- Round-start countdown (3..2..1) -----
-    private boolean roundStarting = false;
-    private int roundFramesTotal = 180;       // ~3 seconds at 60 FPS
-    private int roundFramesRemaining = 0;
-    private int nextServeDirection = 1;       // +1 = towards right, -1 = towards left
-
-    // speed progression for AI mode levels
-    private double puckSpeedMultiplier = 1.0;
-
-    private final HighScoresScreen highScores;
-
-    public GameWorld(HighScoresScreen highScores) {
-        this.highScores = highScores;
+    /**
+     * Ticks per tick period while a replay plays (fast-forward).
+     */
+    public void setReplaySpeed(int speed) {
+        loop.post(() -> {
+            replaySpeed = speed;
+            if (replayPlayer != null) loop.setSpeed(speed);
+        });
     }
 
-    // ==================== Public API ====================
-
     /**
      * Start a local 2-player match (no AI).
      */
     public void startNewMatch(String leftName, String rightName) {
-        startNewMatch(leftName, rightName, false, Difficulty.MEDIUM);
+        startNewMatch(leftName, rightName, false, GameSimulation.Difficulty.MEDIUM);
     }
 
     /**
@@ -176,16 +162,12 @@ public class GameWorld {
     public void startNewMatch(String leftName,
                               String rightName,
                               boolean vsAi,
-                              Difficulty difficulty) {
-        this.gameType = vsAi ? GameType.VS_AI : GameType.TWO_PLAYERS;
-
-        this.leftPlayerName = sanitizeName(leftName, "Left Player");
-        this.rightPlayerName = sanitizeName(rightName, "Right Player");
-
-        this.vsAi = vsAi;
-        this.aiDifficulty = difficulty;
-
-        resetCommonState();
+                              GameSimulation.Difficulty difficulty) {
+        command(() -> {
+            prepareLiveMatch();
+            sim.startNewMatch(leftName, rightName, vsAi, difficulty);
+            SoundManager.getInstance().playGameMusicLoop();
+        });
     }
 
     /**
@@ -193,99 +175,78 @@ public class GameWorld {
      */
     public void startNewMatch2v2(String left1, String left2,
                                  String right1, String right2) {
-        this.gameType = GameType.FOUR_PLAYERS_2V2;
-        this.vsAi = false;
-        this.aiDifficulty = Difficulty.MEDIUM;
-
-        this.leftTeamP1Name = sanitizeName(left1, "Left P1");
-        this.leftTeamP2Name = sanitizeName(left2, "Left P2");
-        this.rightTeamP1Name = sanitizeName(right1, "Right P1");
-        this.rightTeamP2Name = sanitizeName(right2, "Right P2");
-
-        // Team labels used in some HUD text
-        this.leftPlayerName = leftTeamP1Name + " & " + leftTeamP2Name;
-        this.rightPlayerName = rightTeamP1Name + " & " + rightTeamP2Name;
-
-        resetCommonState();
-
-        // nicer starting positions for paddles
-        leftPaddleY = 80;
-        leftPaddle2Y = -80;
-        rightPaddleY = 80;
-        rightPaddle2Y = -80;
+        command(() -> {
+            prepareLiveMatch();
+            sim.startNewMatch2v2(left1, left2, right1, right2);
+            SoundManager.getInstance().playGameMusicLoop();
+        });
     }
 
     /**
-     * Start a 4 players free-for-all:
-     * - Left side
-     * - Right side
-     * - Top
-     * - Bottom
+     * Start a 4 players free-for-all (left, right, top, bottom).
      */
     public void startNewFreeForAll(String leftName, String rightName,
                                    String topName, String bottomName) {
-        this.gameType = GameType.FOUR_PLAYERS_FFA;
-        this.vsAi = false;
-        this.aiDifficulty = Difficulty.MEDIUM;
-
-        this.ffaLeftName = sanitizeName(leftName, "Left Player");
-        this.ffaRightName = sanitizeName(rightName, "Right Player");
-        this.ffaTopName = sanitizeName(topName, "Top Player");
-        this.ffaBottomName = sanitizeName(bottomName, "Bottom Player");
-
-        resetCommonState();
-
-        ffaLeftScore = 0;
-        ffaRightScore = 0;
-        ffaTopScore = 0;
-        ffaBottomScore = 0;
-
-        // paddles initial positions
-        leftPaddleY = 0;
-        rightPaddleY = 0;
-
-        topPaddleX = 0;
-        topPaddleY = WORLD_TOP - 40;
-        bottomPaddleX = 0;
-        bottomPaddleY = WORLD_BOTTOM + 40;
+        command(() -> {
+            prepareLiveMatch();
+            sim.startNewFreeForAll(leftName, rightName, topName, bottomName);
+            SoundManager.getInstance().playGameMusicLoop();
+        });
     }
 
-    public void endCurrentGame() {
-        gameInProgress = false;
-        paused = false;
-        matchFinished = false;
-
-        leftScore = 0;
-        rightScore = 0;
-
-        ffaLeftScore = ffaRightScore = ffaTopScore = ffaBottomScore = 0;
-
-        playerScore = 0;
-        playerLives = 3;
-        level = 1;
-
-        leftPaddleY = 0;
-        rightPaddleY = 0;
-        leftPaddle2Y = -120;
-        rightPaddle2Y = 120;
-
-        topPaddleX = 0;
-        bottomPaddleX = 0;
-
-        puckX = 0;
-        puckY = 0;
-        puckVX = 6;
-        puckVY = 4;
+    /**
+     * Start a 2-player match with many pucks on the rink at once.
+     */
+    public void startNewMultiPuck(String leftName, String rightName, int pucks) {
+        command(() -> {
+            prepareLiveMatch();
+            sim.startNewMultiPuck(leftName, rightName, pucks);
+            SoundManager.getInstance().playGameMusicLoop();
+        });
+    }
 
-        roundStarting = false;
-        roundFramesRemaining = 0;
-        puckSpeedMultiplier = 1.0;
+    /**
+     * Watch a recorded match. Nothing is recorded and no high score
+     * is added while it plays.
+     */
+    public void startReplay(Replay replay) {
+        command(() -> {
+            prepareLiveMatch();
+            sim.setReplayRecorder(null);
+            replayPlayer = new ReplayPlayer(replay);
+            replayPlayer.start(sim);
+            loop.setSpeed(replaySpeed);
+            SoundManager.getInstance().playGameMusicLoop();
+        });
+    }
 
-        lastHit = LastHit.NONE;
+    /**
+     * Play a match hosted by a MatchServer. The server runs the game;
+     * this world only shows its states and sends our keys.
+     */
+    public void startOnline(NetClient client) {
+        command(() -> {
+            prepareLiveMatch();
+            netClient = client;
+            onlineMirrorReady = false;
+            // empty rink until the server has found the other players
+            sim = new GameSimulation(this, localSim.getTickRate());
+            SoundManager.getInstance().playGameMusicLoop();
+        });
+    }
 
-        SoundManager.getInstance().stopGameMusic();
+    public void endCurrentGame() {
+        command(() -> {
+            saveReplay();
+            leaveOnline();
+            sim.endCurrentGame();
+            SoundManager.getInstance().stopGameMusic();
+        });
     }
 
+    /**
+     * As of the last tick or command the match has run.
+     */
     public boolean isGameInProgress() {
         return gameInProgress;
     }
@@ -295,801 +256,471 @@ public class GameWorld {
     }
 
     public void setPaused(boolean paused) {
-        this.paused = paused;
+        command(() -> sim.setPaused(paused));
     }
 
     public void togglePause() {
-        this.paused = !this.paused;
+        command(() -> {
+            // the server decides when an online match is paused
+            if (netClient != null) return;
+            sim.togglePause();
+        });
     }
 
     public void handleKeyPressed(int code) {
-        if (code == KeyEvent.VK_W) {
-            wPressed = true;
-        } else if (code == KeyEvent.VK_S) {
-            sPressed = true;
-        } else if (code == KeyEvent.VK_UP) {
-            upPressed = true;
-        } else if (code == KeyEvent.VK_DOWN) {
-            downPressed = true;
-        } else if (code == KeyEvent.VK_T) {
-            tPressed = true;
-        } else if (code == KeyEvent.VK_G) {
-            gPressed = true;
-        } else if (code == KeyEvent.VK_I) {
-            iPressed = true;
-        } else if (code == KeyEvent.VK_K) {
-            kPressed = true;
-        } else if (code == KeyEvent.VK_A) {
-            aPressed = true;
-        } else if (code == KeyEvent.VK_D) {
-            dPressed = true;
-        } else if (code == KeyEvent.VK_J) {
-            jPressed = true;
-        } else if (code == KeyEvent.VK_L) {
-            lPressed = true;
-        }
+        loop.post(() -> {
+            if (netClient != null) {
+                netClient.keyPressed(code);
+                return;
+            }
+            if (replayPlayer != null) return;
+            sim.handleKeyPressed(code);
+        });
     }
 
     public void handleKeyReleased(int code) {
-        if (code == KeyEvent.VK_W) {
-            wPressed = false;
-        } else if (code == KeyEvent.VK_S) {
-            sPressed = false;
-        } else if (code == KeyEvent.VK_UP) {
-            upPressed = false;
-        } else if (code == KeyEvent.VK_DOWN) {
-            downPressed = false;
-        } else if (code == KeyEvent.VK_T) {
-            tPressed = false;
-        } else if (code == KeyEvent.VK_G) {
-            gPressed = false;
-        } else if (code == KeyEvent.VK_I) {
-            iPressed = false;
-        } else if (code == KeyEvent.VK_K) {
-            kPressed = false;
-        } else if (code == KeyEvent.VK_A) {
-            aPressed = false;
-        } else if (code == KeyEvent.VK_D) {
-            dPressed = false;
-        } else if (code == KeyEvent.VK_J) {
-            jPressed = false;
-        } else if (code == KeyEvent.VK_L) {
-            lPressed = false;
-        }
+        loop.post(() -> {
+            if (netClient != null) {
+                netClient.keyReleased(code);
+                return;
+            }
+            if (replayPlayer != null) return;
+            sim.handleKeyReleased(code);
+        });
     }
 
-    public void update() {
-        if (!gameInProgress || paused) return;
-
-        updatePaddles();
-
-        if (roundStarting) {
-            if (roundFramesRemaining > 0) {
-                roundFramesRemaining--;
-            }
-            if (roundFramesRemaining <= 0) {
-                launchPuck();
-            }
+    /**
+     * Draw the newest published tick, moved on from the one before it by
+     * the time since it fell due.
+     */
+    public void draw(GL2 gl, ShapeBatch shapes, TextRenderer textRenderer, int windowWidth, int windowHeight) {
+        RenderFrame frame = frames.latest();
+        double alpha = frame.alpha(System.nanoTime(), loop.getTickNanos());
+
+        drawRink(gl, frame, alpha);
+        if (instanced.begin(gl)) {
+            drawPaddles(instanced, frame, alpha);
+            drawPuck(instanced, frame, alpha);
+            instanced.end();
         } else {
-            updatePuck();
+            shapes.begin(gl);
+            drawPaddles(shapes, frame, alpha);
+            drawPuck(shapes, frame, alpha);
+            shapes.end();
         }
+        drawGameHUD(gl, frame, textRenderer, windowWidth, windowHeight);
     }
 
-    public void draw(GL2 gl, TextRenderer textRenderer, int windowWidth, int windowHeight) {
-        drawRink(gl);
-        drawPaddles(gl);
-        drawPuck(gl);
-        drawGameHUD(textRenderer, windowWidth, windowHeight);
-    }
-
-    public boolean consumeMatchFinished() {
-        if (matchFinished) {
-            matchFinished = false;
-            return true;
-        }
-        return false;
+    /**
+     * The window changed size: rebuild the rink before it is drawn next.
+     */
+    public void onResize() {
+        rink.invalidate();
     }
 
-    // ==================== Internal logic ====================
-
-    private void resetCommonState() {
-        leftScore = 0;
-        rightScore = 0;
-
-        paused = false;
-        gameInProgress = true;
-        matchFinished = false;
-
-        leftPaddleY = 0;
-        rightPaddleY = 0;
-        leftPaddle2Y = -120;
-        rightPaddle2Y = 120;
-
-        topPaddleX = 0;
-        bottomPaddleX = 0;
-
-        // reset key state
-        wPressed = sPressed = upPressed = downPressed = false;
-        tPressed = gPressed = iPressed = kPressed = false;
-        aPressed = dPressed = jPressed = lPressed = false;
-
-        // reset meta
-        puckSpeedMultiplier = 1.0;
-        playerScore = 0;
-        playerLives = 3;
-        level = 1;
-
-        // center puck and start countdown for first serve
-        startRoundCountdown(Math.random() < 0.5 ? -1 : 1);
-
-        lastHit = LastHit.NONE;
-
-        // background music (no double-start issue)
-        SoundManager.getInstance().playGameMusicLoop();
+    /**
+     * The GL context was (re)created; GPU buffers from an old one are gone.
+     */
+    public void onGraphicsReset() {
+        rink.reset();
+        instanced.reset();
+        hud.reset();
     }
 
-    private String sanitizeName(String name, String fallback) {
-        if (name == null) return fallback;
-        String trimmed = name.trim();
-        return trimmed.isEmpty() ? fallback : trimmed;
+    public void disposeGraphics(GL2 gl) {
+        rink.dispose(gl);
+        instanced.dispose(gl);
+        hud.dispose(gl);
     }
 
-    private void updatePaddles() {
-        switch (gameType) {
-            case VS_AI:
-                if (wPressed) leftPaddleY += paddleSpeed;
-                if (sPressed) leftPaddleY -= paddleSpeed;
-                updateAiPaddle();
-                break;
-
-            case TWO_PLAYERS:
-                if (wPressed) leftPaddleY += paddleSpeed;
-                if (sPressed) leftPaddleY -= paddleSpeed;
-                if (upPressed) rightPaddleY += paddleSpeed;
-                if (downPressed) rightPaddleY -= paddleSpeed;
-                break;
-
-            case FOUR_PLAYERS_2V2:
-                // left team
-                if (wPressed) leftPaddleY += paddleSpeed;
-                if (sPressed) leftPaddleY -= paddleSpeed;
-                if (tPressed) leftPaddle2Y += paddleSpeed;
-                if (gPressed) leftPaddle2Y -= paddleSpeed;
-
-                // right team
-                if (upPressed) rightPaddleY += paddleSpeed;
-                if (downPressed) rightPaddleY -= paddleSpeed;
-                if (iPressed) rightPaddle2Y += paddleSpeed;
-                if (kPressed) rightPaddle2Y -= paddleSpeed;
-                break;
-
-            case FOUR_PLAYERS_FFA:
-                // left vertical
-                if (wPressed) leftPaddleY += paddleSpeed;
-                if (sPressed) leftPaddleY -= paddleSpeed;
-                // right vertical
-                if (upPressed) rightPaddleY += paddleSpeed;
-                if (downPressed) rightPaddleY -= paddleSpeed;
-                // top horizontal: J = left, L = right
-                if (jPressed) topPaddleX -= paddleSpeed;
-                if (lPressed) topPaddleX += paddleSpeed;
-                // bottom horizontal: A = left, D = right
-                if (aPressed) bottomPaddleX -= paddleSpeed;
-                if (dPressed) bottomPaddleX += paddleSpeed;
-                break;
-        }
-
-        // clamp vertical paddles
-        leftPaddleY = clamp(leftPaddleY, WORLD_BOTTOM + paddleHalfH, WORLD_TOP - paddleHalfH);
-        rightPaddleY = clamp(rightPaddleY, WORLD_BOTTOM + paddleHalfH, WORLD_TOP - paddleHalfH);
-
-        if (gameType == GameType.FOUR_PLAYERS_2V2) {
-            leftPaddle2Y = clamp(leftPaddle2Y, WORLD_BOTTOM + paddleHalfH, WORLD_TOP - paddleHalfH);
-            rightPaddle2Y = clamp(rightPaddle2Y, WORLD_BOTTOM + paddleHalfH, WORLD_TOP - paddleHalfH);
-        }
-
-        if (gameType == GameType.FOUR_PLAYERS_FFA) {
-            topPaddleX = clamp(topPaddleX, WORLD_LEFT + horizontalPaddleHalfW, WORLD_RIGHT - horizontalPaddleHalfW);
-            bottomPaddleX = clamp(bottomPaddleX, WORLD_LEFT + horizontalPaddleHalfW, WORLD_RIGHT - horizontalPaddleHalfW);
-        }
+    public boolean consumeMatchFinished() {
+        return matchFinished.getAndSet(false);
     }
 
-    private void updateAiPaddle() {
-        // Simple AI: try to follow puckY with speed based on difficulty + level
-        double targetY = puckY;
-        double dy = targetY - rightPaddleY;
+    // ==================== Simulation thread ====================
 
-        double baseSpeed;
-        switch (aiDifficulty) {
-            case EASY:
-                baseSpeed = 4.0;
-                break;
-            case MEDIUM:
-                baseSpeed = 7.0;
-                break;
-            case HARD:
-                baseSpeed = 10.0;
-                break;
-            default:
-                baseSpeed = 7.0;
-        }
-
-        // slightly faster each level
-        double aiSpeed = baseSpeed + (level - 1) * 0.8;
-
-        if (Math.abs(dy) > 3) {
-            double step = Math.min(Math.abs(dy), aiSpeed);
-            double dir = Math.signum(dy);
-
-            double noiseFactor;
-            switch (aiDifficulty) {
-                case EASY:
-                    noiseFactor = 0.6;
-                    break;
-                case MEDIUM:
-                    noiseFactor = 0.3;
-                    break;
-                case HARD:
-                    noiseFactor = 0.1;
-                    break;
-                default:
-                    noiseFactor = 0.3;
-            }
-            double noise = (Math.random() - 0.5) * noiseFactor * 6.0;
-
-            rightPaddleY += dir * step + noise;
-        }
-
-        rightPaddleY = clamp(rightPaddleY, WORLD_BOTTOM + paddleHalfH, WORLD_TOP - paddleHalfH);
+    /**
+     * Run a command that changes what is on screen, and show the result
+     * right away instead of at the next tick (the loop may be held).
+     */
+    private void command(Runnable change) {
+        loop.post(() -> {
+            change.run();
+            hudDirty = true;
+            publish(System.nanoTime());
+        });
     }
 
-    private void updatePuck() {
-        puckX += puckVX;
-        puckY += puckVY;
-
-        // For free-for-all mode, top/bottom are goals, so no bounce on them
-        if (gameType != GameType.FOUR_PLAYERS_FFA) {
-            if (puckY + puckR > WORLD_TOP) {
-                puckY = WORLD_TOP - puckR;
-                puckVY = -puckVY;
-            } else if (puckY - puckR < WORLD_BOTTOM) {
-                puckY = WORLD_BOTTOM + puckR;
-                puckVY = -puckVY;
-            }
-        }
-
-        checkPaddleCollision();
-
-        // Left/right goals (all modes)
-        if (puckX - puckR < WORLD_LEFT) {
-            if (gameType == GameType.FOUR_PLAYERS_FFA) {
-                handleFreeForAllGoal(Side.LEFT);
-            } else if (vsAi) {
-                handleAiGoal();
-            } else {
-                rightScore++;
-                boolean someoneWon = checkWinTwoPlayerOrTeam();
-                if (!someoneWon) {
-                    startRoundCountdown(-1);
-                }
-            }
-            return;
-        } else if (puckX + puckR > WORLD_RIGHT) {
-            if (gameType == GameType.FOUR_PLAYERS_FFA) {
-                handleFreeForAllGoal(Side.RIGHT);
-            } else if (vsAi) {
-                handlePlayerGoal();
-            } else {
-                leftScore++;
-                boolean someoneWon = checkWinTwoPlayerOrTeam();
-                if (!someoneWon) {
-                    startRoundCountdown(1);
-                }
+    /**
+     * Advance the match by one fixed simulation tick.
+     */
+    private void tick(long dueNanos) {
+        if (netClient != null) {
+            updateOnline(dueNanos);
+        } else if (replayPlayer != null) {
+            if (!replayPlayer.step(sim) && sim.isGameInProgress()) {
+                // recording stopped mid-match: hold the last frame
+                sim.setPaused(true);
             }
-            return;
+        } else {
+            sim.update();
         }
-
-        // Top / bottom goals only in free-for-all
-        if (gameType == GameType.FOUR_PLAYERS_FFA) {
-            if (puckY + puckR > WORLD_TOP) {
-                handleFreeForAllGoal(Side.TOP);
-                return;
-            } else if (puckY - puckR < WORLD_BOTTOM) {
-                handleFreeForAllGoal(Side.BOTTOM);
-            }
+        if (sim.consumeMatchFinished()) {
+            matchFinished.set(true);
         }
+        publish(dueNanos);
     }
 
-    // start a countdown for the next round, freezing the puck at center
-    private void startRoundCountdown(int directionToRight) {
-        roundStarting = true;
-        nextServeDirection = directionToRight;
-        roundFramesRemaining = roundFramesTotal;
+    private void publish(long dueNanos) {
+        RenderFrame frame = frames.back();
+        frame.dueNanos = dueNanos;
+        frame.capturePositions(sim, lastPublished != null ? lastPublished : frame);
+        describeHud(frame);
+        frames.publish();
+        lastPublished = frame;
 
-        // place puck at center and freeze it
-        puckX = 0;
-        puckY = 0;
-        puckVX = 0;
-        puckVY = 0;
-
-        lastHit = LastHit.NONE;
+        gameInProgress = sim.isGameInProgress();
+        paused = sim.isPaused();
     }
 
-    // actually launch the puck after countdown
-    private void launchPuck() {
-        double randomY = (Math.random() - 0.5) * 6;
-
-        double baseSpeed = 6.0 * puckSpeedMultiplier;
-        puckVX = baseSpeed * nextServeDirection;
-        puckVY = randomY * puckSpeedMultiplier;
-
-        roundStarting = false;
-    }
+    // ==================== GameSimulation.Listener ====================
 
-    private void handlePlayerGoal() {
-        leftScore++;
-        playerScore += 100 * level;
+    @Override
+    public void onPaddleHit() {
+        // with many pucks, hits can come in every tick; don't stack clips
+        long now = System.nanoTime();
+        if (now - lastHitSoundNanos < MIN_HIT_SOUND_GAP_NANOS) return;
+        lastHitSoundNanos = now;
 
         SoundManager.getInstance().playHit();
+    }
 
-        if (leftScore >= winningScore) {
-            // Level up!
-            level++;
-            leftScore = 0;
-            rightScore = 0;
-
-            // Slightly faster puck as level rises
-            puckSpeedMultiplier *= 1.05;
+    @Override
+    public void onGoal(GameSimulation.Side side) {
+        // only player goals vs AI and free-for-all goals have a hit sound
+        if (sim.isFreeForAll() || (sim.isVsAi() && side == GameSimulation.Side.RIGHT)) {
+            SoundManager.getInstance().playHit();
         }
-
-        // next serve from center towards AI (positive X)
-        startRoundCountdown(-1);
     }
 
-    private void handleAiGoal() {
-        rightScore++;
-        playerLives--;
-
-        if (playerLives <= 0) {
-            // Game over for player (vs AI)
-            gameInProgress = false;
-            paused = true;
-            matchFinished = true;
-
-            // record high score for player
-            highScores.addScore(leftPlayerName, playerScore);
+    @Override
+    public void onMatchFinished(String scoreName, int score) {
+        if (replayPlayer == null) {
+            highScores.addScore(scoreName, score);
+            saveReplay();
+        }
 
+        if (sim.isVsAi()) {
             // play game-over sound and pause bg music for 5 seconds
             SoundManager.getInstance().playGameOverThenResume(5000);
         } else {
-            // serve towards player again (negative X)
-            startRoundCountdown(1);
+            SoundManager.getInstance().stopGameMusic();
         }
     }
 
-    private void handleFreeForAllGoal(Side side) {
-        // award a point to the player who last hit the puck
-        switch (lastHit) {
-            case LEFT_MAIN:
-            case LEFT_SECOND:
-                if (side != Side.LEFT) {
-                    ffaLeftScore++;
-                }
-                break;
-            case RIGHT_MAIN:
-            case RIGHT_SECOND:
-                if (side != Side.RIGHT) {
-                    ffaRightScore++;
-                }
-                break;
-            case TOP:
-                if (side != Side.TOP) {
-                    ffaTopScore++;
-                }
-                break;
-            case BOTTOM:
-                if (side != Side.BOTTOM) {
-                    ffaBottomScore++;
-                }
-                break;
-            default:
-                // nobody touched it recently, no score
-                break;
-        }
-
-        SoundManager.getInstance().playHit();
-
-        // reset puck to center with random direction
-        startRoundCountdown(Math.random() < 0.5 ? -1 : 1);
+    // ==================== Online ====================
 
-        checkWinFreeForAll();
-    }
-
-    private void checkPaddleCollision() {
-        // main left paddle
-        checkVerticalPaddleCollision(leftPaddleX, leftPaddleY,
-                paddleHalfW, paddleHalfH, true, LastHit.LEFT_MAIN);
-
-        // second left paddle for 2v2
-        if (gameType == GameType.FOUR_PLAYERS_2V2) {
-            checkVerticalPaddleCollision(leftPaddleX, leftPaddle2Y,
-                    paddleHalfW, paddleHalfH, true, LastHit.LEFT_SECOND);
+    private void updateOnline(long nowNanos) {
+        if (!onlineMirrorReady) {
+            if (!netClient.hasMatch()) return;      // still waiting for players
+            // the server found the other players: mirror its mode and names
+            sim = new GameSimulation(this, netClient.getTickRate());
+            netClient.getSpec().start(sim);
+            onlineMirrorReady = true;
+            hudDirty = true;
         }
-
-        // main right paddle (used in all modes)
-        checkVerticalPaddleCollision(rightPaddleX, rightPaddleY,
-                paddleHalfW, paddleHalfH, false, LastHit.RIGHT_MAIN);
-
-        // second right paddle for 2v2
-        if (gameType == GameType.FOUR_PLAYERS_2V2) {
-            checkVerticalPaddleCollision(rightPaddleX, rightPaddle2Y,
-                    paddleHalfW, paddleHalfH, false, LastHit.RIGHT_SECOND);
+        int goals = netClient.pollGoals();
+        for (GameSimulation.Side side : GameSimulation.Side.values()) {
+            if ((goals & 1 << side.ordinal()) != 0) {
+                onGoal(side);
+            }
         }
-
-        // horizontal paddles only in free-for-all
-        if (gameType == GameType.FOUR_PLAYERS_FFA) {
-            checkHorizontalPaddleCollision(topPaddleX, topPaddleY,
-                    horizontalPaddleHalfW, horizontalPaddleHalfH, true, LastHit.TOP);
-            checkHorizontalPaddleCollision(bottomPaddleX, bottomPaddleY,
-                    horizontalPaddleHalfW, horizontalPaddleHalfH, false, LastHit.BOTTOM);
+        if (netClient.pollMatchEnded()) {
+            onMatchFinished(netClient.getScoreName(), netClient.getScore());
         }
+        // the newest server states, interpolated up to this tick
+        netClient.applyState(sim, nowNanos);
     }
 
-    private void checkVerticalPaddleCollision(double px, double py,
-                                              double halfW, double halfH,
-                                              boolean isLeftSide,
-                                              LastHit hit) {
-        double pLeft = px - halfW;
-        double pRight = px + halfW;
-        double pTop = py + halfH;
-        double pBottom = py - halfH;
-
-        if (puckX + puckR > pLeft && puckX - puckR < pRight &&
-                puckY + puckR > pBottom && puckY - puckR < pTop) {
-
-            if (isLeftSide && puckVX < 0) {
-                puckX = pRight + puckR;
-                puckVX = -puckVX;
-            } else if (!isLeftSide && puckVX > 0) {
-                puckX = pLeft - puckR;
-                puckVX = -puckVX;
-            } else {
-                return;
-            }
-
-            double offset = puckY - py;
-            puckVY += offset * 0.1;
-
-            lastHit = hit;
-            SoundManager.getInstance().playHit();
+    private void leaveOnline() {
+        if (netClient != null) {
+            netClient.close();
+            netClient = null;
         }
     }
 
-    private void checkHorizontalPaddleCollision(double px, double py,
-                                                double halfW, double halfH,
-                                                boolean isTop,
-                                                LastHit hit) {
-        double pLeft = px - halfW;
-        double pRight = px + halfW;
-        double pTop = py + halfH;
-        double pBottom = py - halfH;
-
-        if (puckX + puckR > pLeft && puckX - puckR < pRight &&
-                puckY + puckR > pBottom && puckY - puckR < pTop) {
-
-            if (isTop && puckVY > 0) {
-                // moving up, hit bottom of top paddle
-                puckY = pBottom - puckR;
-                puckVY = -puckVY;
-            } else if (!isTop && puckVY < 0) {
-                // moving down, hit top of bottom paddle
-                puckY = pTop + puckR;
-                puckVY = -puckVY;
-            } else {
-                return;
-            }
+    // ==================== Replays ====================
 
-            double offset = puckX - px;
-            puckVX += offset * 0.1;
-
-            lastHit = hit;
-            SoundManager.getInstance().playHit();
-        }
+    private void prepareLiveMatch() {
+        saveReplay();
+        leaveOnline();
+        replayPlayer = null;
+        loop.setSpeed(1);
+        matchFinished.set(false);
+        sim = localSim;
+        sim.setReplayRecorder(replayRecorder);
     }
 
-    private boolean checkWinTwoPlayerOrTeam() {
-        if (vsAi || gameType == GameType.FOUR_PLAYERS_FFA) return false;
-
-        if (leftScore >= winningScore || rightScore >= winningScore) {
-            String winnerName;
-            int winnerScore = Math.max(leftScore, rightScore);
-
-            if (gameType == GameType.FOUR_PLAYERS_2V2) {
-                if (leftScore > rightScore) {
-                    winnerName = leftTeamP1Name + " & " + leftTeamP2Name;
-                } else {
-                    winnerName = rightTeamP1Name + " & " + rightTeamP2Name;
-                }
-            } else {
-                winnerName = (leftScore > rightScore) ? leftPlayerName : rightPlayerName;
-            }
-
-            highScores.addScore(winnerName, winnerScore);
-
-            gameInProgress = false;
-            paused = true;
-            matchFinished = true;
+    /**
+     * Hand the match being recorded, if any, to the replay writer.
+     */
+    private void saveReplay() {
+        Replay replay = replayRecorder.finish();
+        if (replay == null || replay.getTicks() == 0) return;
 
-            SoundManager.getInstance().stopGameMusic();
-            return true;
-        }
-        return false;
+        long finishedMillis = System.currentTimeMillis();
+        REPLAY_WRITER.execute(() -> writeReplay(replay, finishedMillis));
     }
 
-    private void checkWinFreeForAll() {
-        if (gameType != GameType.FOUR_PLAYERS_FFA) return;
-
-        int maxScore = Math.max(Math.max(ffaLeftScore, ffaRightScore),
-                Math.max(ffaTopScore, ffaBottomScore));
-
-        if (maxScore >= ffaWinningScore) {
-            String winnerName;
-            if (ffaLeftScore == maxScore) {
-                winnerName = ffaLeftName;
-            } else if (ffaRightScore == maxScore) {
-                winnerName = ffaRightName;
-            } else if (ffaTopScore == maxScore) {
-                winnerName = ffaTopName;
-            } else {
-                winnerName = ffaBottomName;
-            }
-
-            highScores.addScore(winnerName, maxScore);
-
-            gameInProgress = false;
-            paused = true;
-            matchFinished = true;
-
-            SoundManager.getInstance().stopGameMusic();
+    /**
+     * Runs on the replay writer thread.
+     */
+    private static void writeReplay(Replay replay, long finishedMillis) {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(finishedMillis));
+        Path file = REPLAY_DIR.resolve("match-" + stamp + "-"
+                + Long.toHexString(replay.getSeed()) + Replay.FILE_EXTENSION);
+        try {
+            replay.write(file);
+            System.out.println("[Replay] Saved " + file);
+        } catch (IOException ex) {
+            System.err.println("[Replay] Failed to save " + file + ": " + ex.getMessage());
         }
     }
 
     // ==================== Drawing helpers ====================
 
-    private void drawRink(GL2 gl) {
+    private void drawRink(GL2 gl, RenderFrame frame, double alpha) {
+        if (!rink.isBuilt()) {
+            buildRink(gl);
+        }
+        // the only part that changes: the background follows the puck
+        double puckX = frame.puckCount > 0 ? RenderFrame.lerp(frame.puckPrevX[0], frame.puckX[0], alpha) : 0;
         float t = (float) ((Math.sin(puckX * 0.01) + 1.0) * 0.5);
         float base = 0.05f;
-
-        gl.glColor3f(base, base + 0.05f * t, 0.25f + 0.1f * t);
-        fillRect(gl, -380, -240, 380, 240);
-
-        gl.glColor3f(0.9f, 0.9f, 0.9f);
-        gl.glLineWidth(3);
-        gl.glBegin(GL2.GL_LINE_LOOP);
-        gl.glVertex2d(WORLD_LEFT, WORLD_BOTTOM);
-        gl.glVertex2d(WORLD_RIGHT, WORLD_BOTTOM);
-        gl.glVertex2d(WORLD_RIGHT, WORLD_TOP);
-        gl.glVertex2d(WORLD_LEFT, WORLD_TOP);
-        gl.glEnd();
-
-        gl.glColor3f(0.8f, 0.2f, 0.2f);
-        gl.glBegin(GL2.GL_LINES);
-        gl.glVertex2d(0, WORLD_BOTTOM);
-        gl.glVertex2d(0, WORLD_TOP);
-        gl.glEnd();
-
-        gl.glColor3f(0.8f, 0.2f, 0.2f);
-        drawCircleOutline(gl, 0, 0, 60, 48);
+        rink.draw(gl, base, base + 0.05f * t, 0.25f + 0.1f * t);
     }
 
-    private void drawPaddles(GL2 gl) {
-        switch (gameType) {
-            case TWO_PLAYERS:
-            case VS_AI:
-                gl.glColor3f(0.1f, 0.5f, 1.0f);
-                fillRect(gl,
-                        leftPaddleX - paddleHalfW,
-                        leftPaddleY - paddleHalfH,
-                        leftPaddleX + paddleHalfW,
-                        leftPaddleY + paddleHalfH);
-
-                gl.glColor3f(0.1f, 1.0f, 0.4f);
-                fillRect(gl,
-                        rightPaddleX - paddleHalfW,
-                        rightPaddleY - paddleHalfH,
-                        rightPaddleX + paddleHalfW,
-                        rightPaddleY + paddleHalfH);
-                break;
+    private void buildRink(GL2 gl) {
+        rink.begin(gl);
+        rink.tinted(true);
+        rink.fillRect(-380, -240, 380, 240);
+        rink.tinted(false);
 
-            case FOUR_PLAYERS_2V2:
-                // Left team: blue shades
-                gl.glColor3f(0.1f, 0.5f, 1.0f);
-                fillRect(gl,
-                        leftPaddleX - paddleHalfW,
-                        leftPaddleY - paddleHalfH,
-                        leftPaddleX + paddleHalfW,
-                        leftPaddleY + paddleHalfH);
-
-                gl.glColor3f(0.1f, 0.8f, 1.0f);
-                fillRect(gl,
-                        leftPaddleX - paddleHalfW,
-                        leftPaddle2Y - paddleHalfH,
-                        leftPaddleX + paddleHalfW,
-                        leftPaddle2Y + paddleHalfH);
-
-                // Right team: green shades
-                gl.glColor3f(0.1f, 1.0f, 0.4f);
-                fillRect(gl,
-                        rightPaddleX - paddleHalfW,
-                        rightPaddleY - paddleHalfH,
-                        rightPaddleX + paddleHalfW,
-                        rightPaddleY + paddleHalfH);
-
-                gl.glColor3f(0.3f, 1.0f, 0.7f);
-                fillRect(gl,
-                        rightPaddleX - paddleHalfW,
-                        rightPaddle2Y - paddleHalfH,
-                        rightPaddleX + paddleHalfW,
-                        rightPaddle2Y + paddleHalfH);
-                break;
+        rink.color(0.9f, 0.9f, 0.9f);
+        rink.lineWidth(3);
+        rink.rectOutline(GameSimulation.WORLD_LEFT, GameSimulation.WORLD_BOTTOM,
+                GameSimulation.WORLD_RIGHT, GameSimulation.WORLD_TOP);
 
-            case FOUR_PLAYERS_FFA:
-                // left vertical (blue)
-                gl.glColor3f(0.1f, 0.5f, 1.0f);
-                fillRect(gl,
-                        leftPaddleX - paddleHalfW,
-                        leftPaddleY - paddleHalfH,
-                        leftPaddleX + paddleHalfW,
-                        leftPaddleY + paddleHalfH);
-
-                // right vertical (green)
-                gl.glColor3f(0.1f, 1.0f, 0.4f);
-                fillRect(gl,
-                        rightPaddleX - paddleHalfW,
-                        rightPaddleY - paddleHalfH,
-                        rightPaddleX + paddleHalfW,
-                        rightPaddleY + paddleHalfH);
-
-                // top horizontal (orange)
-                gl.glColor3f(1.0f, 0.6f, 0.2f);
-                fillRect(gl,
-                        topPaddleX - horizontalPaddleHalfW,
-                        topPaddleY - horizontalPaddleHalfH,
-                        topPaddleX + horizontalPaddleHalfW,
-                        topPaddleY + horizontalPaddleHalfH);
-
-                // bottom horizontal (purple)
-                gl.glColor3f(0.7f, 0.3f, 1.0f);
-                fillRect(gl,
-                        bottomPaddleX - horizontalPaddleHalfW,
-                        bottomPaddleY - horizontalPaddleHalfH,
-                        bottomPaddleX + horizontalPaddleHalfW,
-                        bottomPaddleY + horizontalPaddleHalfH);
-                break;
+        rink.color(0.8f, 0.2f, 0.2f);
+        rink.line(0, GameSimulation.WORLD_BOTTOM, 0, GameSimulation.WORLD_TOP);
+        rink.circleOutline(0, 0, 60, 48);
+        rink.end();
+    }
+
+    private void drawPaddles(ShapeRenderer shapes, RenderFrame frame, double alpha) {
+        for (int i = 0; i < frame.paddleCount; i++) {
+            float[][] shades = PADDLE_COLORS[frame.paddleOwner[i]];
+            float[] c = shades[Math.min(frame.paddleSlot[i], shades.length - 1)];
+            shapes.color(c[0], c[1], c[2]);
+
+            double x = RenderFrame.lerp(frame.paddlePrevX[i], frame.paddleX[i], alpha);
+            double y = RenderFrame.lerp(frame.paddlePrevY[i], frame.paddleY[i], alpha);
+            double halfW = frame.paddleHalfW[i];
+            double halfH = frame.paddleHalfH[i];
+            shapes.fillRect(x - halfW, y - halfH, x + halfW, y + halfH);
         }
     }
 
-    private void drawPuck(GL2 gl) {
-        gl.glColor3f(1.0f, 0.9f, 0.2f);
-        drawCircle(gl, puckX, puckY, puckR, 32);
+    private void drawPuck(ShapeRenderer shapes, RenderFrame frame, double alpha) {
+        shapes.color(1.0f, 0.9f, 0.2f);
+        for (int p = 0; p < frame.puckCount; p++) {
+            shapes.fillCircle(RenderFrame.lerp(frame.puckPrevX[p], frame.puckX[p], alpha),
+                    RenderFrame.lerp(frame.puckPrevY[p], frame.puckY[p], alpha), frame.puckR, 32);
+        }
     }
 
-    private void drawGameHUD(TextRenderer textRenderer, int windowWidth, int windowHeight) {
-        if (textRenderer == null) return;
+    /**
+     * Fill in the HUD text for a frame (simulation thread). The strings
+     * are kept from frame to frame, and rebuilt only when a value shown
+     * in them changes, so the renderer can tell a change by reference.
+     */
+    private void describeHud(RenderFrame frame) {
+        if (--hudStatsTicks <= 0) {
+            hudPairs = sim.getBroadphasePairs();
+            hudContacts = sim.getPuckContacts();
+            hudStatsTicks = Math.max(1, sim.getTickRate() / HUD_STATS_PER_SECOND);
+        }
+        GameSimulation.Difficulty difficulty = sim.getAiDifficulty();
+
+        // no short-circuit: every value is recorded for the next compare
+        boolean changed = hudDirty;
+        changed |= hudValueChanged(0, sim.getGameType().ordinal());
+        changed |= hudValueChanged(1, sim.getLeftScore());
+        changed |= hudValueChanged(2, sim.getRightScore());
+        changed |= hudValueChanged(3, sim.getFfaScore(GameSimulation.Side.LEFT));
+        changed |= hudValueChanged(4, sim.getFfaScore(GameSimulation.Side.RIGHT));
+        changed |= hudValueChanged(5, sim.getFfaScore(GameSimulation.Side.TOP));
+        changed |= hudValueChanged(6, sim.getFfaScore(GameSimulation.Side.BOTTOM));
+        changed |= hudValueChanged(7, sim.getPlayerScore());
+        changed |= hudValueChanged(8, sim.getPlayerLives());
+        changed |= hudValueChanged(9, sim.getLevel());
+        changed |= hudValueChanged(10, difficulty == null ? -1 : difficulty.ordinal());
+        changed |= hudValueChanged(11, sim.getPuckCount());
+        changed |= hudValueChanged(12, sim.isMultiPuck() ? hudPairs : 0);
+        changed |= hudValueChanged(13, sim.isMultiPuck() ? hudContacts : 0);
+        if (changed) {
+            buildHudLines();
+            hudDirty = false;
+        }
+        frame.topLine1 = hudTopLine1;
+        frame.topLine2 = hudTopLine2;
+        frame.bottomLine = hudBottomLine;
 
-        textRenderer.beginRendering(windowWidth, windowHeight);
+        frame.paused = sim.isPaused();
 
-        textRenderer.setColor(1f, 1f, 1f, 1f);
+        // Round-start countdown in center (only while game running and not paused)
+        frame.countdown = null;
+        if (sim.isGameInProgress() && !frame.paused && sim.isRoundStarting() && sim.getRoundTicksRemaining() > 0) {
+            int third = sim.getRoundTicksTotal() / 3;
+            int remaining = sim.getRoundTicksRemaining();
+            if (remaining > 2 * third) {
+                frame.countdown = "3";
+            } else if (remaining > third) {
+                frame.countdown = "2";
+            } else {
+                frame.countdown = "1";
+            }
+        }
 
+        frame.replaying = replayPlayer != null;
+
+        frame.netStatus = NET_NONE;
+        frame.chatLine = null;
+        if (netClient != null) {
+            if (!netClient.isConnected()) {
+                frame.netStatus = NET_DISCONNECTED;
+            } else if (!netClient.hasMatch()) {
+                frame.netStatus = netClient.isSpectating() ? NET_WAITING_MATCH : NET_WAITING_PLAYERS;
+            } else if (netClient.isSpectating()) {
+                frame.netStatus = NET_SPECTATING;
+            }
+            frame.chatLine = netClient.getChatLine(System.nanoTime(), CHAT_SHOW_MILLIS);
+        }
+    }
+
+    private void buildHudLines() {
         String topLine1;
         String topLine2 = null;
         String bottomLine;
 
-        if (gameType == GameType.FOUR_PLAYERS_2V2) {
-            topLine1 = "Left Team (" + leftTeamP1Name + " & " + leftTeamP2Name + "): " + leftScore +
-                    "   Right Team (" + rightTeamP1Name + " & " + rightTeamP2Name + "): " + rightScore;
+        String leftPlayerName = sim.getLeftPlayerName();
+        String rightPlayerName = sim.getRightPlayerName();
+
+        if (sim.getGameType() == GameSimulation.GameType.FOUR_PLAYERS_2V2) {
+            topLine1 = "Left Team (" + sim.getLeftTeamP1Name() + " & " + sim.getLeftTeamP2Name() + "): " + sim.getLeftScore() +
+                    "   Right Team (" + sim.getRightTeamP1Name() + " & " + sim.getRightTeamP2Name() + "): " + sim.getRightScore();
 
             bottomLine = "Left: P1=W/S, P2=T/G  ·  Right: P1=Up/Down, P2=I/K  ·  P: Pause  ·  ESC: Menu";
-        } else if (gameType == GameType.FOUR_PLAYERS_FFA) {
-            topLine1 = ffaLeftName + ": " + ffaLeftScore +
-                    "   " + ffaRightName + ": " + ffaRightScore;
-            topLine2 = ffaTopName + ": " + ffaTopScore +
-                    "   " + ffaBottomName + ": " + ffaBottomScore;
+        } else if (sim.isFreeForAll()) {
+            topLine1 = sim.getFfaName(GameSimulation.Side.LEFT) + ": " + sim.getFfaScore(GameSimulation.Side.LEFT) +
+                    "   " + sim.getFfaName(GameSimulation.Side.RIGHT) + ": " + sim.getFfaScore(GameSimulation.Side.RIGHT);
+            topLine2 = sim.getFfaName(GameSimulation.Side.TOP) + ": " + sim.getFfaScore(GameSimulation.Side.TOP) +
+                    "   " + sim.getFfaName(GameSimulation.Side.BOTTOM) + ": " + sim.getFfaScore(GameSimulation.Side.BOTTOM);
 
             bottomLine = "Left=W/S  ·  Right=Up/Down  ·  Top=J/L  ·  Bottom=A/D  ·  P: Pause  ·  ESC: Menu";
-        } else if (vsAi) {
-            topLine1 = leftPlayerName + " (You): " + leftScore +
-                    "   AI: " + rightScore +
-                    "   Score: " + playerScore +
-                    "   Lives: " + playerLives +
-                    "   Lv: " + level +
-                    " [" + aiDifficulty.name() + "]";
+        } else if (sim.isVsAi()) {
+            topLine1 = leftPlayerName + " (You): " + sim.getLeftScore() +
+                    "   AI: " + sim.getRightScore() +
+                    "   Score: " + sim.getPlayerScore() +
+                    "   Lives: " + sim.getPlayerLives() +
+                    "   Lv: " + sim.getLevel() +
+                    " [" + sim.getAiDifficulty().name() + "]";
 
             bottomLine = "Controls: W/S move   |   P: Pause   |   ESC: Menu   ·  Beat the AI to level up!";
+        } else if (sim.isMultiPuck()) {
+            topLine1 = leftPlayerName + ": " + sim.getLeftScore() +
+                    "   " + rightPlayerName + ": " + sim.getRightScore();
+            topLine2 = "Pucks: " + sim.getPuckCount() +
+                    "   Pairs: " + hudPairs +
+                    "   Contacts: " + hudContacts;
+
+            bottomLine = "W/S: " + leftPlayerName +
+                    "  |  Up/Down: " + rightPlayerName +
+                    "  |  P: Pause  |  ESC: Menu";
         } else {
-            topLine1 = leftPlayerName + ": " + leftScore +
-                    "   " + rightPlayerName + ": " + rightScore;
+            topLine1 = leftPlayerName + ": " + sim.getLeftScore() +
+                    "   " + rightPlayerName + ": " + sim.getRightScore();
 
             bottomLine = "W/S: " + leftPlayerName +
                     "  |  Up/Down: " + rightPlayerName +
                     "  |  P: Pause  |  ESC: Menu";
         }
+        // a line whose text came out the same keeps its old String, so
+        // the renderer does not redraw it
+        hudTopLine1 = sameOrNew(hudTopLine1, topLine1);
+        hudTopLine2 = sameOrNew(hudTopLine2, topLine2);
+        hudBottomLine = sameOrNew(hudBottomLine, bottomLine);
+    }
+
+    private static String sameOrNew(String old, String fresh) {
+        return fresh != null && fresh.equals(old) ? old : fresh;
+    }
+
+    private boolean hudValueChanged(int i, int value) {
+        if (hudValues[i] == value) return false;
+        hudValues[i] = value;
+        return true;
+    }
+
+    /**
+     * @param textRenderer only its font is used: the lines are drawn from {@link #hud}
+     */
+    private void drawGameHUD(GL2 gl, RenderFrame frame, TextRenderer textRenderer, int windowWidth, int windowHeight) {
+        if (textRenderer == null || frame.topLine1 == null) return;
+
+        hud.begin(gl, textRenderer.getFont(), windowWidth, windowHeight);
 
         // draw top HUD lines
-        textRenderer.draw(topLine1, 20, windowHeight - 30);
-        if (topLine2 != null) {
-            textRenderer.draw(topLine2, 20, windowHeight - 60);
-        }
+        hud.draw(HUD_TOP_1, frame.topLine1, 20, windowHeight - 30, 1f, 1f, 1f, 1f);
+        hud.draw(HUD_TOP_2, frame.topLine2, 20, windowHeight - 60, 1f, 1f, 1f, 1f);
 
         // bottom HUD line
-        textRenderer.draw(bottomLine, 20, 20);
-
-        // Round-start countdown in center (only while game running and not paused)
-        if (gameInProgress && !paused && roundStarting && roundFramesRemaining > 0) {
-            int third = roundFramesTotal / 3;
-            int remaining = roundFramesRemaining;
-            String label;
-            if (remaining > 2 * third) {
-                label = "3";
-            } else if (remaining > third) {
-                label = "2";
-            } else {
-                label = "1";
-            }
+        hud.draw(HUD_BOTTOM, frame.bottomLine, 20, 20, 1f, 1f, 1f, 1f);
 
-            textRenderer.setColor(1f, 1f, 0.3f, 1f);
+        if (frame.countdown != null) {
             int approxWidth = 40;
             int x = windowWidth / 2 - approxWidth / 2;
             int y = windowHeight / 2 + 40;
-            textRenderer.draw(label, x, y);
-
-            textRenderer.setColor(1f, 1f, 1f, 1f);
+            hud.draw(HUD_COUNTDOWN, frame.countdown, x, y, 1f, 1f, 0.3f, 1f);
         }
 
-        if (paused) {
-            textRenderer.setColor(1f, 1f, 0f, 1f);
-            textRenderer.draw("PAUSED", windowWidth / 2 - 70, windowHeight / 2);
+        if (frame.paused) {
+            hud.draw(HUD_PAUSED, "PAUSED", windowWidth / 2 - 70, windowHeight / 2, 1f, 1f, 0f, 1f);
         }
 
-        textRenderer.endRendering();
-    }
-
-    private double clamp(double v, double min, double max) {
-        return Math.max(min, Math.min(max, v));
-    }
-
-    private void fillRect(GL2 gl, double x1, double y1, double x2, double y2) {
-        double left = Math.min(x1, x2);
-        double right = Math.max(x1, x2);
-        double bottom = Math.min(y1, y2);
-        double top = Math.max(y1, y2);
-        gl.glBegin(GL2.GL_POLYGON);
-        gl.glVertex2d(left, bottom);
-        gl.glVertex2d(right, bottom);
-        gl.glVertex2d(right, top);
-        gl.glVertex2d(left, top);
-        gl.glEnd();
-    }
-
-    private void drawCircle(GL2 gl, double cx, double cy, double r, int segments) {
-        gl.glBegin(GL2.GL_POLYGON);
-        for (int i = 0; i < segments; i++) {
-            double t = 2.0 * Math.PI * i / segments;
-            double x = cx + r * Math.cos(t);
-            double y = cy + r * Math.sin(t);
-            gl.glVertex2d(x, y);
+        if (frame.replaying) {
+            hud.draw(HUD_REPLAY, "REPLAY", windowWidth - 140, 20, 1f, 0.3f, 0.3f, 1f);
         }
-        gl.glEnd();
-    }
 
-    private void drawCircleOutline(GL2 gl, double cx, double cy, double r, int segments) {
-        gl.glBegin(GL2.GL_LINE_LOOP);
-        for (int i = 0; i < segments; i++) {
-            double t = 2.0 * Math.PI * i / segments;
-            double x = cx + r * Math.cos(t);
-            double y = cy + r * Math.sin(t);
-            gl.glVertex2d(x, y);
+        switch (frame.netStatus) {
+            case NET_DISCONNECTED:
+                hud.draw(HUD_NET, "DISCONNECTED", windowWidth / 2 - 130, windowHeight / 2, 1f, 1f, 0f, 1f);
+                break;
+            case NET_WAITING_MATCH:
+                hud.draw(HUD_NET, "Waiting for a match...", windowWidth / 2 - 200, windowHeight / 2, 1f, 1f, 0f, 1f);
+                break;
+            case NET_WAITING_PLAYERS:
+                hud.draw(HUD_NET, "Waiting for players...", windowWidth / 2 - 200, windowHeight / 2, 1f, 1f, 0f, 1f);
+                break;
+            case NET_SPECTATING:
+                hud.draw(HUD_NET, "SPECTATING", windowWidth - 200, 20, 1f, 1f, 0f, 1f);
+                break;
+            default:
+                break;
         }
-        gl.glEnd();
+
+        hud.draw(HUD_CHAT, frame.chatLine, 20, 50, 1f, 1f, 1f, 1f);
+
+        hud.end();
     }
 }
@@ -22,9 +22,12 @@ public class HighScoresScreen {
         }
     }
 
-    private final List<Entry> scores = new ArrayList<>();
+    // replaced, never changed in place: scores are added on the simulation
+    // thread while the screen may be drawn on the render thread
+    private volatile List<Entry> scores = new ArrayList<>();
 
     public void addScore(String name, int score) {
+        List<Entry> scores = new ArrayList<>(this.scores);
         scores.add(new Entry(name, score));
         // sort descending by score
         Collections.sort(scores, new Comparator<Entry>() {
@@ -38,12 +41,14 @@ public class HighScoresScreen {
         while (scores.size() > 10) {
             scores.remove(scores.size() - 1);
         }
+        this.scores = scores;
     }
 
     public void draw(TextRenderer r, int w, int h) {
         r.setColor(1f, 1f, 1f, 1f);
         r.draw("High Scores", w / 2 - 60, h - 80);
 
+        List<Entry> scores = this.scores;
         if (scores.isEmpty()) {
             r.setColor(0.7f, 0.7f, 0.7f, 1f);
             r.draw("No games played yet.", w / 2 - 80, h / 2);
@@ -0,0 +1,310 @@
+package com.cs304.airhockey;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Draws a frame's paddles and pucks with one instanced draw call: every
+ * shape is a unit quad stretched by the vertex shader, and circles are
+ * cut out of their quad in the fragment shader (with a one-pixel soft
+ * edge) instead of being built from triangles.
+ *
+ * <p>Needs GLSL 1.30 and instanced arrays. When the context lacks them,
+ * or -Dairhockey.renderer=gl2 is set, begin() returns false and the
+ * caller draws with a {@link ShapeBatch} instead.
+ */
+public class InstancedShapes implements ShapeRenderer {
+
+    private static final boolean DISABLED = "gl2".equals(System.getProperty("airhockey.renderer"));
+
+    // per instance: center x, y, half width, half height as floats,
+    // r, g, b, a as bytes, shape (0 rectangle, 1 circle) as a float
+    private static final int INSTANCE_BYTES = 24;
+    private static final int COLOR_OFFSET = 16;
+    private static final int SHAPE_OFFSET = 20;
+
+    // ----- attribute locations -----
+    private static final int A_CORNER = 0;
+    private static final int A_RECT = 1;
+    private static final int A_COLOR = 2;
+    private static final int A_SHAPE = 3;
+
+    private static final String VERTEX_SHADER = ""
+            + "#version 130\n"
+            + "uniform vec4 uView;\n"           // world to clip: x, y scale, then x, y offset
+            + "in vec2 aCorner;\n"
+            + "in vec4 aRect;\n"
+            + "in vec4 aColor;\n"
+            + "in float aShape;\n"
+            + "out vec2 vLocal;\n"
+            + "out vec4 vColor;\n"
+            + "flat out float vShape;\n"
+            + "void main() {\n"
+            + "    vLocal = aCorner;\n"
+            + "    vColor = aColor;\n"
+            + "    vShape = aShape;\n"
+            + "    vec2 world = aRect.xy + aCorner * aRect.zw;\n"
+            + "    gl_Position = vec4(world * uView.xy + uView.zw, 0.0, 1.0);\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER = ""
+            + "#version 130\n"
+            + "in vec2 vLocal;\n"
+            + "in vec4 vColor;\n"
+            + "flat in float vShape;\n"
+            + "void main() {\n"
+            + "    float alpha = vColor.a;\n"
+            + "    if (vShape > 0.5) {\n"
+            + "        float d = length(vLocal);\n"
+            + "        alpha *= 1.0 - smoothstep(1.0 - fwidth(d), 1.0, d);\n"
+            + "        if (alpha <= 0.0) discard;\n"
+            + "    }\n"
+            + "    gl_FragColor = vec4(vColor.rgb, alpha);\n"
+            + "}\n";
+
+    private final float scaleX;
+    private final float scaleY;
+    private final float offsetX;
+    private final float offsetY;
+
+    // ----- GL objects, for the current context -----
+    private boolean checked = false;
+    private boolean available = false;
+    private int program;
+    private int viewUniform;
+    private int cornerBuffer;
+    private int instanceBuffer;
+
+    // ----- the frame being written -----
+    private GL2 gl;
+    private ByteBuffer instances = ByteBuffer.allocateDirect(256 * INSTANCE_BYTES).order(ByteOrder.nativeOrder());
+    private int instanceCount;
+    private byte red;
+    private byte green;
+    private byte blue;
+
+    /**
+     * @param left   world x at the left edge of the viewport, and so on,
+     *               as in the projection the rest of the frame uses
+     */
+    public InstancedShapes(double left, double right, double bottom, double top) {
+        this.scaleX = (float) (2 / (right - left));
+        this.scaleY = (float) (2 / (top - bottom));
+        this.offsetX = (float) (-(right + left) / (right - left));
+        this.offsetY = (float) (-(top + bottom) / (top - bottom));
+    }
+
+    /**
+     * Start a frame's shapes.
+     *
+     * @return false if this context cannot draw them: use the GL2 path
+     */
+    public boolean begin(GL2 gl) {
+        if (!checked) {
+            checked = true;
+            available = !DISABLED && init(gl);
+        }
+        if (!available) return false;
+        this.gl = gl;
+        instances.clear();
+        instanceCount = 0;
+        return true;
+    }
+
+    /**
+     * Draw everything since begin() in one call.
+     */
+    public void end() {
+        if (instanceCount > 0) {
+            draw();
+        }
+        gl = null;
+    }
+
+    /**
+     * The GL context was replaced: its objects went with it, and the new
+     * one may not support shaders.
+     */
+    public void reset() {
+        checked = false;
+        available = false;
+    }
+
+    public void dispose(GL2 gl) {
+        if (!available) return;
+        gl.glDeleteProgram(program);
+        gl.glDeleteBuffers(2, new int[]{cornerBuffer, instanceBuffer}, 0);
+        reset();
+    }
+
+    // ==================== ShapeRenderer ====================
+
+    @Override
+    public void color(float r, float g, float b) {
+        red = toByte(r);
+        green = toByte(g);
+        blue = toByte(b);
+    }
+
+    @Override
+    public void fillRect(double x1, double y1, double x2, double y2) {
+        instance((x1 + x2) / 2, (y1 + y2) / 2, Math.abs(x2 - x1) / 2, Math.abs(y2 - y1) / 2, 0f);
+    }
+
+    @Override
+    public void fillCircle(double cx, double cy, double r, int segments) {
+        instance(cx, cy, r, r, 1f);
+    }
+
+    private static byte toByte(float c) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, c)) * 255f);
+    }
+
+    private void instance(double cx, double cy, double halfW, double halfH, float shape) {
+        if (instances.remaining() < INSTANCE_BYTES) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(instances.capacity() * 2).order(ByteOrder.nativeOrder());
+            instances.flip();
+            bigger.put(instances);
+            instances = bigger;
+        }
+        instances.putFloat((float) cx);
+        instances.putFloat((float) cy);
+        instances.putFloat((float) halfW);
+        instances.putFloat((float) halfH);
+        instances.put(red);
+        instances.put(green);
+        instances.put(blue);
+        instances.put((byte) 0xFF);
+        instances.putFloat(shape);
+        instanceCount++;
+    }
+
+    // ==================== GL ====================
+
+    private void draw() {
+        instances.flip();
+        gl.glUseProgram(program);
+        gl.glUniform4f(viewUniform, scaleX, scaleY, offsetX, offsetY);
+
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, cornerBuffer);
+        gl.glEnableVertexAttribArray(A_CORNER);
+        gl.glVertexAttribPointer(A_CORNER, 2, GL.GL_FLOAT, false, 0, 0);
+
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, instances.remaining(), instances, GL2.GL_STREAM_DRAW);
+        gl.glEnableVertexAttribArray(A_RECT);
+        gl.glVertexAttribPointer(A_RECT, 4, GL.GL_FLOAT, false, INSTANCE_BYTES, 0);
+        gl.glEnableVertexAttribArray(A_COLOR);
+        gl.glVertexAttribPointer(A_COLOR, 4, GL.GL_UNSIGNED_BYTE, true, INSTANCE_BYTES, COLOR_OFFSET);
+        gl.glEnableVertexAttribArray(A_SHAPE);
+        gl.glVertexAttribPointer(A_SHAPE, 1, GL.GL_FLOAT, false, INSTANCE_BYTES, SHAPE_OFFSET);
+        gl.glVertexAttribDivisor(A_RECT, 1);
+        gl.glVertexAttribDivisor(A_COLOR, 1);
+        gl.glVertexAttribDivisor(A_SHAPE, 1);
+
+        gl.glEnable(GL.GL_BLEND);
+        gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glDrawArraysInstanced(GL.GL_TRIANGLE_STRIP, 0, 4, instanceCount);
+        gl.glDisable(GL.GL_BLEND);
+
+        // leave the attributes as the fixed-function code expects them
+        gl.glVertexAttribDivisor(A_RECT, 0);
+        gl.glVertexAttribDivisor(A_COLOR, 0);
+        gl.glVertexAttribDivisor(A_SHAPE, 0);
+        gl.glDisableVertexAttribArray(A_SHAPE);
+        gl.glDisableVertexAttribArray(A_COLOR);
+        gl.glDisableVertexAttribArray(A_RECT);
+        gl.glDisableVertexAttribArray(A_CORNER);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Compile the shaders and make the buffers.
+     *
+     * @return false, after saying why, if this context cannot
+     */
+    private boolean init(GL2 gl) {
+        if (!gl.isFunctionAvailable("glCreateShader")
+                || !gl.isFunctionAvailable("glDrawArraysInstanced")
+                || !gl.isFunctionAvailable("glVertexAttribDivisor")) {
+            System.out.println("[Render] No shaders or instancing (" + gl.glGetString(GL.GL_RENDERER)
+                    + "): drawing with GL2");
+            return false;
+        }
+
+        int vertex = compile(gl, GL2ES2.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragment = compile(gl, GL2ES2.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        if (vertex == 0 || fragment == 0) {
+            gl.glDeleteShader(vertex);
+            gl.glDeleteShader(fragment);
+            return false;
+        }
+        program = gl.glCreateProgram();
+        gl.glAttachShader(program, vertex);
+        gl.glAttachShader(program, fragment);
+        gl.glBindAttribLocation(program, A_CORNER, "aCorner");
+        gl.glBindAttribLocation(program, A_RECT, "aRect");
+        gl.glBindAttribLocation(program, A_COLOR, "aColor");
+        gl.glBindAttribLocation(program, A_SHAPE, "aShape");
+        gl.glLinkProgram(program);
+        gl.glDeleteShader(vertex);
+        gl.glDeleteShader(fragment);
+
+        int[] status = new int[1];
+        gl.glGetProgramiv(program, GL2ES2.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            System.err.println("[Render] Shader link failed: " + programLog(gl, program) + " - drawing with GL2");
+            gl.glDeleteProgram(program);
+            return false;
+        }
+        viewUniform = gl.glGetUniformLocation(program, "uView");
+
+        int[] ids = new int[2];
+        gl.glGenBuffers(2, ids, 0);
+        cornerBuffer = ids[0];
+        instanceBuffer = ids[1];
+        ByteBuffer corners = ByteBuffer.allocateDirect(8 * 4).order(ByteOrder.nativeOrder());
+        corners.asFloatBuffer().put(new float[]{-1, -1, 1, -1, -1, 1, 1, 1});
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, cornerBuffer);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, corners.capacity(), corners, GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+        System.out.println("[Render] Instanced shapes on " + gl.glGetString(GL.GL_RENDERER));
+        return true;
+    }
+
+    /**
+     * @return the shader, or 0 after printing why it did not compile
+     */
+    private static int compile(GL2 gl, int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[]{source}, null, 0);
+        gl.glCompileShader(shader);
+        int[] status = new int[1];
+        gl.glGetShaderiv(shader, GL2ES2.GL_COMPILE_STATUS, status, 0);
+        if (status[0] != 0) return shader;
+
+        int[] length = new int[1];
+        gl.glGetShaderiv(shader, GL2ES2.GL_INFO_LOG_LENGTH, length, 0);
+        byte[] log = new byte[Math.max(1, length[0])];
+        gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+        System.err.println("[Render] Shader compile failed: "
+                + new String(log, 0, length[0], StandardCharsets.UTF_8).trim() + " - drawing with GL2");
+        gl.glDeleteShader(shader);
+        return 0;
+    }
+
+    private static String programLog(GL2 gl, int program) {
+        int[] length = new int[1];
+        gl.glGetProgramiv(program, GL2ES2.GL_INFO_LOG_LENGTH, length, 0);
+        byte[] log = new byte[Math.max(1, length[0])];
+        gl.glGetProgramInfoLog(program, log.length, length, 0, log, 0);
+        return new String(log, 0, length[0], StandardCharsets.UTF_8).trim();
+    }
+}
@@ -0,0 +1,87 @@
+package com.cs304.airhockey;
+
+/**
+ * Fixed-size ring of recent paddle positions and puck states, so the
+ * server can check a hit against what a lagging player saw
+ * (GameSimulation.setViewLag). Sized once for a match's paddle and puck
+ * counts; recording a tick only copies numbers.
+ */
+final class LagHistory {
+
+    private static final int PADDLE_FIELDS = 2;     // x, y
+    private static final int PUCK_FIELDS = 4;       // x, y, vx, vy
+
+    private final int size;
+    private final int paddles;
+    private final int pucks;
+    private final double[] paddleState;
+    private final double[] puckState;
+    private int recorded = 0;
+
+    /**
+     * @param size ticks kept
+     */
+    LagHistory(int size, int paddles, int pucks) {
+        this.size = size;
+        this.paddles = paddles;
+        this.pucks = pucks;
+        this.paddleState = new double[size * paddles * PADDLE_FIELDS];
+        this.puckState = new double[size * pucks * PUCK_FIELDS];
+    }
+
+    boolean fits(int paddles, int pucks) {
+        return this.paddles == paddles && this.pucks == pucks;
+    }
+
+    /**
+     * Store the positions at the end of a tick as the newest entry.
+     */
+    void record(double[] paddleX, double[] paddleY,
+                double[] puckX, double[] puckY, double[] puckVX, double[] puckVY) {
+        int slot = recorded % size;
+        int f = slot * paddles * PADDLE_FIELDS;
+        for (int i = 0; i < paddles; i++) {
+            paddleState[f++] = paddleX[i];
+            paddleState[f++] = paddleY[i];
+        }
+        f = slot * pucks * PUCK_FIELDS;
+        for (int p = 0; p < pucks; p++) {
+            puckState[f++] = puckX[p];
+            puckState[f++] = puckY[p];
+            puckState[f++] = puckVX[p];
+            puckState[f++] = puckVY[p];
+        }
+        recorded++;
+    }
+
+    /**
+     * True if the tick that ended this many ticks ago (1 = the newest
+     * entry) is still stored.
+     */
+    boolean has(int ticksAgo) {
+        return ticksAgo >= 1 && ticksAgo <= size && ticksAgo <= recorded;
+    }
+
+    private int slot(int ticksAgo) {
+        return (recorded - ticksAgo) % size;
+    }
+
+    double paddleX(int ticksAgo, int i) {
+        return paddleState[(slot(ticksAgo) * paddles + i) * PADDLE_FIELDS];
+    }
+
+    double paddleY(int ticksAgo, int i) {
+        return paddleState[(slot(ticksAgo) * paddles + i) * PADDLE_FIELDS + 1];
+    }
+
+    /**
+     * Copy a stored puck state into the given arrays at index p.
+     */
+    void loadPuck(int ticksAgo, int p, double[] puckX, double[] puckY, double[] puckVX, double[] puckVY) {
+        int f = (slot(ticksAgo) * pucks + p) * PUCK_FIELDS;
+        puckX[p] = puckState[f];
+        puckY[p] = puckState[f + 1];
+        puckVX[p] = puckState[f + 2];
+        puckVY[p] = puckState[f + 3];
+    }
+}
@@ -0,0 +1,260 @@
+package com.cs304.airhockey;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process RollbackTransport for testing rollback without sockets. It is
+ * the only transport there is, so this is the one place RollbackSession runs.
+ * Messages are delayed by a fixed latency plus random jitter (so they can
+ * arrive out of order) and some are dropped. Time only moves on tick(),
+ * and loss and jitter come from a seeded SimRandom, so a run is repeatable.
+ *
+ * <p>main() plays a match between rollback peers over a bad connection and
+ * checks every confirmed tick, and the goals and match end each peer
+ * reports, against a simulation fed the true inputs.
+ *
+ * <p>Usage: LoopbackNetwork [mode] [latencyMs] [lossPercent] [seconds] [tickRate]
+ */
+public class LoopbackNetwork {
+
+    // players change their input about this often in the demo
+    private static final double INPUT_CHANGE_SECONDS = 0.3;
+
+    private final int latencyTicks;
+    private final int jitterTicks;
+    private final double lossRate;
+    private final SimRandom random;
+    private final Endpoint[] endpoints;
+    private int now = 0;
+
+    // ----- stats -----
+    private long sent;
+    private long dropped;
+
+    public LoopbackNetwork(int peers, int latencyTicks, int jitterTicks, double lossRate, long seed) {
+        this.latencyTicks = latencyTicks;
+        this.jitterTicks = jitterTicks;
+        this.lossRate = lossRate;
+        this.random = new SimRandom(seed);
+        this.endpoints = new Endpoint[peers];
+        for (int i = 0; i < peers; i++) {
+            endpoints[i] = new Endpoint(i);
+        }
+    }
+
+    public RollbackTransport endpoint(int peer) {
+        return endpoints[peer];
+    }
+
+    /**
+     * Move time forward one tick.
+     */
+    public void tick() {
+        now++;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * A message in flight.
+     */
+    private static class Message {
+        final int deliverAt;
+        final int seat;
+        final int lastTick;
+        final int count;
+        final long packedBits;
+
+        Message(int deliverAt, int seat, int lastTick, int count, long packedBits) {
+            this.deliverAt = deliverAt;
+            this.seat = seat;
+            this.lastTick = lastTick;
+            this.count = count;
+            this.packedBits = packedBits;
+        }
+    }
+
+    private class Endpoint implements RollbackTransport {
+        private final int peer;
+        private final List<Message> inbox = new ArrayList<>();
+
+        Endpoint(int peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public void sendInputs(int seat, int lastTick, int count, long packedBits) {
+            for (Endpoint to : endpoints) {
+                if (to == this) continue;
+                sent++;
+                if (random.nextDouble() < lossRate) {
+                    dropped++;
+                    continue;
+                }
+                int delay = latencyTicks + (jitterTicks > 0 ? (int) (random.nextDouble() * (jitterTicks + 1)) : 0);
+                to.inbox.add(new Message(now + delay, seat, lastTick, count, packedBits));
+            }
+        }
+
+        @Override
+        public void poll(Receiver receiver) {
+            // keep the ones still in flight, in place
+            int kept = 0;
+            for (int i = 0; i < inbox.size(); i++) {
+                Message m = inbox.get(i);
+                if (m.deliverAt <= now) {
+                    receiver.onInputs(m.seat, m.lastTick, m.count, m.packedBits);
+                } else {
+                    inbox.set(kept++, m);
+                }
+            }
+            inbox.subList(kept, inbox.size()).clear();
+        }
+    }
+
+    // ==================== Demo ====================
+
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "pvp2";
+        int latencyMs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        double lossRate = args.length > 2 ? Integer.parseInt(args[2]) / 100.0 : 0.05;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+        int tickRate = args.length > 4 ? Integer.parseInt(args[4]) : GameSimulation.DEFAULT_TICK_RATE;
+        long seed = 1234;
+
+        GameSimulation.GameType gameType = NetProtocol.gameTypeForMode(mode);
+        int seats = MatchSpec.seatCount(gameType);
+        String[] names = new String[seats == 2 ? 2 : 4];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Peer " + (i + 1);
+        }
+        MatchSpec spec = new MatchSpec(gameType, GameSimulation.Difficulty.MEDIUM, 8, names);
+
+        // one-way latency, with up to a third of it again as jitter
+        int latencyTicks = Math.round(latencyMs * tickRate / 1000f);
+        LoopbackNetwork network = new LoopbackNetwork(seats, latencyTicks, latencyTicks / 3, lossRate, seed);
+        RollbackSession[] peers = new RollbackSession[seats];
+        List<List<String>> peerEvents = new ArrayList<>();
+        for (int seat = 0; seat < seats; seat++) {
+            List<String> events = new ArrayList<>();
+            peerEvents.add(events);
+            peers[seat] = new RollbackSession(spec, seed, tickRate, seat, network.endpoint(seat), recorder(events));
+        }
+
+        // the reference sees every input on time
+        List<String> referenceEvents = new ArrayList<>();
+        GameSimulation reference = new GameSimulation(recorder(referenceEvents), tickRate);
+        reference.setSeed(seed);
+        spec.start(reference);
+        int referenceTick = 0;
+
+        ByteBuffer expected = ByteBuffer.allocate(GameSimulation.MAX_STATE_BYTES);
+        ByteBuffer actual = ByteBuffer.allocate(GameSimulation.MAX_STATE_BYTES);
+        int inputPeriod = Math.max(1, (int) (INPUT_CHANGE_SECONDS * tickRate));
+        int frames = seconds * tickRate;
+        int desyncs = 0;
+        long advanceNanos = 0;
+        long maxAdvanceNanos = 0;
+
+        for (int frame = 0; frame < frames; frame++) {
+            for (int seat = 0; seat < seats; seat++) {
+                RollbackSession peer = peers[seat];
+                long start = System.nanoTime();
+                peer.advance(scriptedInput(seed, seat, peer.getCurrentTick(), inputPeriod));
+                long took = System.nanoTime() - start;
+                advanceNanos += took;
+                maxAdvanceNanos = Math.max(maxAdvanceNanos, took);
+            }
+            network.tick();
+
+            int confirmed = Integer.MAX_VALUE;
+            for (RollbackSession peer : peers) {
+                confirmed = Math.min(confirmed, peer.getConfirmedTick());
+            }
+            for (; referenceTick < confirmed; referenceTick++) {
+                expected.clear();
+                reference.saveState(expected);
+                expected.flip();
+                for (int seat = 0; seat < seats; seat++) {
+                    actual.clear();
+                    if (!peers[seat].saveStateAt(referenceTick, actual)) continue;
+                    actual.flip();
+                    if (!actual.equals(expected)) {
+                        if (desyncs++ == 0) {
+                            System.out.println("Desync: peer " + (seat + 1) + " at tick " + referenceTick);
+                        }
+                    }
+                }
+
+                int bits = 0;
+                for (int seat = 0; seat < seats; seat++) {
+                    bits |= NetProtocol.toKeyBits(reference, seat,
+                            scriptedInput(seed, seat, referenceTick, inputPeriod));
+                }
+                reference.setInputBits(bits);
+                reference.update();
+            }
+        }
+
+        System.out.printf("Network:    %s, %d ms +- %d ms one way, %.0f%% loss (%d of %d messages dropped)%n",
+                mode, latencyMs, latencyMs / 3, lossRate * 100, network.getDropped(), network.getSent());
+        System.out.println("Prediction: up to " + peers[0].getMaxPredictionTicks() + " ticks at " + tickRate + " Hz");
+        for (int seat = 0; seat < seats; seat++) {
+            RollbackSession peer = peers[seat];
+            System.out.printf("Peer %d:     tick %d, %d rollbacks, %d ticks re-simulated (max %d), %d stalls%n",
+                    seat + 1, peer.getCurrentTick(), peer.getRollbacks(), peer.getResimulatedTicks(),
+                    peer.getMaxRollbackTicks(), peer.getStalls());
+        }
+        System.out.printf("advance():  %.1f us average, %.1f us worst%n",
+                advanceNanos / 1e3 / ((long) frames * seats), maxAdvanceNanos / 1e3);
+        // each peer has reported at least as far as the reference got, never anything else
+        int eventMismatches = 0;
+        for (List<String> events : peerEvents) {
+            if (events.size() < referenceEvents.size()
+                    || !events.subList(0, referenceEvents.size()).equals(referenceEvents)) {
+                eventMismatches++;
+            }
+        }
+        System.out.println("Checked:    " + referenceTick + " confirmed ticks, "
+                + (desyncs == 0 ? "no desyncs" : desyncs + " DESYNCS") + "; "
+                + referenceEvents.size() + " goals and match ends, "
+                + (eventMismatches == 0 ? "reported alike" : eventMismatches + " PEERS REPORTED OTHERS"));
+        if (desyncs != 0 || eventMismatches != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Listener writing goals and match ends down in order.
+     */
+    private static GameSimulation.Listener recorder(List<String> events) {
+        return new GameSimulation.Listener() {
+            @Override
+            public void onPaddleHit() {
+            }
+
+            @Override
+            public void onGoal(GameSimulation.Side side) {
+                events.add("goal " + side);
+            }
+
+            @Override
+            public void onMatchFinished(String scoreName, int score) {
+                events.add("finished " + scoreName + " " + score);
+            }
+        };
+    }
+
+    private static int scriptedInput(long seed, int seat, int tick, int period) {
+        long r = SimRandom.seedFor(seed, (long) seat << 32 | (tick / period));
+        return (int) Long.remainderUnsigned(r, 3);   // none, plus or minus
+    }
+}
@@ -1,14 +1,33 @@
 package com.cs304.airhockey;
 
-import com.jogamp.opengl.util.awt.TextRenderer;
-import java.awt.geom.Rectangle2D;
+import com.jogamp.opengl.GL2;
+import java.awt.Font;
 
 /**
  * Main menu screen for the Air Hockey game.
  * Fancy animated title + animated 3D-ish menu entries.
+ * Every string is drawn into a texture once; the 3D layers, glow and
+ * wobble are just extra quads, offsets and tints of it each frame.
  */
 public class MainMenuScreen {
 
+    private static final String TITLE = "CS304 AIR HOCKEY";
+    private static final String STAR = "★";
+    private static final String SUBTITLE = "Arcade Ice Battle · Local & Vs AI";
+    private static final String ARROW = "▶";
+    private static final String FOOTER = "↑ / ↓  move   ·   ENTER select   ·   ESC back / quit";
+
+    // CachedText slots; the menu items follow TEXT_ITEMS, one each
+    private static final int TEXT_TITLE = 0;
+    private static final int TEXT_STAR = 1;
+    private static final int TEXT_SUBTITLE = 2;
+    private static final int TEXT_ARROW = 3;
+    private static final int TEXT_FOOTER = 4;
+    private static final int TEXT_ITEMS = 5;
+    private static final int MAX_ITEMS = 6;
+
+    private final CachedText text = new CachedText(TEXT_ITEMS + MAX_ITEMS);
+
     private static class Item {
         String label;
         String action;
@@ -70,7 +89,18 @@ public class MainMenuScreen {
         return items[selected].action;
     }
 
-    public void draw(TextRenderer r, int w, int h) {
+    /**
+     * The GL context was (re)created: the text textures are gone.
+     */
+    public void onGraphicsReset() {
+        text.reset();
+    }
+
+    public void disposeGraphics(GL2 gl) {
+        text.dispose(gl);
+    }
+
+    public void draw(GL2 gl, Font font, int w, int h) {
         int centerX = w / 2;
 
         // global time for animation
@@ -78,42 +108,35 @@ public class MainMenuScreen {
         float glow = 0.6f + 0.4f * (float) Math.sin(t * 2.0);   // 0.2 .. 1.0
         float wobble = (float) Math.sin(t * 3.0) * 4f;          // small up/down wobble
 
+        text.begin(gl, font, w, h);
+
         // ===== TITLE (big, 3D-ish, glowing) =====
-        String title = "CS304 AIR HOCKEY";
-        Rectangle2D tb = r.getBounds(title);
-        int titleX = centerX - (int) (tb.getWidth() / 2);
+        int titleWidth = text.width(TEXT_TITLE, TITLE);
+        int titleX = centerX - titleWidth / 2;
         int titleY = h - 130 + (int) wobble;
 
         // shadow layer (black)
-        r.setColor(0f, 0f, 0f, 0.8f);
-        r.draw(title, titleX + 5, titleY - 5);
+        text.draw(TEXT_TITLE, TITLE, titleX + 5, titleY - 5, 0f, 0f, 0f, 0.8f);
 
         // back layer (dark purple)
-        r.setColor(0.25f, 0.05f, 0.4f, 1f);
-        r.draw(title, titleX + 2, titleY - 2);
+        text.draw(TEXT_TITLE, TITLE, titleX + 2, titleY - 2, 0.25f, 0.05f, 0.4f, 1f);
 
         // front layer (animated "neon gold")
         float rCol = 1.0f;
         float gCol = 0.85f + 0.15f * glow;
         float bCol = 0.45f + 0.25f * glow;
-        r.setColor(rCol, gCol, bCol, 1f);
-        r.draw(title, titleX, titleY);
+        text.draw(TEXT_TITLE, TITLE, titleX, titleY, rCol, gCol, bCol, 1f);
 
         // little stars around the title for arcade vibe
-        r.setColor(0.8f, 0.9f, 1f, 0.9f);
-        r.draw("★", titleX - 40, titleY + 10);
-        r.draw("★", titleX + (int) tb.getWidth() + 10, titleY + 25);
+        text.draw(TEXT_STAR, STAR, titleX - 40, titleY + 10, 0.8f, 0.9f, 1f, 0.9f);
+        text.draw(TEXT_STAR, STAR, titleX + titleWidth + 10, titleY + 25, 0.8f, 0.9f, 1f, 0.9f);
 
         // Subtitle
-        String subtitle = "Arcade Ice Battle · Local & Vs AI";
-        Rectangle2D sb = r.getBounds(subtitle);
-        int subX = centerX - (int) (sb.getWidth() / 2);
+        int subX = centerX - text.width(TEXT_SUBTITLE, SUBTITLE) / 2;
         int subY = titleY - 40;
 
-        r.setColor(0f, 0f, 0f, 0.6f);
-        r.draw(subtitle, subX + 3, subY - 3);
-        r.setColor(0.7f, 0.95f, 1f, 1f);
-        r.draw(subtitle, subX, subY);
+        text.draw(TEXT_SUBTITLE, SUBTITLE, subX + 3, subY - 3, 0f, 0f, 0f, 0.6f);
+        text.draw(TEXT_SUBTITLE, SUBTITLE, subX, subY, 0.7f, 0.95f, 1f, 1f);
 
         // ===== MENU ITEMS (fake 3D "buttons") =====
         int baseY = h / 2 + 60;
@@ -125,52 +148,43 @@ public class MainMenuScreen {
             // vertical bounce for selected item
             int yOffset = isSelected ? (int) (Math.sin(t * 5.0) * 4.0) : 0;
 
-            String text = items[i].label;
-            Rectangle2D mb = r.getBounds(text);
+            String label = items[i].label;
+            int slot = TEXT_ITEMS + i;
 
-            int itemX = centerX - (int) (mb.getWidth() / 2);
+            int itemX = centerX - text.width(slot, label) / 2;
             int itemY = baseY - i * lineSpacing + yOffset;
 
             if (isSelected) {
                 // left arrow
-                r.setColor(0f, 0f, 0f, 0.8f);
-                r.draw("▶", itemX - 40, itemY - 3);
+                text.draw(TEXT_ARROW, ARROW, itemX - 40, itemY - 3, 0f, 0f, 0f, 0.8f);
 
                 // fake glow shadow
-                r.setColor(0f, 0f, 0f, 0.8f);
-                r.draw(text, itemX + 4, itemY - 4);
+                text.draw(slot, label, itemX + 4, itemY - 4, 0f, 0f, 0f, 0.8f);
 
                 // neon border effect
-                r.setColor(0.05f, 0.9f, 0.8f, 1f);
-                r.draw(text, itemX - 1, itemY + 1);
-                r.draw(text, itemX + 1, itemY - 1);
+                text.draw(slot, label, itemX - 1, itemY + 1, 0.05f, 0.9f, 0.8f, 1f);
+                text.draw(slot, label, itemX + 1, itemY - 1, 0.05f, 0.9f, 0.8f, 1f);
 
                 float cPulse = 0.6f + 0.4f * (float) Math.sin(t * 6.0);
-                r.setColor(0.2f * cPulse, 1.0f, 0.9f, 1f);
-                r.draw(text, itemX, itemY);
+                text.draw(slot, label, itemX, itemY, 0.2f * cPulse, 1.0f, 0.9f, 1f);
             } else {
-                r.setColor(0f, 0f, 0f, 0.6f);
-                r.draw(text, itemX + 3, itemY - 3);
-
-                r.setColor(0.8f, 0.85f, 0.95f, 0.9f);
-                r.draw(text, itemX, itemY);
+                text.draw(slot, label, itemX + 3, itemY - 3, 0f, 0f, 0f, 0.6f);
+                text.draw(slot, label, itemX, itemY, 0.8f, 0.85f, 0.95f, 0.9f);
             }
         }
 
         // ===== Footer hint with subtle glow =====
-        String footer = "↑ / ↓  move   ·   ENTER select   ·   ESC back / quit";
-        Rectangle2D fb = r.getBounds(footer);
-        int footerX = centerX - (int) (fb.getWidth() / 2);
+        int footerX = centerX - text.width(TEXT_FOOTER, FOOTER) / 2;
 
         float glowFooter = 0.4f + 0.6f * (float) Math.abs(Math.sin(t * 2.0));
 
-        r.setColor(0f, 0f, 0f, 0.7f);
-        r.draw(footer, footerX + 2, 40);
-
-        r.setColor(0.6f + 0.4f * glowFooter,
+        text.draw(TEXT_FOOTER, FOOTER, footerX + 2, 40, 0f, 0f, 0f, 0.7f);
+        text.draw(TEXT_FOOTER, FOOTER, footerX, 44,
+                0.6f + 0.4f * glowFooter,
                 0.8f + 0.2f * glowFooter,
                 1.0f,
                 1f);
-        r.draw(footer, footerX, 44);
+
+        text.end();
     }
 }
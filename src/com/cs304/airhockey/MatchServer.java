@@ -0,0 +1,716 @@
+package com.cs304.airhockey;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Standalone authoritative match server.
+ * One thread runs a NIO selector loop: it accepts players, reads their
+ * input, queues them in a {@link Matchmaker} by mode and skill band and
+ * starts the matches it forms. Running matches are stepped at a fixed tick
+ * rate by a {@link TickScheduler}, each on its own shard thread, which also
+ * sends every player the resulting state. Clients only send their own
+ * paddle's up/down bits; the server owns the game.
+ * Spectators are handed to a {@link SpectatorHub}, which has its own thread.
+ *
+ * <p>A connection's output buffer is shared by the selector thread and the
+ * shard of its match, so it is only touched while holding the connection.
+ *
+ * <p>See {@link NetProtocol} for the wire format.
+ */
+public class MatchServer {
+
+    // pucks per match in multi-puck mode (-Dairhockey.pucks=...)
+    private static final int MULTI_PUCK_COUNT = Integer.getInteger("airhockey.pucks", 64);
+
+    // threads ticking matches (-Dairhockey.shards=...)
+    private static final int SHARDS = Integer.getInteger("airhockey.shards",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final long STATS_INTERVAL_NANOS = 5_000_000_000L;
+
+    // smoothing of each player's measured view lag, per ACK
+    private static final double VIEW_LAG_GAIN = 0.1;
+
+    private final int port;
+    private final int tickRate;
+    private final TickScheduler scheduler;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private SpectatorHub spectatorHub;
+    private volatile boolean running = false;
+
+    // by id; shards remove their matches when they finish
+    private final Map<Integer, ServerMatch> matches = new ConcurrentHashMap<>();
+    private final Matchmaker<Connection> matchmaker = new Matchmaker<>();
+    private final Matchmaker.MatchHandler<Connection> matchStarter = this::startMatch;
+    private int nextMatchId = 1;
+    private int connectionCount = 0;
+    // asked to watch the featured match before any match was running
+    private final List<Connection> waitingSpectators = new ArrayList<>();
+    // strings read by the selector thread land here
+    private final StringBuilder textScratch = new StringBuilder();
+
+    // ----- stats (added to by the shards) -----
+    private long statsStartNanos;
+    private final LongAdder statsBytesQueued = new LongAdder();
+    private final LongAdder statsFramesDropped = new LongAdder();
+
+    public MatchServer(int port, int tickRate) {
+        this.port = port;
+        this.tickRate = tickRate;
+        this.scheduler = new TickScheduler("airhockey-match", SHARDS, tickRate);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : NetProtocol.DEFAULT_PORT;
+        int tickRate = args.length > 1 ? Integer.parseInt(args[1]) : GameSimulation.REFERENCE_TICK_RATE;
+        new MatchServer(port, tickRate).run();
+    }
+
+    /**
+     * Bind and serve until stop() is called.
+     */
+    public void run() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        spectatorHub = new SpectatorHub();
+        spectatorHub.start();
+        scheduler.start();
+        running = true;
+
+        System.out.println("[Server] Listening on port " + port + " at " + tickRate + " ticks/s, "
+                + scheduler.getShardCount() + " shards");
+        statsStartNanos = System.nanoTime();
+
+        try {
+            while (running) {
+                selector.select(100);
+                handleSelectedKeys();
+                matchmaker.formMatches(matchStarter);
+                printStatsIfDue();
+            }
+        } finally {
+            scheduler.stop();
+            spectatorHub.stop();
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    // ==================== Networking ====================
+
+    private void handleSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            try {
+                if (!key.isValid()) continue;
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection conn = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    conn.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    conn.flush();
+                }
+            } catch (IOException | RuntimeException ex) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection) {
+                    ((Connection) attachment).close();
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = serverChannel.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            Connection conn = new Connection(ch);
+            conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+            connectionCount++;
+        }
+    }
+
+    // ==================== Matches ====================
+
+    /**
+     * @param difficulty the AI's level in "ai" mode, the skill band otherwise
+     */
+    private void join(Connection conn, GameSimulation.GameType gameType,
+                      GameSimulation.Difficulty difficulty, String name) {
+        conn.leaveMatchOrQueue();
+        conn.ticket = matchmaker.enqueue(conn, name, gameType, difficulty);
+    }
+
+    private void startMatch(GameSimulation.GameType gameType, GameSimulation.Difficulty band,
+                            List<Matchmaker.Ticket<Connection>> players) {
+        ServerMatch match = new ServerMatch(nextMatchId++, gameType, band);
+        for (Matchmaker.Ticket<Connection> ticket : players) {
+            Connection conn = ticket.getPlayer();
+            conn.ticket = null;
+            match.add(conn, ticket.getName());
+        }
+        match.start();
+        matches.put(match.id, match);
+        scheduler.schedule(match, match.id);
+
+        SpectatorHub.Feed feed = waitingSpectators.isEmpty() ? null : match.feed();
+        if (feed != null) {
+            for (Connection spectator : waitingSpectators) {
+                handToSpectatorHub(spectator, feed);
+            }
+            waitingSpectators.clear();
+        }
+    }
+
+    /**
+     * @param matchId 0 for the featured match: the running one with the
+     *                most spectators
+     */
+    private void watch(Connection conn, int matchId) {
+        conn.leaveMatchOrQueue();
+
+        SpectatorHub.Feed feed = null;
+        if (matchId != 0) {
+            ServerMatch match = matches.get(matchId);
+            feed = match != null ? match.feed() : null;
+        } else {
+            ServerMatch target = null;
+            for (ServerMatch match : matches.values()) {
+                if (match.finished) continue;
+                if (target == null || match.getViewers() > target.getViewers()) {
+                    target = match;
+                }
+            }
+            feed = target != null ? target.feed() : null;
+        }
+
+        if (feed != null) {
+            handToSpectatorHub(conn, feed);
+        } else if (matchId == 0) {
+            waitingSpectators.add(conn);
+        } else {
+            // no such match (any more): say it is over
+            synchronized (conn) {
+                conn.writer.wrap(conn.out).end("", 0);
+                conn.flushQuietly();
+            }
+        }
+    }
+
+    /**
+     * From now on the spectator hub's thread owns this connection.
+     */
+    private void handToSpectatorHub(Connection conn, SpectatorHub.Feed feed) {
+        conn.handedOff = true;
+        conn.key.cancel();
+        connectionCount--;
+        spectatorHub.add(conn.ch, feed);
+    }
+
+    /**
+     * Pass a player's chat line on to everyone in their match.
+     */
+    private void relayChat(Connection from, CharSequence text) {
+        ServerMatch match = from.match;
+        if (match == null) return;
+        int seat = match.seatOf(from);
+        if (seat < 0) return;
+        for (Connection conn : match.seats) {
+            if (conn == null) continue;
+            synchronized (conn) {
+                if (conn.match != match || conn.out.remaining() < NetProtocol.CHAT_FRAME_BYTES) continue;
+                conn.writer.wrap(conn.out).chat(seat, text);
+                conn.flushQuietly();
+            }
+        }
+    }
+
+    private void printStatsIfDue() {
+        long now = System.nanoTime();
+        if (now - statsStartNanos < STATS_INTERVAL_NANOS) return;
+
+        double seconds = (now - statsStartNanos) / 1e9;
+        System.out.printf("[Server] %d matches, %d connections, %d queued | %.1f KB/s out, %d frames dropped%n",
+                matches.size(), connectionCount, matchmaker.getQueuedCount(),
+                statsBytesQueued.sumThenReset() / seconds / 1e3, statsFramesDropped.sumThenReset());
+        for (int i = 0; i < scheduler.getShardCount(); i++) {
+            System.out.println("[Server]   shard " + i + ": " + scheduler.getStats(i));
+        }
+
+        statsStartNanos = now;
+    }
+
+    /**
+     * One running (or still filling) match and its players. Once started it
+     * is ticked on its shard thread; the selector thread only reads
+     * finished and tick, and starts the spectator feed.
+     */
+    private class ServerMatch implements GameSimulation.Listener, TickScheduler.Task {
+        private final int id;
+        private final GameSimulation.GameType gameType;
+        private final GameSimulation.Difficulty difficulty;
+        private final int seatCount;
+        private final Connection[] seats;
+        private final String[] names;
+        private int joined = 0;
+
+        private MatchSpec spec;
+        private GameSimulation sim;
+        private volatile SpectatorHub.Feed feed;    // set while holding the match
+        // STATE frames for spectators are encoded here, then copied out once
+        private ByteBuffer spectatorScratch;
+        private final NetProtocol.Writer spectatorWriter = new NetProtocol.Writer();
+        // recent states, delta-encoded per player against what they acked
+        private final StateCodec codec = new StateCodec();
+        private int maxStateFrame;
+        private volatile int tick = 0;
+        private volatile boolean finished = false;
+        // the finished match's high-score entry (GameSimulation.Listener)
+        private String scoreName;
+        private int score;
+
+        ServerMatch(int id, GameSimulation.GameType gameType, GameSimulation.Difficulty difficulty) {
+            this.id = id;
+            this.gameType = gameType;
+            this.difficulty = difficulty;
+            this.seatCount = MatchSpec.seatCount(gameType);
+            this.seats = new Connection[seatCount];
+            this.names = new String[Math.max(2, seatCount)];
+        }
+
+        void add(Connection conn, String name) {
+            seats[joined] = conn;
+            names[joined] = name;
+            joined++;
+            synchronized (conn) {
+                conn.match = this;
+            }
+        }
+
+        void start() {
+            if (gameType == GameSimulation.GameType.VS_AI) {
+                String level = difficulty.name();
+                names[1] = "AI (" + level.charAt(0) + level.substring(1).toLowerCase() + ")";
+            }
+            spec = new MatchSpec(gameType, difficulty, MULTI_PUCK_COUNT, names);
+            sim = new GameSimulation(this, tickRate);
+            spec.start(sim);
+            maxStateFrame = stateFrameSize(spec);
+            spectatorScratch = ByteBuffer.allocate(maxStateFrame);
+
+            for (int seat = 0; seat < seatCount; seat++) {
+                Connection conn = seats[seat];
+                synchronized (conn) {
+                    conn.ackedTick = -1;
+                    conn.viewLagAvg = 0;
+                    conn.viewLagTicks = 0;
+                    conn.writer.wrap(conn.beginOutput(maxStateFrame)).welcome(id, seat, tickRate, spec);
+                    conn.flushQuietly();
+                }
+            }
+        }
+
+        int seatOf(Connection conn) {
+            for (int seat = 0; seat < seatCount; seat++) {
+                if (seats[seat] == conn) return seat;
+            }
+            return -1;
+        }
+
+        int getViewers() {
+            SpectatorHub.Feed feed = this.feed;
+            return feed != null ? feed.getViewers() : 0;
+        }
+
+        /**
+         * The spectator feed, started when the first spectator arrives;
+         * null once the match is over.
+         */
+        synchronized SpectatorHub.Feed feed() {
+            if (feed == null && !finished) {
+                ByteBuffer welcome = ByteBuffer.allocate(NetProtocol.MAX_FRAME_BYTES);
+                new NetProtocol.Writer().wrap(welcome).welcome(id, NetProtocol.SPECTATOR_SEAT, tickRate, spec);
+                feed = spectatorHub.new Feed(copyOf(welcome));
+            }
+            return feed;
+        }
+
+        private void publishToSpectators(SpectatorHub.Feed feed) {
+            ByteBuffer delta = encodeForSpectators(tick - 1);
+            ByteBuffer keyframe = tick % SpectatorHub.KEYFRAME_INTERVAL_TICKS == 0
+                    ? encodeForSpectators(-1) : null;
+            feed.publish(tick, delta, keyframe);
+        }
+
+        private ByteBuffer encodeForSpectators(int baseTick) {
+            spectatorScratch.clear();
+            spectatorWriter.wrap(spectatorScratch).state(tick, codec, baseTick);
+            return copyOf(spectatorScratch);
+        }
+
+        // ----- TickScheduler.Task (shard thread) -----
+
+        @Override
+        public boolean tick() {
+            int bits = 0;
+            boolean anyone = false;
+            for (int seat = 0; seat < seatCount; seat++) {
+                Connection conn = seats[seat];
+                if (conn == null) continue;
+                if (conn.match != this) {
+                    // left: the paddle just stops moving
+                    seats[seat] = null;
+                    continue;
+                }
+                anyone = true;
+                bits |= NetProtocol.toKeyBits(sim, seat, conn.inputBits);
+                sim.setViewLag(seat, conn.viewLagTicks);
+            }
+            if (!anyone) {
+                finish();
+                return false;
+            }
+            sim.setInputBits(bits);
+            sim.update();
+            tick++;
+
+            codec.store(tick, sim);
+            for (Connection conn : seats) {
+                if (conn == null) continue;
+                conn.queueState(this);
+            }
+            SpectatorHub.Feed feed = this.feed;
+            if (feed != null) {
+                publishToSpectators(feed);
+            }
+
+            if (!sim.isGameInProgress()) {
+                finish();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void onTicksShed(int count) {
+            // the match just runs slower for a moment; the shard's stats show it
+        }
+
+        private void finish() {
+            SpectatorHub.Feed feed;
+            synchronized (this) {
+                finished = true;
+                feed = this.feed;
+            }
+            matches.remove(id);
+
+            if (feed != null) {
+                spectatorScratch.clear();
+                spectatorWriter.wrap(spectatorScratch).end(scoreName(), score);
+                feed.end(copyOf(spectatorScratch));
+            }
+            for (Connection conn : seats) {
+                if (conn == null) continue;
+                synchronized (conn) {
+                    if (conn.match != this) continue;
+                    if (conn.out.remaining() >= NetProtocol.END_FRAME_BYTES) {
+                        conn.writer.wrap(conn.out).end(scoreName(), score);
+                    }
+                    conn.flushOrDiscard();
+                    conn.match = null;
+                }
+            }
+        }
+
+        private String scoreName() {
+            return scoreName != null ? scoreName : "";
+        }
+
+        // ----- GameSimulation.Listener -----
+
+        @Override
+        public void onPaddleHit() {
+        }
+
+        /**
+         * Shard thread, during the tick: the state showing it goes out
+         * right after, and sends this along.
+         */
+        @Override
+        public void onGoal(GameSimulation.Side side) {
+            for (Connection conn : seats) {
+                if (conn == null) continue;
+                synchronized (conn) {
+                    if (conn.match != this || conn.out.remaining() < NetProtocol.GOAL_FRAME_BYTES) continue;
+                    conn.writer.wrap(conn.out).goal(tick + 1, side);
+                }
+            }
+        }
+
+        @Override
+        public void onMatchFinished(String scoreName, int score) {
+            this.scoreName = scoreName;
+            this.score = score;
+        }
+    }
+
+    /**
+     * A scratch buffer's contents as a buffer of their own, which the
+     * spectator hub can share between all its connections.
+     */
+    private static ByteBuffer copyOf(ByteBuffer scratch) {
+        scratch.flip();
+        ByteBuffer copy = ByteBuffer.allocate(scratch.remaining());
+        copy.put(scratch);
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Largest STATE frame a match with this spec can send (a keyframe).
+     */
+    private static int stateFrameSize(MatchSpec spec) {
+        int fields = GameSimulation.netFieldCount(GameSimulation.MAX_PADDLES, spec.getPuckCount());
+        return NetProtocol.LENGTH_BYTES + 1 + 4 + StateCodec.maxEncodedSize(fields);
+    }
+
+    /**
+     * One connected player. Reading, the match queue and closing belong to
+     * the selector thread; the output buffer is shared with the match's
+     * shard and only touched while holding the connection.
+     */
+    private class Connection {
+        private final SocketChannel ch;
+        private SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(1024);
+        private final NetProtocol.Reader reader = new NetProtocol.Reader();
+        // write mode; sized for a few state frames once the match is known
+        private ByteBuffer out = ByteBuffer.allocateDirect(1024);
+        private final NetProtocol.Writer writer = new NetProtocol.Writer();  // while holding the connection
+
+        private volatile ServerMatch match;              // changed while holding the connection
+        private Matchmaker.Ticket<Connection> ticket;     // while queued
+        private volatile int inputBits;
+        private volatile int ackedTick = -1;
+        // how late this player sees the puck, for lag compensation
+        private double viewLagAvg = 0;
+        private volatile int viewLagTicks = 0;
+        private boolean handedOff = false;
+        private boolean closed = false;
+
+        Connection(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        /**
+         * Make room for this match's state frames, keeping anything queued.
+         */
+        synchronized ByteBuffer beginOutput(int stateFrame) {
+            int wanted = 1024 + 4 * stateFrame;
+            if (out.capacity() < wanted) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(wanted);
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+            return out;
+        }
+
+        void read() throws IOException {
+            int n = ch.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (!handedOff && !closed && reader.next(in)) {
+                handleMessage();
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                // a frame larger than our buffer: not a client of ours
+                throw new IOException("Frame too large");
+            }
+        }
+
+        /**
+         * The reader's current frame. Frames too short for their type are
+         * ignored, like unknown types.
+         */
+        private void handleMessage() {
+            int length = reader.payloadLength();
+            switch (reader.type()) {
+                case NetProtocol.MSG_HELLO: {
+                    if (length < NetProtocol.HELLO_MIN_BYTES || !speaksOurVersion(reader.helloVersion())) break;
+                    int gameType = reader.helloGameType();
+                    int difficulty = reader.helloDifficulty();
+                    if (gameType >= GameSimulation.GameType.values().length
+                            || difficulty >= GameSimulation.Difficulty.values().length) {
+                        break;
+                    }
+                    textScratch.setLength(0);
+                    reader.helloName(textScratch);
+                    inputBits = 0;
+                    ackedTick = -1;
+                    join(this, GameSimulation.GameType.values()[gameType],
+                            GameSimulation.Difficulty.values()[difficulty], textScratch.toString());
+                    break;
+                }
+                case NetProtocol.MSG_INPUT:
+                    if (length < NetProtocol.INPUT_BYTES) break;
+                    inputBits = reader.inputBits();
+                    break;
+                case NetProtocol.MSG_WATCH:
+                    if (length < NetProtocol.WATCH_BYTES || !speaksOurVersion(reader.watchVersion())) break;
+                    watch(this, reader.watchMatchId());
+                    break;
+                case NetProtocol.MSG_ACK: {
+                    if (length < NetProtocol.ACK_MIN_BYTES) break;
+                    int tick = reader.ackTick();
+                    ServerMatch match = this.match;
+                    if (match != null && tick > ackedTick && tick <= match.tick) {
+                        ackedTick = tick;
+                        // the state went out at its tick and came back now: a round trip
+                        int lag = match.tick - tick + reader.ackBehind();
+                        viewLagAvg += (lag - viewLagAvg) * VIEW_LAG_GAIN;
+                        viewLagTicks = (int) Math.round(viewLagAvg);
+                    }
+                    break;
+                }
+                case NetProtocol.MSG_CHAT:
+                    if (length < NetProtocol.CHAT_MIN_BYTES) break;
+                    textScratch.setLength(0);
+                    reader.chatText(textScratch);
+                    relayChat(this, textScratch);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private boolean speaksOurVersion(int version) {
+            if (version == NetProtocol.VERSION) return true;
+            System.err.println("[Server] Client speaks protocol v" + version
+                    + ", not v" + NetProtocol.VERSION + ": closing");
+            close();
+            return false;
+        }
+
+        /**
+         * Called on the match's shard.
+         */
+        synchronized void queueState(ServerMatch match) {
+            if (this.match != match) return;         // left since the tick began
+            if (out.remaining() < match.maxStateFrame) {
+                // client is not keeping up: drop this state, a newer one follows
+                statsFramesDropped.increment();
+                return;
+            }
+            int start = out.position();
+            writer.wrap(out).state(match.tick, match.codec, ackedTick);
+            statsBytesQueued.add(out.position() - start);
+            flushOrDiscard();
+        }
+
+        synchronized void flush() throws IOException {
+            out.flip();
+            ch.write(out);
+            out.compact();
+            if (key.isValid()) {
+                boolean pending = out.position() > 0;
+                boolean wasPending = (key.interestOps() & SelectionKey.OP_WRITE) != 0;
+                key.interestOps(pending
+                        ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                        : SelectionKey.OP_READ);
+                if (pending && !wasPending) {
+                    // may come from a shard while the selector is already waiting
+                    selector.wakeup();
+                }
+            }
+        }
+
+        /**
+         * Selector thread only: a failed write closes the connection.
+         */
+        void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        /**
+         * For the shards, which must not close connections: a failed write
+         * just drops the output, and the selector thread closes the
+         * connection when reading from it fails too.
+         */
+        synchronized void flushOrDiscard() {
+            try {
+                flush();
+            } catch (IOException ex) {
+                out.clear();
+            }
+        }
+
+        void leaveMatchOrQueue() {
+            synchronized (this) {
+                // the shard drops the seat on the match's next tick
+                match = null;
+            }
+            if (ticket != null) {
+                matchmaker.cancel(ticket);
+                ticket = null;
+            }
+            waitingSpectators.remove(this);
+        }
+
+        void close() {
+            if (closed || handedOff) return;
+            closed = true;
+            connectionCount--;
+            leaveMatchOrQueue();
+            key.cancel();
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.cs304.airhockey;
+
+/**
+ * Everything needed to start a given match again: mode, player names,
+ * AI difficulty and puck count. Replays and network clients use it to
+ * set up the same match another simulation is running.
+ */
+public class MatchSpec {
+
+    private final GameSimulation.GameType gameType;
+    private final GameSimulation.Difficulty difficulty;
+    private final int puckCount;
+    private final String[] names;
+
+    MatchSpec(GameSimulation.GameType gameType, GameSimulation.Difficulty difficulty,
+              int puckCount, String[] names) {
+        this.gameType = gameType;
+        this.difficulty = difficulty;
+        this.puckCount = puckCount;
+        this.names = names;
+    }
+
+    /**
+     * Describe the match the simulation is currently set up for.
+     */
+    public static MatchSpec of(GameSimulation sim) {
+        String[] names;
+        switch (sim.getGameType()) {
+            case FOUR_PLAYERS_2V2:
+                names = new String[]{
+                        sim.getLeftTeamP1Name(), sim.getLeftTeamP2Name(),
+                        sim.getRightTeamP1Name(), sim.getRightTeamP2Name()};
+                break;
+            case FOUR_PLAYERS_FFA:
+                names = new String[]{
+                        sim.getFfaName(GameSimulation.Side.LEFT), sim.getFfaName(GameSimulation.Side.RIGHT),
+                        sim.getFfaName(GameSimulation.Side.TOP), sim.getFfaName(GameSimulation.Side.BOTTOM)};
+                break;
+            default:
+                names = new String[]{sim.getLeftPlayerName(), sim.getRightPlayerName()};
+                break;
+        }
+        return new MatchSpec(sim.getGameType(), sim.getAiDifficulty(), sim.getPuckCount(), names);
+    }
+
+    GameSimulation.GameType getGameType() {
+        return gameType;
+    }
+
+    public GameSimulation.Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    public int getPuckCount() {
+        return puckCount;
+    }
+
+    /**
+     * Player names in paddle order (left, right / left 1, left 2, right 1,
+     * right 2 / left, right, top, bottom).
+     */
+    public String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Number of human players (paddles driven by input) in this mode.
+     */
+    public int getSeatCount() {
+        return seatCount(gameType);
+    }
+
+    static int seatCount(GameSimulation.GameType gameType) {
+        switch (gameType) {
+            case VS_AI:
+                return 1;
+            case FOUR_PLAYERS_2V2:
+            case FOUR_PLAYERS_FFA:
+                return 4;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * Start this match on the given simulation.
+     */
+    public void start(GameSimulation sim) {
+        switch (gameType) {
+            case TWO_PLAYERS:
+                sim.startNewMatch(names[0], names[1]);
+                break;
+            case VS_AI:
+                sim.startNewMatch(names[0], names[1], true, difficulty);
+                break;
+            case FOUR_PLAYERS_2V2:
+                sim.startNewMatch2v2(names[0], names[1], names[2], names[3]);
+                break;
+            case FOUR_PLAYERS_FFA:
+                sim.startNewFreeForAll(names[0], names[1], names[2], names[3]);
+                break;
+            case MULTI_PUCK:
+                sim.startNewMultiPuck(names[0], names[1], puckCount);
+                break;
+        }
+    }
+}
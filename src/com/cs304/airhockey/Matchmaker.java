@@ -0,0 +1,396 @@
+package com.cs304.airhockey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matchmaking queues, one per mode and skill band, that any number of
+ * threads can join, leave and form matches from without locking.
+ *
+ * <p>Players join with {@link #enqueue} and get a {@link Ticket}. Match
+ * workers call {@link #formMatches}, which takes players in arrival order
+ * in groups of the mode's seat count (1, 2 or 4) and hands each group to
+ * a {@link MatchHandler}. Difficulty is the skill band: for "ai" it is the
+ * AI's level, for the other modes players only meet their own band.
+ *
+ * <p>Each queue keeps a count of queued tickets. A worker reserves a whole
+ * group by lowering the count with compareAndSet before polling, so two
+ * workers never split the players of one queue between half-formed
+ * matches. A cancelled ticket stays counted until a worker polls it and
+ * takes another one instead. Players stay cancellable until their whole
+ * group is there; the group is then claimed in one pass, and a player who
+ * cancels during that pass either leaves or is matched, never both.
+ *
+ * @param <P> what the caller uses to identify a player (e.g. its connection)
+ */
+public class Matchmaker<P> {
+
+    /**
+     * Gets each formed match. May be called on any worker thread.
+     */
+    public interface MatchHandler<P> {
+        void onMatchFormed(GameSimulation.GameType gameType, GameSimulation.Difficulty band,
+                           List<Ticket<P>> players);
+    }
+
+    // ticket states
+    private static final int WAITING = 0;
+    private static final int RESERVED = 1;     // polled by a worker, still cancellable
+    private static final int CLAIMING = 2;     // its group is being claimed: cancel() waits
+    private static final int MATCHED = 3;
+    private static final int CANCELLED = 4;
+
+    private static final GameSimulation.GameType[] GAME_TYPES = GameSimulation.GameType.values();
+    private static final GameSimulation.Difficulty[] BANDS = GameSimulation.Difficulty.values();
+
+    /**
+     * A queued player.
+     */
+    public static final class Ticket<P> {
+        private final P player;
+        private final String name;
+        private final long enqueuedNanos;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Ticket(P player, String name, long enqueuedNanos) {
+            this.player = player;
+            this.name = name;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        public P getPlayer() {
+            return player;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getEnqueuedNanos() {
+            return enqueuedNanos;
+        }
+    }
+
+    /**
+     * Players waiting for one mode in one band.
+     */
+    private static final class Queue<P> {
+        final ConcurrentLinkedQueue<Ticket<P>> tickets = new ConcurrentLinkedQueue<>();
+        // tickets in the queue not yet reserved by a worker (cancelled ones included)
+        final AtomicInteger available = new AtomicInteger();
+        final int seats;
+
+        Queue(int seats) {
+            this.seats = seats;
+        }
+
+        void offer(Ticket<P> ticket) {
+            tickets.offer(ticket);
+            available.incrementAndGet();
+        }
+
+        /**
+         * Take n of the available tickets for ourselves.
+         */
+        boolean reserve(int n) {
+            while (true) {
+                int now = available.get();
+                if (now < n) return false;
+                if (available.compareAndSet(now, now - n)) return true;
+            }
+        }
+    }
+
+    private final List<Queue<P>> queues;
+
+    // ----- stats -----
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong matchesFormed = new AtomicLong();
+    private final AtomicLong playersMatched = new AtomicLong();
+
+    public Matchmaker() {
+        // filled in index() order: game type major, band minor
+        queues = new ArrayList<>(GAME_TYPES.length * BANDS.length);
+        for (GameSimulation.GameType gameType : GAME_TYPES) {
+            for (GameSimulation.Difficulty band : BANDS) {
+                queues.add(new Queue<>(MatchSpec.seatCount(gameType)));
+            }
+        }
+    }
+
+    private static int index(GameSimulation.GameType gameType, GameSimulation.Difficulty band) {
+        return gameType.ordinal() * BANDS.length + band.ordinal();
+    }
+
+    // ==================== Players ====================
+
+    public Ticket<P> enqueue(P player, String name, GameSimulation.GameType gameType,
+                             GameSimulation.Difficulty band) {
+        Ticket<P> ticket = new Ticket<>(player, name, System.nanoTime());
+        queues.get(index(gameType, band)).offer(ticket);
+        enqueued.incrementAndGet();
+        return ticket;
+    }
+
+    /**
+     * Leave the queue.
+     *
+     * @return false if the ticket was already matched (or cancelled)
+     */
+    public boolean cancel(Ticket<P> ticket) {
+        while (true) {
+            int state = ticket.state.get();
+            if (state == WAITING || state == RESERVED) {
+                if (ticket.state.compareAndSet(state, CANCELLED)) {
+                    cancelled.incrementAndGet();
+                    return true;
+                }
+            } else if (state == CLAIMING) {
+                // the worker settles it within a few compareAndSets
+                Thread.yield();
+            } else {
+                return false;
+            }
+        }
+    }
+
+    // ==================== Workers ====================
+
+    /**
+     * Form as many matches as the queues allow and hand them to the handler.
+     * Safe to call from several threads at once.
+     *
+     * @return number of matches formed
+     */
+    public int formMatches(MatchHandler<P> handler) {
+        int formed = 0;
+        for (GameSimulation.GameType gameType : GAME_TYPES) {
+            for (GameSimulation.Difficulty band : BANDS) {
+                Queue<P> queue = queues.get(index(gameType, band));
+                List<Ticket<P>> group;
+                while ((group = takeGroup(queue)) != null) {
+                    matchesFormed.incrementAndGet();
+                    playersMatched.addAndGet(group.size());
+                    handler.onMatchFormed(gameType, band, group);
+                    formed++;
+                }
+            }
+        }
+        return formed;
+    }
+
+    private List<Ticket<P>> takeGroup(Queue<P> queue) {
+        if (!queue.reserve(queue.seats)) return null;
+
+        List<Ticket<P>> group = new ArrayList<>(queue.seats);
+        int missing = queue.seats;
+        while (true) {
+            for (; missing > 0; missing--) {
+                // reserved, so a ticket is there even if another worker polls first
+                Ticket<P> ticket = queue.tickets.poll();
+                while (!ticket.state.compareAndSet(WAITING, RESERVED)) {
+                    // cancelled: take the next one instead, if there is one
+                    if (!queue.reserve(1)) {
+                        // the rest of our reservation was never polled
+                        queue.available.addAndGet(missing - 1);
+                        putBack(queue, group);
+                        return null;
+                    }
+                    ticket = queue.tickets.poll();
+                }
+                group.add(ticket);
+            }
+
+            // players can still cancel until this point: claim all of them, or
+            // none if one has just left
+            int claimed = 0;
+            while (claimed < group.size() && group.get(claimed).state.compareAndSet(RESERVED, CLAIMING)) {
+                claimed++;
+            }
+            if (claimed == group.size()) {
+                for (Ticket<P> ticket : group) {
+                    ticket.state.set(MATCHED);
+                }
+                return group;
+            }
+            for (int i = 0; i < claimed; i++) {
+                group.get(i).state.set(RESERVED);
+            }
+
+            // only cancel() moves a reserved ticket, so the rest are ours
+            for (int i = group.size() - 1; i >= 0; i--) {
+                if (group.get(i).state.get() == CANCELLED) {
+                    group.remove(i);
+                    missing++;
+                }
+            }
+            if (!queue.reserve(missing)) {
+                putBack(queue, group);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Return the players of a group that could not be completed. They go
+     * to the back of the queue. None of them has been claimed yet.
+     */
+    private void putBack(Queue<P> queue, List<Ticket<P>> group) {
+        for (Ticket<P> ticket : group) {
+            if (ticket.state.compareAndSet(RESERVED, WAITING)) {
+                queue.offer(ticket);
+            }
+        }
+    }
+
+    // ==================== Stats ====================
+
+    /**
+     * Tickets queued and not yet taken by a worker (cancelled ones included
+     * until a worker skips them).
+     */
+    public int getQueuedCount() {
+        int total = 0;
+        for (Queue<P> queue : queues) {
+            total += queue.available.get();
+        }
+        return total;
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    public long getMatchesFormed() {
+        return matchesFormed.get();
+    }
+
+    public long getPlayersMatched() {
+        return playersMatched.get();
+    }
+
+    // ==================== Load test ====================
+
+    /**
+     * In-process load test: client threads queue synthetic players (some
+     * give up and cancel) while worker threads form matches.
+     *
+     * <p>Usage: Matchmaker [players] [clientThreads] [workerThreads] [cancelPercent]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int clientThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int workerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        double cancelRate = (args.length > 3 ? Integer.parseInt(args[3]) : 5) / 100.0;
+
+        String[] modes = {"pvp2", "pvp4", "ffa4", "ai"};
+        Matchmaker<Integer> matchmaker = new Matchmaker<>();
+        // how often each player was matched: must end up 0 or 1
+        AtomicInteger[] timesMatched = new AtomicInteger[players];
+        for (int i = 0; i < players; i++) {
+            timesMatched[i] = new AtomicInteger();
+        }
+        AtomicLong waitNanos = new AtomicLong();
+        AtomicLong maxWaitNanos = new AtomicLong();
+        AtomicInteger badMatches = new AtomicInteger();
+        AtomicInteger clientsDone = new AtomicInteger();
+        // set by the client thread whose cancel() succeeded; read after the joins
+        boolean[] left = new boolean[players];
+
+        MatchHandler<Integer> handler = (gameType, band, group) -> {
+            if (group.size() != MatchSpec.seatCount(gameType)) {
+                badMatches.incrementAndGet();
+            }
+            long now = System.nanoTime();
+            for (Ticket<Integer> ticket : group) {
+                timesMatched[ticket.getPlayer()].incrementAndGet();
+                long waited = now - ticket.getEnqueuedNanos();
+                waitNanos.addAndGet(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+            }
+        };
+
+        Thread[] clients = new Thread[clientThreads];
+        for (int c = 0; c < clientThreads; c++) {
+            final int first = c;
+            clients[c] = new Thread(() -> {
+                SimRandom random = new SimRandom(SimRandom.seedFor(42, first));
+                List<Ticket<Integer>> recent = new ArrayList<>();
+                for (int id = first; id < players; id += clientThreads) {
+                    GameSimulation.GameType gameType = NetProtocol.gameTypeForMode(
+                            modes[(int) (random.nextDouble() * modes.length)]);
+                    GameSimulation.Difficulty band = BANDS[(int) (random.nextDouble() * BANDS.length)];
+                    recent.add(matchmaker.enqueue(id, "Player " + id, gameType, band));
+                    if (random.nextDouble() < cancelRate) {
+                        Ticket<Integer> ticket = recent.get((int) (random.nextDouble() * recent.size()));
+                        if (matchmaker.cancel(ticket)) {
+                            left[ticket.getPlayer()] = true;
+                        }
+                    }
+                    if (recent.size() > 64) {
+                        recent.clear();
+                    }
+                }
+                clientsDone.incrementAndGet();
+            }, "client-" + c);
+        }
+
+        Thread[] workers = new Thread[workerThreads];
+        for (int w = 0; w < workerThreads; w++) {
+            workers[w] = new Thread(() -> {
+                while (clientsDone.get() < clientThreads) {
+                    if (matchmaker.formMatches(handler) == 0) {
+                        Thread.yield();
+                    }
+                }
+                matchmaker.formMatches(handler);
+            }, "worker-" + w);
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : clients) t.start();
+        for (Thread t : workers) t.start();
+        for (Thread t : clients) t.join();
+        for (Thread t : workers) t.join();
+        matchmaker.formMatches(handler);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long matched = matchmaker.getPlayersMatched();
+        int twice = 0;
+        int matchedCount = 0;
+        int matchedAfterLeaving = 0;
+        for (int i = 0; i < players; i++) {
+            int n = timesMatched[i].get();
+            if (n > 1) twice++;
+            if (n > 0) matchedCount++;
+            if (n > 0 && left[i]) matchedAfterLeaving++;
+        }
+
+        System.out.printf("Players:    %d queued by %d threads, %d cancelled (%d%%)%n",
+                matchmaker.getEnqueued(), clientThreads, matchmaker.getCancelled(), Math.round(cancelRate * 100));
+        System.out.printf("Matches:    %d formed by %d workers, %d players matched%n",
+                matchmaker.getMatchesFormed(), workerThreads, matched);
+        System.out.printf("Throughput: %.0f players/s in %.2f s%n", players / seconds, seconds);
+        System.out.printf("Wait:       %.2f ms average, %.1f ms worst%n",
+                matched == 0 ? 0 : waitNanos.get() / 1e6 / matched, maxWaitNanos.get() / 1e6);
+        // every waiting ticket must still be counted, or nobody would match it
+        long leftOver = matchmaker.getEnqueued() - matchmaker.getCancelled() - matched;
+        boolean countsAgree = matchedCount == matched && leftOver <= matchmaker.getQueuedCount();
+        System.out.println("Left over:  " + leftOver + " waiting for more players ("
+                + matchmaker.getQueuedCount() + " tickets counted)");
+        System.out.println("Checks:     " + twice + " players matched twice, " + matchedAfterLeaving
+                + " matched after leaving, " + badMatches.get() + " wrong-sized matches, "
+                + (countsAgree ? "counts agree" : "COUNTS DIFFER"));
+        if (twice != 0 || matchedAfterLeaving != 0 || badMatches.get() != 0 || !countsAgree) {
+            System.exit(1);
+        }
+    }
+}
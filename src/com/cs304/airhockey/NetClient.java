@@ -0,0 +1,486 @@
+package com.cs304.airhockey;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection from the game window to a MatchServer.
+ * A background thread reads frames and keeps the recent states; every
+ * frame the render loop draws one with applyState(). Key presses are
+ * reduced to this player's up/down bits and sent when they change.
+ *
+ * <p>Remote paddles and pucks are drawn a little in the past, between two
+ * received states (see {@link SnapshotInterpolator}). The player's own
+ * paddle is drawn in the present instead: the newest state's position
+ * plus the input the server cannot have applied yet, which is whatever was
+ * pressed during the last round trip.
+ */
+public class NetClient implements Closeable {
+
+    // any of a mode's "up / right" or "down / left" keys steer your own paddle
+    private static final int PLUS_KEYS = GameSimulation.KEY_W | GameSimulation.KEY_UP
+            | GameSimulation.KEY_T | GameSimulation.KEY_I | GameSimulation.KEY_D | GameSimulation.KEY_L;
+    private static final int MINUS_KEYS = GameSimulation.KEY_S | GameSimulation.KEY_DOWN
+            | GameSimulation.KEY_G | GameSimulation.KEY_K | GameSimulation.KEY_A | GameSimulation.KEY_J;
+
+    private final SocketChannel ch;
+    private final Thread reader;
+    private volatile boolean closed = false;
+    private boolean spectating = false;
+
+    // ----- set once by WELCOME -----
+    private volatile MatchSpec spec;
+    private volatile int seat;
+    private volatile int tickRate;
+
+    // at most this much of our own input is predicted
+    private static final long MAX_PREDICTION_NANOS = 500_000_000L;
+    private static final double ROUND_TRIP_GAIN = 0.2;
+    // input changes remembered for prediction; far more than a round trip's worth
+    private static final int INPUT_LOG_SIZE = 64;
+
+    // ----- recent states, handed from the reader thread to the render loop -----
+    private final Object stateLock = new Object();
+    private final StateCodec codec = new StateCodec();
+    private SnapshotInterpolator interpolator;
+    private int latestTick = -1;
+    private long latestArrivalNanos;
+
+    // ----- own input for prediction, guarded by inputLog -----
+    private final long[] inputLog = new long[INPUT_LOG_SIZE];       // send times
+    private final int[] inputLogBits = new int[INPUT_LOG_SIZE];
+    private int inputLogCount = 0;                                    // total ever logged
+    private long measuringSentNanos = 0;      // an input change whose echo we wait for
+    private int serverSeatBits = 0;           // our bits in the newest state
+    private double roundTripNanos = -1;
+
+    // ----- GOAL and CHAT -----
+    private final AtomicInteger goalSides = new AtomicInteger();      // bit per Side since the last poll
+    private volatile String chatLine;
+    private volatile long chatNanos;
+
+    // ----- END -----
+    private volatile boolean ended = false;
+    private String scoreName;
+    private int score;
+
+    private int pressedKeys = 0;
+    private int sentBits = 0;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(512);
+    private final NetProtocol.Writer writer = new NetProtocol.Writer();     // guarded by sendBuffer
+
+    private NetClient(SocketChannel ch) {
+        this.ch = ch;
+        this.reader = new Thread(this::readLoop, "airhockey-net");
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * Connect and ask to join a match of the given mode.
+     *
+     * @param address "host" or "host:port"
+     */
+    public static NetClient connect(String address, GameSimulation.GameType gameType,
+                                    GameSimulation.Difficulty difficulty, String name) throws IOException {
+        NetClient client = new NetClient(open(address));
+        client.sendHello(gameType, difficulty, name);
+        client.reader.start();
+        return client;
+    }
+
+    /**
+     * Connect as a spectator. Keys are ignored.
+     *
+     * @param matchId 0 for the server's featured match
+     */
+    public static NetClient watch(String address, int matchId) throws IOException {
+        NetClient client = new NetClient(open(address));
+        client.spectating = true;
+        client.sendWatch(matchId);
+        client.reader.start();
+        return client;
+    }
+
+    private static SocketChannel open(String address) throws IOException {
+        String host = address;
+        int port = NetProtocol.DEFAULT_PORT;
+        int colon = address.lastIndexOf(':');
+        if (colon > 0) {
+            host = address.substring(0, colon);
+            port = Integer.parseInt(address.substring(colon + 1));
+        }
+
+        SocketChannel ch = SocketChannel.open(new InetSocketAddress(host, port));
+        ch.socket().setTcpNoDelay(true);
+        return ch;
+    }
+
+    public boolean hasMatch() {
+        return spec != null;
+    }
+
+    public MatchSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Paddle index this player controls.
+     */
+    public int getSeat() {
+        return seat;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public boolean isConnected() {
+        return !closed;
+    }
+
+    public boolean isSpectating() {
+        return spectating;
+    }
+
+    // ==================== Input ====================
+
+    public void keyPressed(int code) {
+        pressedKeys |= GameSimulation.keyBit(code);
+        sendInputIfChanged();
+    }
+
+    public void keyReleased(int code) {
+        pressedKeys &= ~GameSimulation.keyBit(code);
+        sendInputIfChanged();
+    }
+
+    private void sendInputIfChanged() {
+        if (spectating) return;
+        int bits = 0;
+        if ((pressedKeys & PLUS_KEYS) != 0) bits |= NetProtocol.INPUT_PLUS;
+        if ((pressedKeys & MINUS_KEYS) != 0) bits |= NetProtocol.INPUT_MINUS;
+        if (bits == sentBits) return;
+        logInput(bits);
+        sentBits = bits;
+
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            writer.wrap(sendBuffer).input(bits);
+            send();
+        }
+    }
+
+    private void sendHello(GameSimulation.GameType gameType, GameSimulation.Difficulty difficulty,
+                           String name) throws IOException {
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            writer.wrap(sendBuffer).hello(gameType, difficulty, name);
+            sendBuffer.flip();
+            while (sendBuffer.hasRemaining()) {
+                ch.write(sendBuffer);
+            }
+        }
+    }
+
+    /**
+     * Tell the server the newest state we have, so it can send the next
+     * ones as deltas against it, and how far behind it we draw the puck,
+     * so it can judge our saves by what we saw.
+     */
+    private void sendAck(int tick, double drawnBehindTicks) {
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            writer.wrap(sendBuffer).ack(tick, (int) Math.round(drawnBehindTicks));
+            send();
+        }
+    }
+
+    /**
+     * Say something to the other players in the match.
+     */
+    public void sendChat(CharSequence text) {
+        if (spectating) return;
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            writer.wrap(sendBuffer).chat(seat, text);
+            send();
+        }
+    }
+
+    private void sendWatch(int matchId) throws IOException {
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            writer.wrap(sendBuffer).watch(matchId);
+            sendBuffer.flip();
+            while (sendBuffer.hasRemaining()) {
+                ch.write(sendBuffer);
+            }
+        }
+    }
+
+    private void send() {
+        sendBuffer.flip();
+        try {
+            while (sendBuffer.hasRemaining()) {
+                ch.write(sendBuffer);
+            }
+        } catch (IOException ex) {
+            System.err.println("[Net] Send failed: " + ex.getMessage());
+            close();
+        }
+    }
+
+    // ==================== State ====================
+
+    /**
+     * Load the state to draw now into sim: remote objects between two
+     * received states, our own paddle predicted to the present.
+     *
+     * @return false if no state has arrived yet
+     */
+    public boolean applyState(GameSimulation sim, long nowNanos) {
+        synchronized (stateLock) {
+            if (latestTick < 0) return false;
+
+            // the newest stored state at or before the moment to draw...
+            double renderTick = interpolator.renderTick(nowNanos);
+            int from = (int) Math.min(Math.floor(renderTick), latestTick);
+            while (from > latestTick - StateCodec.HISTORY && !codec.has(from)) {
+                from--;
+            }
+            if (!codec.has(from)) {
+                from = latestTick;
+            }
+            // ...and the next one after it, if it is here yet
+            int to = from + 1;
+            while (to <= latestTick && !codec.has(to)) {
+                to++;
+            }
+
+            codec.apply(from, sim);
+            if (to <= latestTick && renderTick > from) {
+                sim.blendNetPositions(codec.getFields(to), to - from,
+                        Math.min(1.0, (renderTick - from) / (to - from)));
+            }
+
+            if (!spectating) {
+                predictOwnPaddle(sim, codec.getFields(latestTick), nowNanos);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * How far behind the newest states remote objects are drawn.
+     */
+    public double getInterpolationDelayMillis() {
+        synchronized (stateLock) {
+            return interpolator != null ? interpolator.getDelayMillis() : 0;
+        }
+    }
+
+    /**
+     * Measured round trip, or -1 before the first measurement.
+     */
+    public double getRoundTripMillis() {
+        synchronized (inputLog) {
+            return roundTripNanos < 0 ? -1 : roundTripNanos / 1e6;
+        }
+    }
+
+    // ==================== Prediction ====================
+
+    private void logInput(int bits) {
+        long now = System.nanoTime();
+        synchronized (inputLog) {
+            inputLog[inputLogCount % INPUT_LOG_SIZE] = now;
+            inputLogBits[inputLogCount % INPUT_LOG_SIZE] = bits;
+            inputLogCount++;
+            // time the echo only if the server had caught up with the
+            // previous change, or the echo could be of an older one
+            measuringSentNanos = measuringSentNanos == 0 && serverSeatBits == sentBits ? now : 0;
+        }
+    }
+
+    /**
+     * Put our paddle where the newest state has it, then move it by the
+     * input sent within the last round trip, which that state cannot
+     * include yet.
+     */
+    private void predictOwnPaddle(GameSimulation sim, int[] newest, long nowNanos) {
+        int keyBits = GameSimulation.netInputBits(newest);
+        int seatBits = ((keyBits & sim.getPaddleKeyPlus(seat)) != 0 ? NetProtocol.INPUT_PLUS : 0)
+                | ((keyBits & sim.getPaddleKeyMinus(seat)) != 0 ? NetProtocol.INPUT_MINUS : 0);
+
+        synchronized (inputLog) {
+            if (measuringSentNanos != 0 && seatBits == inputLogBits[(inputLogCount - 1) % INPUT_LOG_SIZE]) {
+                double sample = latestArrivalNanos - measuringSentNanos;
+                if (sample > 0) {
+                    roundTripNanos = roundTripNanos < 0 ? sample
+                            : roundTripNanos + (sample - roundTripNanos) * ROUND_TRIP_GAIN;
+                }
+                measuringSentNanos = 0;
+            }
+            serverSeatBits = seatBits;
+
+            sim.setPaddleFromNetFields(seat, newest);
+            if (roundTripNanos < 0 || !sim.isGameInProgress() || sim.isPaused()) return;
+
+            // replay the input log from where the newest state leaves off
+            long start = latestArrivalNanos - (long) Math.min(roundTripNanos, MAX_PREDICTION_NANOS);
+            double speed = sim.getPaddleSpeed();
+            long segmentEnd = nowNanos;
+            int oldest = Math.max(0, inputLogCount - INPUT_LOG_SIZE);
+            for (int i = inputLogCount - 1; i >= oldest && segmentEnd > start; i--) {
+                long segmentStart = Math.max(inputLog[i % INPUT_LOG_SIZE], start);
+                int bits = inputLogBits[i % INPUT_LOG_SIZE];
+                int dir = ((bits & NetProtocol.INPUT_PLUS) != 0 ? 1 : 0)
+                        - ((bits & NetProtocol.INPUT_MINUS) != 0 ? 1 : 0);
+                if (dir != 0 && segmentEnd > segmentStart) {
+                    sim.nudgePaddle(seat, dir * speed * (segmentEnd - segmentStart) / 1e9);
+                }
+                segmentEnd = segmentStart;
+            }
+        }
+    }
+
+    /**
+     * True once, after the server has reported the end of the match.
+     */
+    public boolean pollMatchEnded() {
+        if (!ended) return false;
+        ended = false;
+        return true;
+    }
+
+    /**
+     * Sides whose goal the puck went into since the last call, as bits
+     * (1 << Side.ordinal()).
+     */
+    public int pollGoals() {
+        return goalSides.getAndSet(0);
+    }
+
+    /**
+     * The newest chat line ("name: text"), or null if none came in the
+     * last maxAgeMillis.
+     */
+    public String getChatLine(long nowNanos, long maxAgeMillis) {
+        String line = chatLine;
+        return line != null && nowNanos - chatNanos < maxAgeMillis * 1_000_000L ? line : null;
+    }
+
+    /**
+     * The finished match's high-score entry, as GameSimulation.Listener
+     * gets it: the winner's name and score, or the player's against the AI.
+     */
+    public String getScoreName() {
+        return scoreName;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    // ==================== Reader thread ====================
+
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocateDirect(NetProtocol.MAX_FRAME_BYTES);
+        NetProtocol.Reader reader = new NetProtocol.Reader();
+        StringBuilder text = new StringBuilder();
+        try {
+            while (!closed) {
+                if (ch.read(in) < 0) break;
+                in.flip();
+                while (reader.next(in)) {
+                    handleMessage(reader, text);
+                }
+                in.compact();
+            }
+        } catch (IOException ex) {
+            if (!closed) {
+                System.err.println("[Net] Connection lost: " + ex.getMessage());
+            }
+        }
+        close();
+    }
+
+    private void handleMessage(NetProtocol.Reader in, StringBuilder text) throws IOException {
+        switch (in.type()) {
+            case NetProtocol.MSG_WELCOME:
+                if (in.welcomeVersion() != NetProtocol.VERSION) {
+                    throw new IOException("server speaks protocol v" + in.welcomeVersion()
+                            + ", not v" + NetProtocol.VERSION);
+                }
+                seat = in.welcomeSeat();
+                tickRate = in.welcomeTickRate();
+                synchronized (stateLock) {
+                    codec.reset();
+                    interpolator = new SnapshotInterpolator(tickRate, StateCodec.HISTORY / 2.0);
+                    latestTick = -1;
+                }
+                goalSides.set(0);
+                spec = in.welcomeSpec();
+                break;
+
+            case NetProtocol.MSG_STATE: {
+                int tick = in.stateTick();
+                long now = System.nanoTime();
+                synchronized (stateLock) {
+                    in.decodeState(codec);
+                    interpolator.onState(tick, now);
+                    if (tick > latestTick) {
+                        latestTick = tick;
+                        latestArrivalNanos = now;
+                    }
+                }
+                // spectators get a shared stream that does not depend on acks
+                if (!spectating) {
+                    sendAck(tick, interpolator.getDelayMillis() * tickRate / 1000);
+                }
+                break;
+            }
+
+            case NetProtocol.MSG_GOAL:
+                goalSides.accumulateAndGet(1 << in.goalSide(), (sides, side) -> sides | side);
+                break;
+
+            case NetProtocol.MSG_CHAT: {
+                MatchSpec spec = this.spec;
+                int from = in.chatSeat();
+                text.setLength(0);
+                text.append(spec != null && from < spec.getNames().length ? spec.getNames()[from] : "?");
+                text.append(": ");
+                in.chatText(text);
+                chatLine = text.toString();
+                chatNanos = System.nanoTime();
+                break;
+            }
+
+            case NetProtocol.MSG_END:
+                text.setLength(0);
+                in.endName(text);
+                scoreName = text.toString();
+                score = in.endScore();
+                ended = true;
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package com.cs304.airhockey;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Message format shared by MatchServer and its clients.
+ *
+ * <p>Every message is one frame: an unsigned 16-bit length (type byte +
+ * payload), the type byte, then the payload. All numbers are big-endian.
+ *
+ * <pre>
+ * client -> server
+ *   HELLO    version u8, gameType u8, difficulty u8, name str
+ *   WATCH    version u8, matchId i32 (0 = the featured match), instead of HELLO
+ *   INPUT    bits u8 (INPUT_PLUS / INPUT_MINUS)
+ *   ACK      tick i32 (newest STATE received), [behind u8 (ticks the client draws
+ *            remote objects behind that state, for lag compensation)]
+ *   CHAT     seat u8 (ignored, the server fills in the sender), text str
+ * server -> client
+ *   WELCOME  version u8, matchId i32, seat u8 (SPECTATOR_SEAT when watching), tickRate i32,
+ *            match spec: the match starts
+ *   STATE    tick i32, StateCodec payload (delta against an acked state)
+ *   GOAL     tick i32 (the first STATE showing it), side u8 (the goal the puck went into)
+ *   CHAT     seat u8, text str
+ *   END      name str, score i32: the match is over; its high-score entry
+ *            (see GameSimulation.Listener#onMatchFinished)
+ * </pre>
+ * Strings are an unsigned byte length followed by UTF-8. A HELLO or WATCH
+ * with another {@link #VERSION} is answered by closing the connection.
+ *
+ * <p>Messages are written by a {@link Writer} and read by a
+ * {@link Reader}. Both are flyweights: one per buffer, pointed at it
+ * again for each frame, so sending or receiving a message creates no
+ * objects (except the MatchSpec in WELCOME, once per match).
+ */
+final class NetProtocol {
+
+    static final int VERSION = 2;
+
+    static final int DEFAULT_PORT = 7304;
+
+    static final byte MSG_HELLO = 1;
+    static final byte MSG_INPUT = 2;
+    static final byte MSG_WELCOME = 3;
+    static final byte MSG_STATE = 4;
+    static final byte MSG_END = 5;
+    static final byte MSG_ACK = 6;
+    static final byte MSG_WATCH = 7;
+    static final byte MSG_GOAL = 8;
+    static final byte MSG_CHAT = 9;
+
+    static final int SPECTATOR_SEAT = 0xFF;
+
+    // a client only steers its own paddle, so it sends two bits
+    static final int INPUT_PLUS = 1;      // up / right
+    static final int INPUT_MINUS = 2;     // down / left
+
+    static final int LENGTH_BYTES = 2;
+    static final int MAX_FRAME_BYTES = LENGTH_BYTES + 0xFFFF;
+    static final int MAX_STRING_BYTES = 0xFF;
+
+    // ----- frame sizes, for checking there is room before writing -----
+    private static final int HEADER_BYTES = LENGTH_BYTES + 1;
+    static final int GOAL_FRAME_BYTES = HEADER_BYTES + 4 + 1;
+    static final int CHAT_FRAME_BYTES = HEADER_BYTES + 1 + 1 + MAX_STRING_BYTES;
+    static final int END_FRAME_BYTES = HEADER_BYTES + 1 + MAX_STRING_BYTES + 4;
+
+    // ----- smallest valid payloads, for checking what clients send -----
+    static final int HELLO_MIN_BYTES = 4;
+    static final int WATCH_BYTES = 5;
+    static final int INPUT_BYTES = 1;
+    static final int ACK_MIN_BYTES = 4;
+    static final int CHAT_MIN_BYTES = 2;
+
+    private NetProtocol() {
+    }
+
+    /**
+     * Length of the next complete frame in a buffer that is ready for
+     * reading (after flip()), or -1 if it has not fully arrived yet.
+     * The length covers the type byte and payload, not the length prefix.
+     */
+    static int nextFrameLength(ByteBuffer in) {
+        if (in.remaining() < LENGTH_BYTES) return -1;
+        int length = in.getShort(in.position()) & 0xFFFF;
+        return in.remaining() >= LENGTH_BYTES + length ? length : -1;
+    }
+
+    // ==================== Writing ====================
+
+    /**
+     * Writes whole frames at a buffer's position. Holds nothing but the
+     * buffer, so one writer serves every message sent through it.
+     */
+    static final class Writer {
+        private ByteBuffer out;
+
+        /**
+         * Write the next frames into this buffer (in write mode).
+         */
+        Writer wrap(ByteBuffer out) {
+            this.out = out;
+            return this;
+        }
+
+        void hello(GameSimulation.GameType gameType, GameSimulation.Difficulty difficulty,
+                   CharSequence name) {
+            int frame = begin(MSG_HELLO);
+            out.put((byte) VERSION);
+            out.put((byte) gameType.ordinal());
+            out.put((byte) difficulty.ordinal());
+            putString(name);
+            end(frame);
+        }
+
+        void watch(int matchId) {
+            int frame = begin(MSG_WATCH);
+            out.put((byte) VERSION);
+            out.putInt(matchId);
+            end(frame);
+        }
+
+        /**
+         * Four bytes on the wire.
+         */
+        void input(int bits) {
+            int frame = begin(MSG_INPUT);
+            out.put((byte) bits);
+            end(frame);
+        }
+
+        void ack(int tick, int behindTicks) {
+            int frame = begin(MSG_ACK);
+            out.putInt(tick);
+            out.put((byte) Math.min(0xFF, behindTicks));
+            end(frame);
+        }
+
+        void chat(int seat, CharSequence text) {
+            int frame = begin(MSG_CHAT);
+            out.put((byte) seat);
+            putString(text);
+            end(frame);
+        }
+
+        void welcome(int matchId, int seat, int tickRate, MatchSpec spec) {
+            int frame = begin(MSG_WELCOME);
+            out.put((byte) VERSION);
+            out.putInt(matchId);
+            out.put((byte) seat);
+            out.putInt(tickRate);
+            out.put((byte) spec.getGameType().ordinal());
+            out.put((byte) spec.getDifficulty().ordinal());
+            out.putShort((short) spec.getPuckCount());
+            String[] names = spec.getNames();
+            out.put((byte) names.length);
+            for (String name : names) {
+                putString(name);
+            }
+            end(frame);
+        }
+
+        /**
+         * The state at tick as a delta against baseTick (-1 for a keyframe).
+         */
+        void state(int tick, StateCodec codec, int baseTick) {
+            int frame = begin(MSG_STATE);
+            out.putInt(tick);
+            codec.encode(tick, baseTick, out);
+            end(frame);
+        }
+
+        void goal(int tick, GameSimulation.Side side) {
+            int frame = begin(MSG_GOAL);
+            out.putInt(tick);
+            out.put((byte) side.ordinal());
+            end(frame);
+        }
+
+        void end(CharSequence name, int score) {
+            int frame = begin(MSG_END);
+            putString(name);
+            out.putInt(score);
+            end(frame);
+        }
+
+        private int begin(byte type) {
+            int start = out.position();
+            out.putShort((short) 0);
+            out.put(type);
+            return start;
+        }
+
+        private void end(int start) {
+            int length = out.position() - start - LENGTH_BYTES;
+            if (length > 0xFFFF) {
+                throw new IllegalStateException("Frame too large: " + length);
+            }
+            out.putShort(start, (short) length);
+        }
+
+        /**
+         * UTF-8 straight into the buffer, cut at MAX_STRING_BYTES on a
+         * character boundary.
+         */
+        private void putString(CharSequence s) {
+            int lengthAt = out.position();
+            out.put((byte) 0);
+            int len = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int c = s.charAt(i);
+                int bytes;
+                if (Character.isHighSurrogate((char) c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    c = Character.toCodePoint((char) c, s.charAt(i + 1));
+                    bytes = 4;
+                } else if (Character.isSurrogate((char) c)) {
+                    c = '?';
+                    bytes = 1;
+                } else {
+                    bytes = c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+                }
+                if (len + bytes > MAX_STRING_BYTES) break;
+
+                switch (bytes) {
+                    case 1:
+                        out.put((byte) c);
+                        break;
+                    case 2:
+                        out.put((byte) (0xC0 | c >> 6));
+                        out.put((byte) (0x80 | c & 0x3F));
+                        break;
+                    case 3:
+                        out.put((byte) (0xE0 | c >> 12));
+                        out.put((byte) (0x80 | c >> 6 & 0x3F));
+                        out.put((byte) (0x80 | c & 0x3F));
+                        break;
+                    default:
+                        out.put((byte) (0xF0 | c >> 18));
+                        out.put((byte) (0x80 | c >> 12 & 0x3F));
+                        out.put((byte) (0x80 | c >> 6 & 0x3F));
+                        out.put((byte) (0x80 | c & 0x3F));
+                        i++;
+                        break;
+                }
+                len += bytes;
+            }
+            out.put(lengthAt, (byte) len);
+        }
+    }
+
+    // ==================== Reading ====================
+
+    /**
+     * Steps through the complete frames in a buffer and reads their fields
+     * in place. Field getters are only valid for the current frame's type
+     * and until the buffer is compacted; payloadLength() says whether a
+     * frame from an untrusted peer is long enough for them.
+     */
+    static final class Reader {
+        private ByteBuffer in;
+        private byte type;
+        private int body;           // first payload byte
+        private int end;
+
+        /**
+         * Move to the next complete frame of a buffer in read mode (after
+         * flip()) and past it.
+         *
+         * @return false if it has not fully arrived yet
+         */
+        boolean next(ByteBuffer in) {
+            int length = nextFrameLength(in);
+            if (length < 0) return false;
+            this.in = in;
+            int start = in.position();
+            end = start + LENGTH_BYTES + length;
+            type = length > 0 ? in.get(start + LENGTH_BYTES) : 0;
+            body = Math.min(start + HEADER_BYTES, end);
+            in.position(end);
+            return true;
+        }
+
+        byte type() {
+            return type;
+        }
+
+        int payloadLength() {
+            return end - body;
+        }
+
+        // ----- HELLO -----
+
+        int helloVersion() {
+            return u8(0);
+        }
+
+        int helloGameType() {
+            return u8(1);
+        }
+
+        int helloDifficulty() {
+            return u8(2);
+        }
+
+        void helloName(StringBuilder dst) {
+            getString(3, dst);
+        }
+
+        // ----- WATCH -----
+
+        int watchVersion() {
+            return u8(0);
+        }
+
+        int watchMatchId() {
+            return in.getInt(body + 1);
+        }
+
+        // ----- INPUT -----
+
+        int inputBits() {
+            return u8(0) & (INPUT_PLUS | INPUT_MINUS);
+        }
+
+        // ----- ACK -----
+
+        int ackTick() {
+            return in.getInt(body);
+        }
+
+        /**
+         * 0 from clients that do not send it.
+         */
+        int ackBehind() {
+            return payloadLength() > 4 ? u8(4) : 0;
+        }
+
+        // ----- CHAT -----
+
+        int chatSeat() {
+            return u8(0);
+        }
+
+        void chatText(StringBuilder dst) {
+            getString(1, dst);
+        }
+
+        // ----- WELCOME -----
+
+        int welcomeVersion() {
+            return u8(0);
+        }
+
+        int welcomeMatchId() {
+            return in.getInt(body + 1);
+        }
+
+        int welcomeSeat() {
+            return u8(5);
+        }
+
+        int welcomeTickRate() {
+            return in.getInt(body + 6);
+        }
+
+        MatchSpec welcomeSpec() {
+            GameSimulation.GameType gameType = GameSimulation.GameType.values()[u8(10)];
+            GameSimulation.Difficulty difficulty = GameSimulation.Difficulty.values()[u8(11)];
+            int pucks = in.getShort(body + 12) & 0xFFFF;
+            String[] names = new String[u8(14)];
+            StringBuilder name = new StringBuilder();
+            int at = 15;
+            for (int i = 0; i < names.length; i++) {
+                name.setLength(0);
+                at = getString(at, name);
+                names[i] = name.toString();
+            }
+            return new MatchSpec(gameType, difficulty, pucks, names);
+        }
+
+        // ----- STATE -----
+
+        int stateTick() {
+            return in.getInt(body);
+        }
+
+        /**
+         * Feed the state's payload to a codec.
+         */
+        void decodeState(StateCodec codec) throws IOException {
+            int limit = in.limit();
+            in.limit(end).position(body + 4);
+            try {
+                codec.decode(stateTick(), in);
+            } finally {
+                in.limit(limit).position(end);
+            }
+        }
+
+        // ----- GOAL -----
+
+        int goalTick() {
+            return in.getInt(body);
+        }
+
+        int goalSide() {
+            return u8(4);
+        }
+
+        // ----- END -----
+
+        void endName(StringBuilder dst) {
+            getString(0, dst);
+        }
+
+        int endScore() {
+            int at = body + 1 + u8(0);
+            return at + 4 <= end ? in.getInt(at) : 0;
+        }
+
+        private int u8(int offset) {
+            return in.get(body + offset) & 0xFF;
+        }
+
+        /**
+         * Append the string at this payload offset, decoding UTF-8 by hand
+         * (malformed bytes become U+FFFD).
+         *
+         * @return the offset just past it
+         */
+        private int getString(int offset, StringBuilder dst) {
+            int at = body + offset;
+            int stop = Math.min(end, at + 1 + u8(offset));
+            at++;
+            while (at < stop) {
+                int b = in.get(at) & 0xFF;
+                int more = b < 0x80 ? 0 : b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : -1;
+                if (more < 0 || at + more >= stop) {
+                    dst.append('\uFFFD');
+                    at++;
+                    continue;
+                }
+                int c = more == 0 ? b : b & (0x3F >> more);
+                boolean ok = true;
+                for (int k = 1; k <= more; k++) {
+                    int next = in.get(at + k) & 0xFF;
+                    if ((next & 0xC0) != 0x80) {
+                        ok = false;
+                        break;
+                    }
+                    c = c << 6 | next & 0x3F;
+                }
+                if (!ok || c > Character.MAX_CODE_POINT
+                        || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+                    dst.append('\uFFFD');
+                    at++;
+                    continue;
+                }
+                dst.appendCodePoint(c);
+                at += 1 + more;
+            }
+            return stop - body;
+        }
+    }
+
+    /**
+     * Mode name as used by the menus ("pvp2", "pvp4", "ffa4", "ai", "multi").
+     */
+    static GameSimulation.GameType gameTypeForMode(String mode) {
+        switch (mode) {
+            case "pvp2":
+                return GameSimulation.GameType.TWO_PLAYERS;
+            case "pvp4":
+                return GameSimulation.GameType.FOUR_PLAYERS_2V2;
+            case "ffa4":
+                return GameSimulation.GameType.FOUR_PLAYERS_FFA;
+            case "ai":
+                return GameSimulation.GameType.VS_AI;
+            case "multi":
+                return GameSimulation.GameType.MULTI_PUCK;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+    }
+
+    /**
+     * Turn one seat's INPUT_PLUS / INPUT_MINUS bits into the simulation's
+     * key bits for that seat's paddle (seat i drives paddle i).
+     */
+    static int toKeyBits(GameSimulation sim, int seat, int seatBits) {
+        int bits = 0;
+        if ((seatBits & INPUT_PLUS) != 0) bits |= sim.getPaddleKeyPlus(seat);
+        if ((seatBits & INPUT_MINUS) != 0) bits |= sim.getPaddleKeyMinus(seat);
+        return bits;
+    }
+
+    // ==================== Benchmark ====================
+
+    /**
+     * Encode and decode every per-tick and in-match message through one
+     * direct buffer, and report time and bytes allocated per message
+     * (should be 0 once warmed up).
+     *
+     * <p>Usage: NetProtocol [millions of rounds]
+     */
+    public static void main(String[] args) throws IOException {
+        int rounds = (int) ((args.length > 0 ? Double.parseDouble(args[0]) : 2) * 1_000_000);
+
+        GameSimulation sim = new GameSimulation(null, GameSimulation.DEFAULT_TICK_RATE);
+        sim.startNewMatch2v2("A", "B", "C", "D");
+        StateCodec server = new StateCodec();
+        StateCodec client = new StateCodec();
+        for (int tick = 1; tick <= 2; tick++) {
+            sim.update();
+            server.store(tick, sim);
+        }
+        client.decode(1, keyframe(server));
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(MAX_FRAME_BYTES);
+        Writer writer = new Writer();
+        Reader reader = new Reader();
+        StringBuilder text = new StringBuilder();
+        String chat = "gl hf \u00e9\u20ac";
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long check = 0;
+        for (int pass = 0; pass < 2; pass++) {          // the first one warms up
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                buf.clear();
+                writer.wrap(buf);
+                writer.input(i & 3);
+                writer.ack(i, 3);
+                writer.state(2, server, 1);
+                writer.goal(i, GameSimulation.Side.LEFT);
+                writer.chat(1, chat);
+                writer.end(chat, i);
+                buf.flip();
+
+                while (reader.next(buf)) {
+                    switch (reader.type()) {
+                        case MSG_INPUT:
+                            check += reader.inputBits();
+                            break;
+                        case MSG_ACK:
+                            check += reader.ackTick() + reader.ackBehind();
+                            break;
+                        case MSG_STATE:
+                            reader.decodeState(client);
+                            break;
+                        case MSG_GOAL:
+                            check += reader.goalTick() + reader.goalSide();
+                            break;
+                        case MSG_CHAT:
+                            text.setLength(0);
+                            reader.chatText(text);
+                            check += reader.chatSeat() + text.length();
+                            break;
+                        case MSG_END:
+                            text.setLength(0);
+                            reader.endName(text);
+                            check += reader.endScore() + text.length();
+                            break;
+                        default:
+                            throw new IllegalStateException("Unexpected message " + reader.type());
+                    }
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+            if (pass == 1) {
+                long messages = 6L * rounds;
+                System.out.printf("%d messages: %.1f ns each (write + read), %.4f bytes allocated each%n",
+                        messages, (double) nanos / messages, (double) allocated / messages);
+            }
+        }
+        if (!chat.contentEquals(text)) {
+            throw new IllegalStateException("Chat came back as " + text);
+        }
+
+        buf.clear();
+        writer.wrap(buf).input(INPUT_PLUS);
+        System.out.println("INPUT frame: " + buf.position() + " bytes (checksum " + check + ")");
+    }
+
+    private static ByteBuffer keyframe(StateCodec codec) {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_FRAME_BYTES);
+        codec.encode(1, -1, buf);
+        buf.flip();
+        return buf;
+    }
+}
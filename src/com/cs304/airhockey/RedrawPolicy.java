@@ -0,0 +1,115 @@
+package com.cs304.airhockey;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.jogamp.opengl.GLAnimatorControl;
+import com.jogamp.opengl.GLAutoDrawable;
+
+/**
+ * Decides how often the window is redrawn, so an idle cabinet sitting in
+ * a menu for hours does not render at full rate the whole time.
+ *
+ * <p>The animator runs at full rate while a match is moving and for a
+ * while after any key. After that it is paused: screens that animate are
+ * redrawn from this class's own thread at a low rate, still screens are
+ * not redrawn at all until the next key (the window system still repaints
+ * them when uncovered or resized). The animator is only ever paused and
+ * resumed from this thread, never from the render or input thread, so
+ * neither of those waits on it.
+ */
+public class RedrawPolicy {
+
+    /**
+     * What the screen on show needs. Reported by the renderer every frame.
+     */
+    public enum Need {
+        /** Something moves on its own (a running match): always full rate. */
+        MOTION,
+        /** Purely decorative animation: the idle rate is good enough. */
+        ANIMATION,
+        /** Nothing changes without input. */
+        STILL
+    }
+
+    private final GLAutoDrawable drawable;
+    private final GLAnimatorControl animator;
+    private final long idleFrameNanos;
+    private final long idleAfterNanos;
+    private final Thread thread;
+
+    private volatile Need need = Need.ANIMATION;
+    private volatile long lastInputNanos = System.nanoTime();
+    private volatile boolean stopped = false;
+
+    /**
+     * @param idleFps     redraw rate of animated screens while idle
+     * @param idleAfterMs full rate lasts this long after the last key
+     */
+    public RedrawPolicy(GLAutoDrawable drawable, GLAnimatorControl animator, int idleFps, long idleAfterMs) {
+        this.drawable = drawable;
+        this.animator = animator;
+        this.idleFrameNanos = 1_000_000_000L / Math.max(1, idleFps);
+        this.idleAfterNanos = idleAfterMs * 1_000_000L;
+        this.thread = new Thread(this::run, "airhockey-redraw");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Called by the renderer with what the current screen needs.
+     */
+    public void setNeed(Need need) {
+        if (this.need == need) return;
+        this.need = need;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * A key was pressed or released: back to full rate.
+     */
+    public void onInput() {
+        lastInputNanos = System.nanoTime();
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (!stopped) {
+            long sinceInput = System.nanoTime() - lastInputNanos;
+            Need current = need;
+
+            if (current == Need.MOTION || sinceInput < idleAfterNanos) {
+                if (animator.isPaused()) {
+                    animator.resume();
+                }
+                if (current == Need.MOTION) {
+                    LockSupport.park(this);                         // until the need changes
+                } else {
+                    LockSupport.parkNanos(this, idleAfterNanos - sinceInput);
+                }
+                continue;
+            }
+
+            if (!animator.isPaused()) {
+                animator.pause();
+            }
+            if (current == Need.ANIMATION) {
+                try {
+                    drawable.display();
+                } catch (RuntimeException ex) {
+                    System.err.println("[Redraw] Idle frame failed: " + ex.getMessage());
+                }
+                LockSupport.parkNanos(this, idleFrameNanos);
+            } else {
+                LockSupport.park(this);                             // until a key or a new need
+            }
+        }
+    }
+}
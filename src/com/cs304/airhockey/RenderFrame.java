@@ -0,0 +1,112 @@
+package com.cs304.airhockey;
+
+/**
+ * Everything the renderer needs from one simulation tick: where the
+ * paddles and pucks were on this tick and on the one before, and the
+ * HUD text. Filled on the simulation thread and handed over through a
+ * {@link TripleBuffer}; once published it is not changed until the
+ * renderer has let go of it.
+ */
+final class RenderFrame {
+
+    // further than this in one tick is a reset (goal, new round), not motion
+    private static final double TELEPORT_DISTANCE = 100;
+
+    // ----- timing -----
+    long dueNanos;          // when this tick fell due
+    boolean inProgress;
+
+    // ----- paddles -----
+    int paddleCount;
+    final double[] paddlePrevX = new double[GameSimulation.MAX_PADDLES];
+    final double[] paddlePrevY = new double[GameSimulation.MAX_PADDLES];
+    final double[] paddleX = new double[GameSimulation.MAX_PADDLES];
+    final double[] paddleY = new double[GameSimulation.MAX_PADDLES];
+    final double[] paddleHalfW = new double[GameSimulation.MAX_PADDLES];
+    final double[] paddleHalfH = new double[GameSimulation.MAX_PADDLES];
+    final int[] paddleOwner = new int[GameSimulation.MAX_PADDLES];
+    final int[] paddleSlot = new int[GameSimulation.MAX_PADDLES];
+
+    // ----- pucks -----
+    int puckCount;
+    double puckR;
+    final double[] puckPrevX = new double[GameSimulation.MAX_PUCKS];
+    final double[] puckPrevY = new double[GameSimulation.MAX_PUCKS];
+    final double[] puckX = new double[GameSimulation.MAX_PUCKS];
+    final double[] puckY = new double[GameSimulation.MAX_PUCKS];
+
+    // ----- HUD -----
+    String topLine1;
+    String topLine2;        // null: one line only
+    String bottomLine;
+    String countdown;       // null: no round countdown showing
+    String chatLine;        // null: no recent chat
+    boolean paused;
+    boolean replaying;
+    int netStatus;          // GameWorld.NET_*
+
+    /**
+     * Copy the positions of this tick, keeping those of the previous
+     * frame as the starting point for interpolation.
+     *
+     * @param previous the frame published last; this frame if there is none
+     */
+    void capturePositions(GameSimulation sim, RenderFrame previous) {
+        boolean sameShapes = previous != this
+                && previous.paddleCount == sim.getPaddleCount()
+                && previous.puckCount == sim.getPuckCount();
+
+        paddleCount = sim.getPaddleCount();
+        for (int i = 0; i < paddleCount; i++) {
+            double x = sim.getPaddleX(i);
+            double y = sim.getPaddleY(i);
+            paddleX[i] = x;
+            paddleY[i] = y;
+            paddleHalfW[i] = sim.getPaddleHalfW(i);
+            paddleHalfH[i] = sim.getPaddleHalfH(i);
+            paddleOwner[i] = sim.getPaddleOwner(i).ordinal();
+            paddleSlot[i] = sim.getPaddleSlot(i);
+            if (sameShapes && !jumped(previous.paddleX[i], previous.paddleY[i], x, y)) {
+                paddlePrevX[i] = previous.paddleX[i];
+                paddlePrevY[i] = previous.paddleY[i];
+            } else {
+                paddlePrevX[i] = x;
+                paddlePrevY[i] = y;
+            }
+        }
+
+        puckCount = sim.getPuckCount();
+        puckR = sim.getPuckR();
+        for (int p = 0; p < puckCount; p++) {
+            double x = sim.getPuckX(p);
+            double y = sim.getPuckY(p);
+            puckX[p] = x;
+            puckY[p] = y;
+            if (sameShapes && !jumped(previous.puckX[p], previous.puckY[p], x, y)) {
+                puckPrevX[p] = previous.puckX[p];
+                puckPrevY[p] = previous.puckY[p];
+            } else {
+                puckPrevX[p] = x;
+                puckPrevY[p] = y;
+            }
+        }
+    }
+
+    private static boolean jumped(double x0, double y0, double x1, double y1) {
+        return Math.abs(x1 - x0) > TELEPORT_DISTANCE || Math.abs(y1 - y0) > TELEPORT_DISTANCE;
+    }
+
+    /**
+     * How far (0..1) the renderer is from the previous tick to this one.
+     * The screen runs one tick behind the simulation, so motion between
+     * ticks is always known rather than guessed.
+     */
+    double alpha(long nowNanos, long tickNanos) {
+        double alpha = (double) (nowNanos - dueNanos) / tickNanos;
+        return alpha < 0 ? 0 : alpha > 1 ? 1 : alpha;
+    }
+
+    static double lerp(double from, double to, double alpha) {
+        return from + (to - from) * alpha;
+    }
+}
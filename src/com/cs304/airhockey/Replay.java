@@ -0,0 +1,208 @@
+package com.cs304.airhockey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recorded match: how it was started (mode, names, difficulty, seed)
+ * plus the pressed-key bits of every simulated tick. The simulation is
+ * deterministic, so this is all that is needed to play the match again.
+ *
+ * <p>Inputs are stored as run-length encoded (bits, ticks) pairs of
+ * varints; keys change only a few times a second, so a full match is
+ * typically a few KB.
+ */
+public class Replay {
+
+    private static final int MAGIC = 0x41485250;      // "AHRP"
+    private static final int VERSION = 1;
+
+    public static final String FILE_EXTENSION = ".ahr";
+
+    private final int tickRate;
+    private final MatchSpec spec;
+    private final long seed;
+
+    private final long ticks;
+    // (bits, run length) varint pairs
+    private final byte[] inputRuns;
+
+    Replay(int tickRate, MatchSpec spec, long seed, long ticks, byte[] inputRuns) {
+        this.tickRate = tickRate;
+        this.spec = spec;
+        this.seed = seed;
+        this.ticks = ticks;
+        this.inputRuns = inputRuns;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public MatchSpec getSpec() {
+        return spec;
+    }
+
+    byte[] getInputRuns() {
+        return inputRuns;
+    }
+
+    /**
+     * Start the recorded match on the given simulation, with the recorded seed.
+     * The simulation must run at the replay's tick rate.
+     */
+    public void startMatch(GameSimulation sim) {
+        if (sim.getTickRate() != tickRate) {
+            throw new IllegalArgumentException("Replay was recorded at " + tickRate
+                    + " ticks/s, simulation runs at " + sim.getTickRate());
+        }
+        sim.setSeed(seed);
+        spec.start(sim);
+    }
+
+    // ==================== File format ====================
+
+    public void write(Path path) throws IOException {
+        Path parent = path.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(toBytes());
+        }
+    }
+
+    public static Replay read(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return fromBytes(in.readAllBytes());
+        }
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + inputRuns.length);
+        writeVarLong(out, MAGIC);
+        writeVarLong(out, VERSION);
+        writeVarLong(out, tickRate);
+        out.write(spec.getGameType().ordinal());
+        out.write(spec.getDifficulty().ordinal());
+        writeVarLong(out, spec.getPuckCount());
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (seed >>> (56 - 8 * i)));
+        }
+        String[] names = spec.getNames();
+        writeVarLong(out, names.length);
+        for (String name : names) {
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+        writeVarLong(out, ticks);
+        out.write(inputRuns, 0, inputRuns.length);
+        return out.toByteArray();
+    }
+
+    public static Replay fromBytes(byte[] data) throws IOException {
+        Reader in = new Reader(data);
+        if (in.readVarLong() != MAGIC) {
+            throw new IOException("Not a replay file");
+        }
+        long version = in.readVarLong();
+        if (version != VERSION) {
+            throw new IOException("Unsupported replay version " + version);
+        }
+        int tickRate = (int) in.readVarLong();
+        GameSimulation.GameType gameType = enumAt(GameSimulation.GameType.values(), in.readByte());
+        GameSimulation.Difficulty difficulty = enumAt(GameSimulation.Difficulty.values(), in.readByte());
+        int puckCount = (int) in.readVarLong();
+        long seed = 0;
+        for (int i = 0; i < 8; i++) {
+            seed = (seed << 8) | in.readByte();
+        }
+        String[] names = new String[(int) in.readVarLong()];
+        for (int i = 0; i < names.length; i++) {
+            int len = (int) in.readVarLong();
+            names[i] = new String(in.readBytes(len), StandardCharsets.UTF_8);
+        }
+        long ticks = in.readVarLong();
+        byte[] runs = Arrays.copyOfRange(data, in.pos, data.length);
+        return new Replay(tickRate, new MatchSpec(gameType, difficulty, puckCount, names),
+                seed, ticks, runs);
+    }
+
+    private static <E> E enumAt(E[] values, int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Corrupt replay header");
+        }
+        return values[ordinal];
+    }
+
+    // ---------- varints (7 bits per byte, high bit = more) ----------
+
+    static void writeVarLong(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * Sequential varint reader over a byte array.
+     */
+    static class Reader {
+        private final byte[] data;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+            this.end = data.length;
+        }
+
+        boolean hasMore() {
+            return pos < end;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= end) {
+                throw new IOException("Unexpected end of replay");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        byte[] readBytes(int len) throws IOException {
+            if (len < 0 || pos + len > end) {
+                throw new IOException("Unexpected end of replay");
+            }
+            byte[] out = Arrays.copyOfRange(data, pos, pos + len);
+            pos += len;
+            return out;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IOException("Malformed varint in replay");
+        }
+    }
+}
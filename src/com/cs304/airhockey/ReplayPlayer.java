@@ -0,0 +1,134 @@
+package com.cs304.airhockey;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Feeds a recorded match back into a simulation, one tick at a time.
+ * The same player drives the on-screen playback (one step per tick from
+ * the game loop) and the headless one (step as fast as possible).
+ */
+public class ReplayPlayer {
+
+    private final Replay replay;
+    private Replay.Reader runs;
+    private int runBits;
+    private long runRemaining;
+    private long ticksPlayed;
+    private boolean desynced;
+
+    public ReplayPlayer(Replay replay) {
+        this.replay = replay;
+    }
+
+    public Replay getReplay() {
+        return replay;
+    }
+
+    public long getTicksPlayed() {
+        return ticksPlayed;
+    }
+
+    /**
+     * Start the recorded match on the given simulation and rewind.
+     */
+    public void start(GameSimulation sim) {
+        replay.startMatch(sim);
+        runs = new Replay.Reader(replay.getInputRuns());
+        runBits = 0;
+        runRemaining = 0;
+        ticksPlayed = 0;
+        desynced = false;
+    }
+
+    public boolean isFinished() {
+        return ticksPlayed >= replay.getTicks();
+    }
+
+    /**
+     * True if the match ended before all recorded ticks were played: the
+     * replay is damaged or was recorded under other rules.
+     */
+    public boolean isDesynced() {
+        return desynced;
+    }
+
+    /**
+     * Advance the simulation by one tick with the recorded input.
+     * Paused ticks are never recorded, so a paused simulation is the
+     * viewer pausing playback: nothing happens until it is resumed.
+     *
+     * @return false once the replay has run out, or the match ended early
+     */
+    public boolean step(GameSimulation sim) {
+        if (isFinished() || desynced) return false;
+        if (!sim.isGameInProgress()) {
+            desynced = true;
+            System.err.println("[Replay] Match ended at tick " + ticksPlayed + " of "
+                    + replay.getTicks() + ": replay out of sync");
+            return false;
+        }
+        if (sim.isPaused()) return true;
+
+        if (runRemaining == 0) {
+            try {
+                runBits = (int) runs.readVarLong();
+                runRemaining = runs.readVarLong();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Corrupt replay input at tick " + ticksPlayed, ex);
+            }
+        }
+
+        sim.setInputBits(runBits);
+        sim.update();
+        runRemaining--;
+        ticksPlayed++;
+        return true;
+    }
+
+    /**
+     * Play a replay file headless as fast as possible and print the result.
+     * Usage: ReplayPlayer file.ahr
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayPlayer <replay" + Replay.FILE_EXTENSION + ">");
+            System.exit(1);
+        }
+        Path path = Paths.get(args[0]);
+        Replay replay = Replay.read(path);
+
+        GameSimulation sim = new GameSimulation(null, replay.getTickRate());
+        ReplayPlayer player = new ReplayPlayer(replay);
+
+        long start = System.nanoTime();
+        player.start(sim);
+        while (player.step(sim)) {
+            // run to the end
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double gameSeconds = (double) player.getTicksPlayed() / replay.getTickRate();
+        double wallSeconds = elapsed / 1e9;
+        System.out.println("Replay:     " + path + " (" + replay.toBytes().length + " bytes)");
+        System.out.println("Seed:       " + replay.getSeed());
+        System.out.printf("Ticks:      %d (%.1f s of game time)%n", player.getTicksPlayed(), gameSeconds);
+        System.out.printf("Played in:  %.1f ms (%.0fx real time)%n", wallSeconds * 1000, gameSeconds / wallSeconds);
+        if (sim.isFreeForAll()) {
+            for (GameSimulation.Side side : GameSimulation.Side.values()) {
+                System.out.println("Score:      " + sim.getFfaName(side) + " " + sim.getFfaScore(side));
+            }
+        } else {
+            System.out.println("Score:      " + sim.getLeftPlayerName() + " " + sim.getLeftScore()
+                    + " - " + sim.getRightScore() + " " + sim.getRightPlayerName());
+        }
+        if (sim.isVsAi()) {
+            System.out.println("Player:     score " + sim.getPlayerScore() + ", level " + sim.getLevel());
+        }
+        System.out.println("Finished:   " + !sim.isGameInProgress());
+        if (player.isDesynced()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.cs304.airhockey;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Records the input of every simulated tick of a match.
+ * Attach it with GameSimulation.setReplayRecorder(); the simulation
+ * calls begin() when a match starts and recordTick() on every tick
+ * that actually advances (paused ticks are skipped).
+ *
+ * <p>Only the run currently being extended is kept in fields, so
+ * recording a tick is a compare and an increment.
+ */
+public class ReplayRecorder {
+
+    private int tickRate;
+    private MatchSpec spec;
+    private long seed;
+
+    private final ByteArrayOutputStream runs = new ByteArrayOutputStream(1024);
+    private int runBits;
+    private long runLength;
+    private long ticks;
+    private boolean recording = false;
+
+    /**
+     * Start a new recording for the match the simulation just set up.
+     */
+    void begin(GameSimulation sim) {
+        tickRate = sim.getTickRate();
+        spec = MatchSpec.of(sim);
+        seed = sim.getSeed();
+
+        runs.reset();
+        runBits = 0;
+        runLength = 0;
+        ticks = 0;
+        recording = true;
+    }
+
+    void recordTick(int inputBits) {
+        if (!recording) return;
+
+        if (inputBits != runBits && runLength > 0) {
+            flushRun();
+        }
+        runBits = inputBits;
+        runLength++;
+        ticks++;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Stop recording and return what was recorded, or null if
+     * nothing is being recorded.
+     */
+    public Replay finish() {
+        if (!recording) return null;
+        recording = false;
+
+        if (runLength > 0) {
+            flushRun();
+        }
+        return new Replay(tickRate, spec, seed, ticks, runs.toByteArray());
+    }
+
+    private void flushRun() {
+        Replay.writeVarLong(runs, runBits);
+        Replay.writeVarLong(runs, runLength);
+        runLength = 0;
+    }
+}
@@ -0,0 +1,363 @@
+package com.cs304.airhockey;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * GGPO-style rollback for a networked match.
+ *
+ * <p>Every peer runs the whole simulation. The local player's input is
+ * applied on the tick it is pressed (no input delay); remote inputs that
+ * have not arrived yet are predicted by repeating the last one received.
+ * When a real remote input turns out to differ from the prediction, the
+ * session restores the snapshot taken before that tick and simulates
+ * forward again with the corrected inputs.
+ *
+ * <p>If remote inputs fall further behind than the prediction window,
+ * advance() stalls instead of guessing further ahead.
+ *
+ * <p>Goals and the end of the match are only reported once their tick is
+ * confirmed, so a rollback can neither take one back nor add one the
+ * listener never hears of. Paddle hits only make a sound and are reported
+ * straight away, the first time their tick is simulated.
+ *
+ * <p>This is the engine only. Nothing in the game uses it yet: online
+ * matches still go through the server-authoritative NetClient and
+ * MatchServer, and the only RollbackTransport is {@link LoopbackNetwork},
+ * an in-process simulator. Playing over rollback needs a socket transport
+ * and a client screen built on this class.
+ */
+public class RollbackSession implements GameSimulation.Listener, RollbackTransport.Receiver {
+
+    // predict at most this far ahead of the newest confirmed remote input
+    private static final double MAX_PREDICTION_SECONDS = 0.15;
+    // every message resends the last 2 * MAX + 2 ticks, which must fit in one
+    // message; that covers the largest gap between two peers' confirmed inputs
+    private static final int MAX_PREDICTION_TICKS = (RollbackTransport.MAX_TICKS_PER_MESSAGE - 2) / 2;
+
+    private final GameSimulation sim;
+    private final RollbackTransport transport;
+    private final GameSimulation.Listener listener;
+    private final int seatCount;
+    private final int localSeat;
+    private final int maxPredictionTicks;
+
+    // ----- history rings, indexed by tick % historySize -----
+    private final int historySize;
+    private final ByteBuffer[] snapshots;         // state at the start of each tick
+    private final int[][] inputs;                 // [seat][slot] confirmed or predicted bits
+    private final int[][] inputTick;              // [seat][slot] tick the confirmed input belongs to
+    private final int[] confirmedUpTo;            // [seat] every tick up to here is confirmed
+
+    private int currentTick = 0;                  // next tick to simulate
+    private int rollbackTo = Integer.MAX_VALUE;   // earliest mispredicted tick
+    private boolean resimulating = false;
+    private int simulatingTick;                   // tick the events being fired belong to
+    // goals and match ends of simulated ticks not yet confirmed, oldest first
+    private final ArrayDeque<Event> pendingEvents = new ArrayDeque<>();
+
+    // ----- stats -----
+    private long rollbacks;
+    private long resimulatedTicks;
+    private long stalls;
+    private int maxRollbackTicks;
+
+    /**
+     * A goal (side set) or the end of the match (side null) on some tick.
+     */
+    private static final class Event {
+        final int tick;
+        final GameSimulation.Side side;
+        final String scoreName;
+        final int score;
+
+        Event(int tick, GameSimulation.Side side, String scoreName, int score) {
+            this.tick = tick;
+            this.side = side;
+            this.scoreName = scoreName;
+            this.score = score;
+        }
+    }
+
+    /**
+     * @param listener gets paddle hits as they are first simulated, and
+     *                 goals and the end of the match once confirmed
+     */
+    public RollbackSession(MatchSpec spec, long seed, int tickRate, int localSeat,
+                           RollbackTransport transport, GameSimulation.Listener listener) {
+        this.seatCount = spec.getSeatCount();
+        if (seatCount < 2) {
+            throw new IllegalArgumentException("Rollback needs at least two players");
+        }
+        if (localSeat < 0 || localSeat >= seatCount) {
+            throw new IllegalArgumentException("localSeat must be 0.." + (seatCount - 1));
+        }
+        this.localSeat = localSeat;
+        this.transport = transport;
+        this.listener = listener != null ? listener : GameSimulation.NO_LISTENER;
+        this.maxPredictionTicks = Math.min(MAX_PREDICTION_TICKS,
+                Math.max(1, (int) Math.ceil(MAX_PREDICTION_SECONDS * tickRate)));
+
+        // past ticks we may roll back to + future ticks a peer may already have sent
+        this.historySize = 2 * maxPredictionTicks + 2;
+        this.snapshots = new ByteBuffer[historySize];
+        for (int i = 0; i < historySize; i++) {
+            snapshots[i] = ByteBuffer.allocate(GameSimulation.MAX_STATE_BYTES);
+        }
+        this.inputs = new int[seatCount][historySize];
+        this.inputTick = new int[seatCount][historySize];
+        for (int[] ticks : inputTick) {
+            Arrays.fill(ticks, -1);
+        }
+        this.confirmedUpTo = new int[seatCount];
+        Arrays.fill(confirmedUpTo, -1);
+
+        this.sim = new GameSimulation(this, tickRate);
+        sim.setSeed(seed);
+        spec.start(sim);
+    }
+
+    public GameSimulation getSimulation() {
+        return sim;
+    }
+
+    public int getCurrentTick() {
+        return currentTick;
+    }
+
+    public int getMaxPredictionTicks() {
+        return maxPredictionTicks;
+    }
+
+    // ==================== Ticking ====================
+
+    /**
+     * Simulate the next tick with the local player's input
+     * (NetProtocol.INPUT_PLUS / INPUT_MINUS bits).
+     *
+     * @return false if the tick was not run because remote inputs are
+     * too far behind; call again with the same input next frame
+     */
+    public boolean advance(int localBits) {
+        poll();
+
+        if (currentTick - oldestConfirmedRemoteTick() > maxPredictionTicks) {
+            // keep resending, or two stalled peers could wait for each other forever
+            stalls++;
+            sendLocalInputs();
+            return false;
+        }
+
+        int slot = slot(currentTick);
+        inputs[localSeat][slot] = localBits;
+        inputTick[localSeat][slot] = currentTick;
+        confirmedUpTo[localSeat] = currentTick;
+        sendLocalInputs();
+
+        simulateTick(currentTick);
+        currentTick++;
+        reportConfirmedEvents();
+        return true;
+    }
+
+    /**
+     * Take in remote inputs and roll back if any prediction was wrong,
+     * without simulating a new tick.
+     */
+    public void poll() {
+        transport.poll(this);
+
+        if (rollbackTo < currentTick) {
+            rollBack();
+        }
+        rollbackTo = Integer.MAX_VALUE;
+        reportConfirmedEvents();
+    }
+
+    private void rollBack() {
+        int from = rollbackTo;
+        int ticks = currentTick - from;
+        rollbacks++;
+        resimulatedTicks += ticks;
+        maxRollbackTicks = Math.max(maxRollbackTicks, ticks);
+
+        ByteBuffer snapshot = snapshots[slot(from)];
+        snapshot.rewind();
+        sim.restoreState(snapshot);
+
+        resimulating = true;
+        for (int tick = from; tick < currentTick; tick++) {
+            simulateTick(tick);
+        }
+        resimulating = false;
+    }
+
+    private void simulateTick(int tick) {
+        int slot = slot(tick);
+        simulatingTick = tick;
+
+        // what this tick and later ones reported before is about to be redone
+        while (!pendingEvents.isEmpty() && pendingEvents.peekLast().tick >= tick) {
+            pendingEvents.pollLast();
+        }
+
+        ByteBuffer snapshot = snapshots[slot];
+        snapshot.clear();
+        sim.saveState(snapshot);
+        snapshot.flip();
+
+        int bits = 0;
+        for (int seat = 0; seat < seatCount; seat++) {
+            if (inputTick[seat][slot] != tick) {
+                // not confirmed yet: repeat the newest input we know
+                inputs[seat][slot] = latestInput(seat, tick);
+            }
+            bits |= NetProtocol.toKeyBits(sim, seat, inputs[seat][slot]);
+        }
+        sim.setInputBits(bits);
+        sim.update();
+    }
+
+    /**
+     * Hand the listener the goals and match ends of ticks that can no
+     * longer change.
+     */
+    private void reportConfirmedEvents() {
+        int confirmed = getConfirmedTick();
+        while (!pendingEvents.isEmpty() && pendingEvents.peekFirst().tick < confirmed) {
+            Event event = pendingEvents.pollFirst();
+            if (event.side != null) {
+                listener.onGoal(event.side);
+            } else {
+                listener.onMatchFinished(event.scoreName, event.score);
+            }
+        }
+    }
+
+    private int latestInput(int seat, int beforeTick) {
+        int last = Math.min(confirmedUpTo[seat], beforeTick - 1);
+        if (last < 0 || last <= beforeTick - historySize) return 0;
+        return inputs[seat][slot(last)];
+    }
+
+    private int oldestConfirmedRemoteTick() {
+        int oldest = Integer.MAX_VALUE;
+        for (int seat = 0; seat < seatCount; seat++) {
+            if (seat != localSeat) {
+                oldest = Math.min(oldest, confirmedUpTo[seat]);
+            }
+        }
+        return oldest;
+    }
+
+    private int slot(int tick) {
+        return tick % historySize;
+    }
+
+    // ==================== Input exchange ====================
+
+    private void sendLocalInputs() {
+        int lastTick = confirmedUpTo[localSeat];
+        if (lastTick < 0) return;
+
+        // resend everything the slowest peer may still be missing
+        int count = Math.min(lastTick + 1, Math.min(historySize, RollbackTransport.MAX_TICKS_PER_MESSAGE));
+        long packed = 0;
+        for (int i = 0; i < count; i++) {
+            packed |= (long) (inputs[localSeat][slot(lastTick - i)] & 3) << (2 * i);
+        }
+        transport.sendInputs(localSeat, lastTick, count, packed);
+    }
+
+    @Override
+    public void onInputs(int seat, int lastTick, int count, long packedBits) {
+        if (seat < 0 || seat >= seatCount || seat == localSeat) return;
+
+        // oldest first, so confirmedUpTo can move forward as we go
+        for (int i = count - 1; i >= 0; i--) {
+            int tick = lastTick - i;
+            if (tick <= confirmedUpTo[seat]) continue;
+            if (tick < currentTick - historySize + 1) continue;      // too old to matter
+            if (tick > currentTick + maxPredictionTicks) continue;   // peer is far ahead; it will resend
+
+            int slot = slot(tick);
+            int bits = (int) (packedBits >>> (2 * i)) & 3;
+            if (tick < currentTick && inputs[seat][slot] != bits) {
+                rollbackTo = Math.min(rollbackTo, tick);
+            }
+            inputs[seat][slot] = bits;
+            inputTick[seat][slot] = tick;
+
+            while (confirmedUpTo[seat] + 1 <= currentTick + maxPredictionTicks
+                    && inputTick[seat][slot(confirmedUpTo[seat] + 1)] == confirmedUpTo[seat] + 1) {
+                confirmedUpTo[seat]++;
+            }
+        }
+    }
+
+    /**
+     * Copy the state at the start of the given tick, if it is still in
+     * the history (or the current tick), for desync checks.
+     *
+     * @return false if that tick is no longer available
+     */
+    public boolean saveStateAt(int tick, ByteBuffer out) {
+        if (tick == currentTick) {
+            sim.saveState(out);
+            return true;
+        }
+        if (tick > currentTick || tick <= currentTick - historySize) {
+            return false;
+        }
+        ByteBuffer snapshot = snapshots[slot(tick)];
+        snapshot.rewind();
+        out.put(snapshot);
+        snapshot.rewind();
+        return true;
+    }
+
+    /**
+     * Every tick before this one has confirmed inputs from all players,
+     * so its state can no longer change.
+     */
+    public int getConfirmedTick() {
+        int oldest = Math.min(oldestConfirmedRemoteTick(), confirmedUpTo[localSeat]);
+        return Math.min(oldest + 1, currentTick);
+    }
+
+    // ==================== Stats ====================
+
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    public long getResimulatedTicks() {
+        return resimulatedTicks;
+    }
+
+    public long getStalls() {
+        return stalls;
+    }
+
+    public int getMaxRollbackTicks() {
+        return maxRollbackTicks;
+    }
+
+    // ==================== GameSimulation.Listener ====================
+
+    @Override
+    public void onPaddleHit() {
+        if (!resimulating) listener.onPaddleHit();
+    }
+
+    @Override
+    public void onGoal(GameSimulation.Side side) {
+        pendingEvents.addLast(new Event(simulatingTick, side, null, 0));
+    }
+
+    @Override
+    public void onMatchFinished(String scoreName, int score) {
+        pendingEvents.addLast(new Event(simulatingTick, null, scoreName, score));
+    }
+}
@@ -0,0 +1,35 @@
+package com.cs304.airhockey;
+
+/**
+ * How rollback peers exchange inputs. Each message carries the last
+ * few ticks of one seat's input, so a lost message is covered by the
+ * next one and no acks are needed.
+ *
+ * <p>Inputs are packed two bits per tick (NetProtocol.INPUT_PLUS /
+ * INPUT_MINUS): the bits for tick (lastTick - i) are at bit 2 * i.
+ *
+ * <p>{@link LoopbackNetwork} is the only implementation; there is no
+ * socket transport yet.
+ */
+public interface RollbackTransport {
+
+    int MAX_TICKS_PER_MESSAGE = 32;
+
+    /**
+     * Receives input messages from other peers.
+     */
+    interface Receiver {
+        void onInputs(int seat, int lastTick, int count, long packedBits);
+    }
+
+    /**
+     * Send a seat's inputs for ticks lastTick - count + 1 .. lastTick
+     * to every other peer. May drop or delay the message.
+     */
+    void sendInputs(int seat, int lastTick, int count, long packedBits);
+
+    /**
+     * Hand every message that has arrived to the receiver.
+     */
+    void poll(Receiver receiver);
+}
@@ -1,90 +1,101 @@
 package com.cs304.airhockey;
 
-import com.jogamp.opengl.util.awt.TextRenderer;
-import java.awt.geom.Rectangle2D;
+import com.jogamp.opengl.GL2;
+import java.awt.Font;
 
 /**
  * Settings screen: currently only sound on/off,
  * styled as a big glowing toggle.
+ * Every string is drawn into a texture once and only tinted per frame.
  */
 public class SettingsScreen {
 
-    public void draw(TextRenderer r, int w, int h) {
+    private static final String TITLE = "Settings";
+    private static final String LABEL = "Sound";
+    private static final String ON = "ON";
+    private static final String OFF = "OFF";
+    private static final String HINT = "Press ENTER / SPACE to toggle sound · ESC to go back";
+    private static final String TIP = "Tip: turn sound OFF if your laptop is in the lab 😅";
+
+    // CachedText slots; ON and OFF each keep their own, so toggling redraws nothing
+    private static final int TEXT_TITLE = 0;
+    private static final int TEXT_LABEL = 1;
+    private static final int TEXT_ON = 2;
+    private static final int TEXT_OFF = 3;
+    private static final int TEXT_HINT = 4;
+    private static final int TEXT_TIP = 5;
+
+    private final CachedText text = new CachedText(6);
+
+    /**
+     * The GL context was (re)created: the text textures are gone.
+     */
+    public void onGraphicsReset() {
+        text.reset();
+    }
+
+    public void disposeGraphics(GL2 gl) {
+        text.dispose(gl);
+    }
+
+    public void draw(GL2 gl, Font font, int w, int h) {
         int centerX = w / 2;
 
         double t = System.nanoTime() / 1_000_000_000.0;
         float pulse = 0.6f + 0.4f * (float) Math.sin(t * 2.2);
 
+        text.begin(gl, font, w, h);
+
         // ===== Title =====
-        String title = "Settings";
-        Rectangle2D tb = r.getBounds(title);
-        int titleX = centerX - (int) (tb.getWidth() / 2);
+        int titleX = centerX - text.width(TEXT_TITLE, TITLE) / 2;
         int titleY = h - 120;
 
-        r.setColor(0f, 0f, 0f, 0.8f);
-        r.draw(title, titleX + 5, titleY - 5);
-
-        r.setColor(0.5f, 0.9f, 1.0f, 1f);
-        r.draw(title, titleX, titleY);
+        text.draw(TEXT_TITLE, TITLE, titleX + 5, titleY - 5, 0f, 0f, 0f, 0.8f);
+        text.draw(TEXT_TITLE, TITLE, titleX, titleY, 0.5f, 0.9f, 1.0f, 1f);
 
         // ===== Sound toggle =====
         boolean soundOn = SoundManager.getInstance().isSoundEnabled();
-        String label = "Sound";
-        String status = soundOn ? "ON" : "OFF";
 
         int baseY = h / 2 + 10;
 
         // label
-        Rectangle2D lb = r.getBounds(label);
         int labelX = centerX - 250;
         int labelY = baseY + 30;
 
-        r.setColor(0f, 0f, 0f, 0.7f);
-        r.draw(label, labelX + 3, labelY - 3);
-        r.setColor(0.9f, 0.9f, 0.98f, 1f);
-        r.draw(label, labelX, labelY);
+        text.draw(TEXT_LABEL, LABEL, labelX + 3, labelY - 3, 0f, 0f, 0f, 0.7f);
+        text.draw(TEXT_LABEL, LABEL, labelX, labelY, 0.9f, 0.9f, 0.98f, 1f);
 
         // status big text
-        Rectangle2D sb = r.getBounds(status);
         int statusX = centerX + 40;
         int statusY = baseY + 35;
 
         if (soundOn) {
-            r.setColor(0f, 0f, 0f, 0.7f);
-            r.draw(status, statusX + 4, statusY - 4);
-            r.setColor(0.2f, 1.0f * pulse, 0.4f + 0.2f * pulse, 1f);
-            r.draw(status, statusX, statusY);
+            text.draw(TEXT_ON, ON, statusX + 4, statusY - 4, 0f, 0f, 0f, 0.7f);
+            text.draw(TEXT_ON, ON, statusX, statusY, 0.2f, 1.0f * pulse, 0.4f + 0.2f * pulse, 1f);
         } else {
-            r.setColor(0f, 0f, 0f, 0.7f);
-            r.draw(status, statusX + 4, statusY - 4);
-            r.setColor(1.0f, 0.3f + 0.2f * (1 - pulse), 0.3f, 1f);
-            r.draw(status, statusX, statusY);
+            text.draw(TEXT_OFF, OFF, statusX + 4, statusY - 4, 0f, 0f, 0f, 0.7f);
+            text.draw(TEXT_OFF, OFF, statusX, statusY, 1.0f, 0.3f + 0.2f * (1 - pulse), 0.3f, 1f);
         }
 
         // hint under toggle
-        String hint = "Press ENTER / SPACE to toggle sound · ESC to go back";
-        Rectangle2D hb = r.getBounds(hint);
-        int hintX = centerX - (int) (hb.getWidth() / 2);
+        int hintX = centerX - text.width(TEXT_HINT, HINT) / 2;
         int hintY = baseY - 20;
 
-        r.setColor(0f, 0f, 0f, 0.6f);
-        r.draw(hint, hintX + 2, hintY - 2);
-        r.setColor(0.8f, 0.85f, 0.96f, 1f);
-        r.draw(hint, hintX, hintY);
+        text.draw(TEXT_HINT, HINT, hintX + 2, hintY - 2, 0f, 0f, 0f, 0.6f);
+        text.draw(TEXT_HINT, HINT, hintX, hintY, 0.8f, 0.85f, 0.96f, 1f);
 
         // bottom tip with animated color
-        String tip = "Tip: turn sound OFF if your laptop is in the lab 😅";
-        Rectangle2D tb2 = r.getBounds(tip);
-        int tipX = centerX - (int) (tb2.getWidth() / 2);
+        int tipX = centerX - text.width(TEXT_TIP, TIP) / 2;
 
         float tipGlow = 0.4f + 0.6f * (float) Math.abs(Math.sin(t * 1.4));
 
-        r.setColor(0f, 0f, 0f, 0.6f);
-        r.draw(tip, tipX + 2, 50);
-        r.setColor(0.6f + 0.4f * tipGlow,
+        text.draw(TEXT_TIP, TIP, tipX + 2, 50, 0f, 0f, 0f, 0.6f);
+        text.draw(TEXT_TIP, TIP, tipX, 53,
+                0.6f + 0.4f * tipGlow,
                 0.8f + 0.2f * tipGlow,
                 1.0f,
                 1f);
-        r.draw(tip, tipX, 53);
+
+        text.end();
     }
 }
@@ -0,0 +1,416 @@
+package com.cs304.airhockey;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Collects a frame's flat-coloured shapes into one vertex buffer and draws
+ * them with a few glDrawArrays calls, instead of a glBegin/glEnd block and
+ * a JNI call per vertex for every shape.
+ *
+ * <p>Shapes are written straight into the mapped buffer between begin()
+ * and end(). Filled shapes become triangles and outlines become line
+ * segments; each change between the two (or of line width) starts a new
+ * draw call, so drawing order is kept. Colours are per vertex, so colour
+ * changes cost nothing. If the buffer fills up mid-frame it is drawn and
+ * started again. Where the driver will not map the buffer, shapes are
+ * written to a copy in client memory and uploaded with glBufferSubData.
+ *
+ * <p>A retained batch keeps its shapes on the GPU instead: they are
+ * written once, between begin() and end(), and drawn every frame by
+ * draw(), which can also give the "tinted" shapes a new colour.
+ */
+public class ShapeBatch implements ShapeRenderer {
+
+    // x, y as floats, then r, g, b, a as bytes
+    private static final int VERTEX_BYTES = 12;
+    private static final int COLOR_OFFSET = 8;
+    private static final int MAX_RUNS = 64;
+
+    private final int maxVertices;
+    private final boolean retained;
+    private int vbo = 0;
+    private boolean mapRange;
+    private boolean mapFailed = false;      // logged once, then the copy is used quietly
+    private ByteBuffer copy;                // client-side vertices when mapping fails
+    private boolean built = false;          // retained shapes are uploaded
+
+    // ----- the frame being written -----
+    private GL2 gl;
+    private ByteBuffer vertices;            // mapped or the copy, null outside begin()/end()
+    private boolean mapped;                 // vertices is the mapped buffer
+    private int vertexCount;
+    private final int[] runMode = new int[MAX_RUNS];
+    private final int[] runFirst = new int[MAX_RUNS];
+    private final float[] runLineWidth = new float[MAX_RUNS];
+    private final boolean[] runTinted = new boolean[MAX_RUNS];
+    private int runCount;
+    private float lineWidth = 1;
+    private boolean tinted = false;
+    private float tintRed = 1;
+    private float tintGreen = 1;
+    private float tintBlue = 1;
+    private byte red;
+    private byte green;
+    private byte blue;
+    private byte alpha = (byte) 0xFF;
+
+    // unit circles by segment count, so shapes need no sin/cos per frame
+    private final float[][] circleCos = new float[129][];
+    private final float[][] circleSin = new float[129][];
+
+    // ----- stats -----
+    private int drawCalls;
+    private int frameDrawCalls;
+
+    /**
+     * @param maxVertices vertices drawn per call at most; more is fine,
+     *                    they just take another round trip
+     */
+    public ShapeBatch(int maxVertices) {
+        this(maxVertices, false);
+    }
+
+    /**
+     * @param retained keep the shapes on the GPU and draw them with draw();
+     *                 they must fit in maxVertices
+     */
+    public ShapeBatch(int maxVertices, boolean retained) {
+        this.maxVertices = Math.max(maxVertices, 6);
+        this.retained = retained;
+    }
+
+    /**
+     * Start a frame's shapes, or a retained batch's new shapes. Uses the
+     * current modelview and projection.
+     */
+    public void begin(GL2 gl) {
+        this.gl = gl;
+        if (vbo == 0) {
+            int[] ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            vbo = ids[0];
+            mapRange = gl.isFunctionAvailable("glMapBufferRange");
+        }
+        drawCalls = 0;
+        map();
+    }
+
+    /**
+     * Draw everything since begin(); a retained batch only uploads it.
+     */
+    public void end() {
+        unmap();
+        if (retained) {
+            built = true;
+        } else {
+            drawRuns();
+        }
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        frameDrawCalls = drawCalls;
+        gl = null;
+    }
+
+    /**
+     * Draw a retained batch's shapes, the tinted ones in this colour.
+     */
+    public void draw(GL2 gl, float r, float g, float b) {
+        if (!built) {
+            throw new IllegalStateException("Nothing retained to draw");
+        }
+        this.gl = gl;
+        tintRed = r;
+        tintGreen = g;
+        tintBlue = b;
+        drawCalls = 0;
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+        drawRuns();
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        frameDrawCalls = drawCalls;
+        this.gl = null;
+    }
+
+    /**
+     * True once a retained batch has shapes to draw.
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * The retained shapes must be written again before the next draw().
+     */
+    public void invalidate() {
+        built = false;
+    }
+
+    /**
+     * The GL context was replaced: forget the buffer, which went with it.
+     */
+    public void reset() {
+        vbo = 0;
+        built = false;
+    }
+
+    public void dispose(GL2 gl) {
+        if (vbo != 0) {
+            gl.glDeleteBuffers(1, new int[]{vbo}, 0);
+            vbo = 0;
+        }
+        built = false;
+    }
+
+    /**
+     * Draw calls the last frame took.
+     */
+    public int getDrawCalls() {
+        return frameDrawCalls;
+    }
+
+    // ==================== State ====================
+
+    @Override
+    public void color(float r, float g, float b) {
+        color(r, g, b, 1f);
+    }
+
+    public void color(float r, float g, float b, float a) {
+        red = toByte(r);
+        green = toByte(g);
+        blue = toByte(b);
+        alpha = toByte(a);
+    }
+
+    /**
+     * Width of the lines that follow, in pixels.
+     */
+    public void lineWidth(float width) {
+        lineWidth = width;
+    }
+
+    /**
+     * Whether the shapes that follow ignore color() and take the tint
+     * passed to draw() instead (retained batches only).
+     */
+    public void tinted(boolean tinted) {
+        this.tinted = tinted;
+    }
+
+    private static byte toByte(float c) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, c)) * 255f);
+    }
+
+    // ==================== Shapes ====================
+
+    @Override
+    public void fillRect(double x1, double y1, double x2, double y2) {
+        reserve(GL.GL_TRIANGLES, 6);
+        quad(x1, y1, x2, y2);
+    }
+
+    /**
+     * Rectangle fading from one colour at the top to another at the
+     * bottom. Leaves the current colour at the bottom one.
+     */
+    public void verticalGradient(double x1, double y1, double x2, double y2,
+                                 float rTop, float gTop, float bTop,
+                                 float rBottom, float gBottom, float bBottom) {
+        reserve(GL.GL_TRIANGLES, 6);
+        double bottom = Math.min(y1, y2);
+        double top = Math.max(y1, y2);
+        color(rBottom, gBottom, bBottom);
+        vertex(x1, bottom);
+        vertex(x2, bottom);
+        color(rTop, gTop, bTop);
+        vertex(x2, top);
+        vertex(x2, top);
+        vertex(x1, top);
+        color(rBottom, gBottom, bBottom);
+        vertex(x1, bottom);
+    }
+
+    @Override
+    public void fillCircle(double cx, double cy, double r, int segments) {
+        float[] cos = cos(segments);
+        float[] sin = circleSin[segments];
+        reserve(GL.GL_TRIANGLES, 3 * segments);
+        for (int i = 0; i < segments; i++) {
+            vertex(cx, cy);
+            vertex(cx + r * cos[i], cy + r * sin[i]);
+            vertex(cx + r * cos[i + 1], cy + r * sin[i + 1]);
+        }
+    }
+
+    public void line(double x1, double y1, double x2, double y2) {
+        reserve(GL.GL_LINES, 2);
+        vertex(x1, y1);
+        vertex(x2, y2);
+    }
+
+    public void rectOutline(double x1, double y1, double x2, double y2) {
+        line(x1, y1, x2, y1);
+        line(x2, y1, x2, y2);
+        line(x2, y2, x1, y2);
+        line(x1, y2, x1, y1);
+    }
+
+    public void circleOutline(double cx, double cy, double r, int segments) {
+        float[] cos = cos(segments);
+        float[] sin = circleSin[segments];
+        reserve(GL.GL_LINES, 2 * segments);
+        for (int i = 0; i < segments; i++) {
+            vertex(cx + r * cos[i], cy + r * sin[i]);
+            vertex(cx + r * cos[i + 1], cy + r * sin[i + 1]);
+        }
+    }
+
+    private void quad(double x1, double y1, double x2, double y2) {
+        vertex(x1, y1);
+        vertex(x2, y1);
+        vertex(x2, y2);
+        vertex(x2, y2);
+        vertex(x1, y2);
+        vertex(x1, y1);
+    }
+
+    private float[] cos(int segments) {
+        if (segments < 3 || segments >= circleCos.length) {
+            throw new IllegalArgumentException("Segments: " + segments);
+        }
+        if (circleCos[segments] == null) {
+            float[] cos = new float[segments + 1];
+            float[] sin = new float[segments + 1];
+            for (int i = 0; i <= segments; i++) {
+                double t = 2.0 * Math.PI * (i % segments) / segments;
+                cos[i] = (float) Math.cos(t);
+                sin[i] = (float) Math.sin(t);
+            }
+            circleCos[segments] = cos;
+            circleSin[segments] = sin;
+        }
+        return circleCos[segments];
+    }
+
+    // ==================== Buffer ====================
+
+    /**
+     * Make room for count vertices of this primitive, drawing what is
+     * already written if it does not fit.
+     */
+    private void reserve(int mode, int count) {
+        if (count > maxVertices) {
+            throw new IllegalArgumentException("Shape too large: " + count + " vertices");
+        }
+        boolean sameRun = runCount > 0 && runMode[runCount - 1] == mode
+                && runTinted[runCount - 1] == tinted
+                && (mode != GL.GL_LINES || runLineWidth[runCount - 1] == lineWidth);
+        if (vertexCount + count > maxVertices || (!sameRun && runCount == MAX_RUNS)) {
+            if (retained) {
+                throw new IllegalStateException("Retained shapes do not fit in " + maxVertices + " vertices");
+            }
+            unmap();
+            drawRuns();
+            map();
+            sameRun = false;
+        }
+        if (!sameRun) {
+            runMode[runCount] = mode;
+            runFirst[runCount] = vertexCount;
+            runLineWidth[runCount] = lineWidth;
+            runTinted[runCount] = tinted;
+            runCount++;
+        }
+        vertexCount += count;
+    }
+
+    private void vertex(double x, double y) {
+        vertices.putFloat((float) x);
+        vertices.putFloat((float) y);
+        vertices.put(red);
+        vertices.put(green);
+        vertices.put(blue);
+        vertices.put(alpha);
+    }
+
+    /**
+     * Orphan the buffer's old storage, so the driver need not wait for the
+     * GPU to finish with it, and map the new one for writing. If it cannot
+     * be mapped (glMapBuffer returns null), write to the copy instead.
+     */
+    private void map() {
+        long bytes = (long) maxVertices * VERTEX_BYTES;
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, bytes, null, retained ? GL.GL_STATIC_DRAW : GL2.GL_STREAM_DRAW);
+        ByteBuffer mapped = mapRange
+                ? gl.glMapBufferRange(GL.GL_ARRAY_BUFFER, 0, bytes,
+                GL.GL_MAP_WRITE_BIT | GL.GL_MAP_INVALIDATE_BUFFER_BIT)
+                : gl.glMapBuffer(GL.GL_ARRAY_BUFFER, GL.GL_WRITE_ONLY);
+        if (mapped != null) {
+            vertices = mapped.order(ByteOrder.nativeOrder());
+            this.mapped = true;
+        } else {
+            if (!mapFailed) {
+                mapFailed = true;
+                System.err.println("[Render] Could not map the vertex buffer - uploading with glBufferSubData");
+            }
+            if (copy == null) {
+                copy = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+            }
+            vertices = copy;
+            this.mapped = false;
+        }
+        vertices.clear();
+        vertexCount = 0;
+        runCount = 0;
+    }
+
+    private void unmap() {
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+        if (mapped) {
+            gl.glUnmapBuffer(GL.GL_ARRAY_BUFFER);
+        } else {
+            vertices.flip();
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, vertices.remaining(), vertices);
+        }
+        vertices = null;
+    }
+
+    /**
+     * Draw the runs from the bound buffer.
+     */
+    private void drawRuns() {
+        if (vertexCount == 0) return;
+
+        gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+        gl.glVertexPointer(2, GL.GL_FLOAT, VERTEX_BYTES, 0);
+        gl.glColorPointer(4, GL.GL_UNSIGNED_BYTE, VERTEX_BYTES, COLOR_OFFSET);
+        boolean colorArray = false;
+        for (int run = 0; run < runCount; run++) {
+            if (run == 0 || runTinted[run] == colorArray) {
+                if (!runTinted[run]) {
+                    gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+                } else {
+                    if (colorArray) {
+                        gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+                    }
+                    gl.glColor3f(tintRed, tintGreen, tintBlue);
+                }
+                colorArray = !runTinted[run];
+            }
+            if (runMode[run] == GL.GL_LINES) {
+                gl.glLineWidth(runLineWidth[run]);
+            }
+            int end = run + 1 < runCount ? runFirst[run + 1] : vertexCount;
+            gl.glDrawArrays(runMode[run], runFirst[run], end - runFirst[run]);
+            drawCalls++;
+        }
+        if (colorArray) {
+            gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+        }
+        gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+    }
+}
@@ -0,0 +1,22 @@
+package com.cs304.airhockey;
+
+/**
+ * Where GameWorld draws paddles and pucks: a {@link ShapeBatch} on the
+ * fixed-function pipeline, or {@link InstancedShapes} where shaders and
+ * instancing are available.
+ */
+public interface ShapeRenderer {
+
+    /**
+     * Colour of the shapes that follow.
+     */
+    void color(float r, float g, float b);
+
+    void fillRect(double x1, double y1, double x2, double y2);
+
+    /**
+     * @param segments edges of the polygon standing in for the circle,
+     *                 where it is not drawn exactly
+     */
+    void fillCircle(double cx, double cy, double r, int segments);
+}
@@ -0,0 +1,66 @@
+package com.cs304.airhockey;
+
+/**
+ * Small seeded random generator (SplitMix64) owned by one simulation.
+ * Unlike Math.random() it is not shared between threads, so many worlds
+ * can run in parallel without contention, and the same seed always
+ * gives the same sequence. The whole state is one long, so it can be
+ * saved and restored with a match.
+ */
+public class SimRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private long state;
+
+    public SimRandom(long seed) {
+        this.state = seed;
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * Uniform in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    /**
+     * A new generator whose sequence is independent of this one.
+     * This one advances, so repeated splits give different children.
+     */
+    public SimRandom split() {
+        return new SimRandom(nextLong());
+    }
+
+    /**
+     * Seed for the index-th child of a base seed, without stepping
+     * through the ones before it (e.g. per-match seeds of a batch).
+     */
+    public static long seedFor(long baseSeed, long index) {
+        return mix64(baseSeed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,103 @@
+package com.cs304.airhockey;
+
+/**
+ * Fixed-rate simulation clock.
+ * Real elapsed time is collected in an accumulator and handed out
+ * as whole ticks, so the game runs at the same speed no matter how
+ * often the screen is redrawn.
+ */
+public class SimulationClock {
+
+    private final int tickRate;
+    private final long tickNanos;
+    private final int maxTicksPerAdvance;
+
+    private long lastNanos;
+    private long accumulatorNanos;
+    private boolean started = false;
+
+    // how many ticks were thrown away because we fell too far behind
+    private long droppedTicks = 0;
+
+    /**
+     * @param tickRate           simulation ticks per second
+     * @param maxTicksPerAdvance catch-up limit for a single advance() call
+     */
+    public SimulationClock(int tickRate, int maxTicksPerAdvance) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("tickRate must be > 0");
+        }
+        if (maxTicksPerAdvance <= 0) {
+            throw new IllegalArgumentException("maxTicksPerAdvance must be > 0");
+        }
+        this.tickRate = tickRate;
+        this.tickNanos = 1_000_000_000L / tickRate;
+        this.maxTicksPerAdvance = maxTicksPerAdvance;
+    }
+
+    /**
+     * Forget any pending time, e.g. when a match starts or resumes.
+     */
+    public void reset(long nowNanos) {
+        lastNanos = nowNanos;
+        accumulatorNanos = 0;
+        started = true;
+    }
+
+    /**
+     * Add the time since the previous call and return how many ticks
+     * should be simulated now (never more than the catch-up limit).
+     */
+    public int advance(long nowNanos) {
+        if (!started) {
+            reset(nowNanos);
+            return 0;
+        }
+
+        long elapsed = nowNanos - lastNanos;
+        lastNanos = nowNanos;
+        if (elapsed < 0) {
+            elapsed = 0;
+        }
+        accumulatorNanos += elapsed;
+
+        long due = accumulatorNanos / tickNanos;
+        if (due > maxTicksPerAdvance) {
+            // too far behind (slow frame, debugger, window drag):
+            // drop the extra time instead of spiralling
+            droppedTicks += due - maxTicksPerAdvance;
+            due = maxTicksPerAdvance;
+            accumulatorNanos = due * tickNanos;
+        }
+        accumulatorNanos -= due * tickNanos;
+        return (int) due;
+    }
+
+    /**
+     * Fraction (0..1) of the next tick that has already elapsed.
+     * Useful for interpolating between the last two simulated states.
+     */
+    public double getAlpha() {
+        return (double) accumulatorNanos / tickNanos;
+    }
+
+    /**
+     * Time collected towards the next tick. The last tick handed out by
+     * advance() fell due this long before the time passed to it.
+     */
+    public long getPendingNanos() {
+        return accumulatorNanos;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+}
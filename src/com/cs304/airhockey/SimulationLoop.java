@@ -0,0 +1,122 @@
+package com.cs304.airhockey;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a game's fixed ticks on a thread of its own, so a slow frame never
+ * stalls the physics and a burst of catch-up ticks never stalls a frame.
+ *
+ * <p>Other threads talk to the game only through {@link #post(Runnable)}:
+ * commands are queued without locks and run on the loop thread before the
+ * next tick. Results come back the same way the ticks do, through whatever
+ * the ticker publishes (see {@link TripleBuffer}).
+ */
+public class SimulationLoop {
+
+    /**
+     * The game being run. Called on the loop thread only.
+     */
+    public interface Ticker {
+        /**
+         * Run one tick.
+         *
+         * @param dueNanos when the tick fell due, on the System.nanoTime() clock;
+         *                 ticks run late when the loop catches up
+         */
+        void tick(long dueNanos);
+    }
+
+    private final Ticker ticker;
+    private final SimulationClock clock;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+
+    // set by any thread, read by the loop
+    private volatile boolean running = false;
+    private volatile int speed = 1;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param maxTicksPerAdvance catch-up limit after a stall, as for {@link SimulationClock}
+     */
+    public SimulationLoop(String name, int tickRate, int maxTicksPerAdvance, Ticker ticker) {
+        this.ticker = ticker;
+        this.clock = new SimulationClock(tickRate, maxTicksPerAdvance);
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Run this on the loop thread before the next tick. Any thread may call this.
+     */
+    public void post(Runnable command) {
+        commands.add(command);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Tick or hold. Time spent holding is not caught up afterwards.
+     */
+    public void setRunning(boolean running) {
+        if (this.running == running) return;
+        this.running = running;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Run this many ticks per tick period (fast-forward).
+     */
+    public void setSpeed(int speed) {
+        this.speed = Math.max(1, speed);
+    }
+
+    public long getTickNanos() {
+        return clock.getTickNanos();
+    }
+
+    private void run() {
+        boolean ticking = false;
+        while (!stopped) {
+            Runnable command;
+            while ((command = commands.poll()) != null) {
+                command.run();
+            }
+
+            long now = System.nanoTime();
+            if (!running) {
+                ticking = false;
+                LockSupport.park(this);
+                continue;
+            }
+            if (!ticking) {
+                // don't let time spent held turn into a burst of ticks
+                clock.reset(now);
+                ticking = true;
+            }
+
+            int due = clock.advance(now);
+            long lastDue = now - clock.getPendingNanos();
+            long tickNanos = clock.getTickNanos();
+            int perTick = speed;
+            for (int i = 0; i < due; i++) {
+                long dueNanos = lastDue - (due - 1 - i) * tickNanos;
+                for (int s = 0; s < perTick; s++) {
+                    ticker.tick(dueNanos);
+                }
+            }
+
+            // sleep until the next tick falls due, or a command wakes us
+            LockSupport.parkNanos(this, tickNanos - clock.getPendingNanos());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.cs304.airhockey;
+
+/**
+ * Decides which moment of the server's state stream to draw, so remote
+ * paddles and pucks move smoothly even though states arrive unevenly.
+ *
+ * <p>A state's arrival time minus its tick's place on the server timeline
+ * says how late it came. The fastest arrivals pin down the server clock;
+ * how much later the rest come (the jitter) sets how far behind the newest
+ * state we draw, so the state after the one being drawn has nearly always
+ * arrived and there is something to move toward. The delay grows quickly
+ * when the link gets worse and shrinks slowly when it settles down.
+ */
+public class SnapshotInterpolator {
+
+    // never draw closer to the newest state than this
+    private static final double MIN_DELAY_TICKS = 1.0;
+    // a state this much later than the average is still waited for
+    private static final double JITTER_DEVIATIONS = 3.0;
+
+    // ----- smoothing per state received -----
+    private static final double LATENESS_GAIN = 0.05;
+    private static final double DELAY_GROW_GAIN = 0.2;
+    private static final double DELAY_SHRINK_GAIN = 0.01;
+    // lets the clock follow a server that runs slightly slow, or a longer route
+    private static final double CLOCK_DRIFT_GAIN = 0.001;
+
+    private final double tickNanos;
+    private final double maxDelayTicks;
+
+    private boolean started = false;
+    private double offsetNanos;             // fastest arrival - tick * tickNanos
+    private double lateAvgNanos;
+    private double lateDevNanos;
+    private double delayTicks = MIN_DELAY_TICKS;
+    private double lastRenderTick = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param maxDelayTicks how many ticks of states the caller keeps
+     */
+    public SnapshotInterpolator(int tickRate, double maxDelayTicks) {
+        this.tickNanos = 1e9 / tickRate;
+        this.maxDelayTicks = Math.max(MIN_DELAY_TICKS, maxDelayTicks);
+    }
+
+    /**
+     * Forget the stream (a new match starts).
+     */
+    public void reset() {
+        started = false;
+        delayTicks = MIN_DELAY_TICKS;
+        lastRenderTick = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * A state for the given tick has just arrived.
+     */
+    public void onState(int tick, long arrivalNanos) {
+        double offset = arrivalNanos - tick * tickNanos;
+        if (!started) {
+            started = true;
+            offsetNanos = offset;
+            lateAvgNanos = 0;
+            lateDevNanos = 0;
+        } else if (offset < offsetNanos) {
+            offsetNanos = offset;
+        } else {
+            offsetNanos += (offset - offsetNanos) * CLOCK_DRIFT_GAIN;
+        }
+
+        double late = offset - offsetNanos;
+        lateAvgNanos += (late - lateAvgNanos) * LATENESS_GAIN;
+        lateDevNanos += (Math.abs(late - lateAvgNanos) - lateDevNanos) * LATENESS_GAIN;
+
+        double target = MIN_DELAY_TICKS + (lateAvgNanos + JITTER_DEVIATIONS * lateDevNanos) / tickNanos;
+        target = Math.min(target, maxDelayTicks);
+        delayTicks += (target - delayTicks) * (target > delayTicks ? DELAY_GROW_GAIN : DELAY_SHRINK_GAIN);
+    }
+
+    /**
+     * The (fractional) server tick to draw now, never earlier than the one
+     * returned last time, or -1 before any state has arrived.
+     */
+    public double renderTick(long nowNanos) {
+        if (!started) return -1;
+        double tick = (nowNanos - offsetNanos) / tickNanos - delayTicks;
+        if (tick < lastRenderTick) {
+            // the delay just grew: hold still rather than run backwards
+            tick = lastRenderTick;
+        }
+        lastRenderTick = tick;
+        return tick;
+    }
+
+    /**
+     * How far behind the newest states remote objects are drawn.
+     */
+    public double getDelayMillis() {
+        return delayTicks * tickNanos / 1e6;
+    }
+}
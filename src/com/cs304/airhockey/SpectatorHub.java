@@ -0,0 +1,372 @@
+package com.cs304.airhockey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends live matches to spectators from its own thread and selector, so
+ * the thread running the matches only pays for encoding each state once,
+ * however many people are watching.
+ *
+ * <p>A watched match publishes every STATE frame (a delta against the
+ * previous tick) to its {@link Feed}, plus a keyframe every
+ * {@link #KEYFRAME_INTERVAL_TICKS}. Frames are linked into a list that
+ * every spectator walks; the same buffer is written to all of them.
+ *
+ * <p>A spectator whose socket cannot keep up skips frames. After that it
+ * is only sent keyframes, and only once everything queued for it has been
+ * written, until it catches up again. Slow spectators never hold up the
+ * match or other spectators.
+ */
+public class SpectatorHub {
+
+    // a spectator that falls behind waits at most this long for a keyframe
+    static final int KEYFRAME_INTERVAL_TICKS = 30;
+
+    // frames queued per spectator before it starts skipping
+    private static final int MAX_QUEUED_FRAMES = 16;
+
+    // a small socket buffer, so a slow spectator is noticed after a few
+    // frames instead of after seconds of stale state piling up in the kernel
+    private static final int SEND_BUFFER_BYTES = 16 * 1024;
+
+    private static final long STATS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // handed over by the server's selector thread, registered by ours
+    private final ConcurrentLinkedQueue<Spectator> added = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final List<Spectator> spectators = new ArrayList<>();
+
+    // scratch for gathering writes
+    private final ByteBuffer[] writeScratch = new ByteBuffer[MAX_QUEUED_FRAMES + 1];
+    private final ByteBuffer readScratch = ByteBuffer.allocate(1024);
+
+    // ----- stats (hub thread) -----
+    private long statsStartNanos;
+    private long statsBytesWritten;
+    private long statsFramesSkipped;
+    private long statsResyncs;
+
+    public SpectatorHub() throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "airhockey-spectators");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        statsStartNanos = System.nanoTime();
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Start sending a feed to a connection. Called from the server's
+     * selector thread while the match goes on publishing from its shard,
+     * so the feed may already have ended; the channel must already be
+     * removed from the server's selector.
+     */
+    void add(SocketChannel ch, Feed feed) {
+        feed.viewers.incrementAndGet();
+        added.add(new Spectator(ch, feed));
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    // ==================== Feeds ====================
+
+    /**
+     * One published frame. Never changed after publishing except for
+     * position, which only the hub thread touches (and puts back to 0).
+     */
+    private static final class Frame {
+        final int tick;
+        final ByteBuffer delta;        // follows the frame before it
+        final ByteBuffer keyframe;     // null, or a stand-alone STATE frame
+        final boolean end;
+        volatile Frame next;
+
+        Frame(int tick, ByteBuffer delta, ByteBuffer keyframe, boolean end) {
+            this.tick = tick;
+            this.delta = delta;
+            this.keyframe = keyframe;
+            this.end = end;
+        }
+    }
+
+    /**
+     * The frames of one watched match. Only the match thread publishes.
+     */
+    final class Feed {
+        private final ByteBuffer welcome;
+        private volatile Frame latest;
+        private final AtomicInteger viewers = new AtomicInteger();
+
+        /**
+         * @param welcome the WELCOME frame every spectator gets first
+         */
+        Feed(ByteBuffer welcome) {
+            this.welcome = welcome;
+            this.latest = new Frame(-1, null, null, false);
+        }
+
+        int getViewers() {
+            return viewers.get();
+        }
+
+        /**
+         * @param keyframe null except every KEYFRAME_INTERVAL_TICKS
+         */
+        void publish(int tick, ByteBuffer delta, ByteBuffer keyframe) {
+            append(new Frame(tick, delta, keyframe, false));
+        }
+
+        /**
+         * Publish the END frame; spectators are closed after it.
+         */
+        void end(ByteBuffer endFrame) {
+            append(new Frame(Integer.MAX_VALUE, endFrame, endFrame, true));
+        }
+
+        private void append(Frame frame) {
+            Frame last = latest;
+            last.next = frame;
+            latest = frame;
+            if (viewers.get() > 0) {
+                wakeUp();
+            }
+        }
+    }
+
+    // ==================== Hub thread ====================
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(1000);
+                wakeupPending.set(false);
+
+                Spectator s;
+                while ((s = added.poll()) != null) {
+                    try {
+                        s.ch.socket().setSendBufferSize(SEND_BUFFER_BYTES);
+                        s.key = s.ch.register(selector, SelectionKey.OP_READ, s);
+                        spectators.add(s);
+                    } catch (IOException ex) {
+                        s.close();
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Spectator spectator = (Spectator) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        spectator.discardInput();
+                    }
+                }
+
+                fanOut();
+                printStatsIfDue();
+            }
+        } catch (IOException ex) {
+            System.err.println("[Spectators] Selector failed: " + ex.getMessage());
+        } finally {
+            for (Spectator s : spectators) {
+                s.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void fanOut() {
+        for (int i = spectators.size() - 1; i >= 0; i--) {
+            Spectator s = spectators.get(i);
+            if (!s.closed) {
+                s.takeNewFrames();
+                s.flush();
+            }
+            if (s.closed) {
+                // swap-remove, order does not matter
+                int last = spectators.size() - 1;
+                spectators.set(i, spectators.get(last));
+                spectators.remove(last);
+            }
+        }
+    }
+
+    private void printStatsIfDue() {
+        long now = System.nanoTime();
+        if (now - statsStartNanos < STATS_INTERVAL_NANOS) return;
+        if (!spectators.isEmpty() || statsBytesWritten > 0) {
+            double seconds = (now - statsStartNanos) / 1e9;
+            System.out.printf("[Spectators] %d watching | %.1f KB/s out, %d frames skipped,"
+                            + " %d keyframe resyncs%n",
+                    spectators.size(), statsBytesWritten / seconds / 1e3,
+                    statsFramesSkipped, statsResyncs);
+        }
+        statsStartNanos = now;
+        statsBytesWritten = 0;
+        statsFramesSkipped = 0;
+        statsResyncs = 0;
+    }
+
+    /**
+     * One spectator connection.
+     */
+    private class Spectator {
+        private final SocketChannel ch;
+        private final Feed feed;
+        private SelectionKey key;
+
+        // ----- frames to write, shared with every other spectator -----
+        private final ByteBuffer[] queue = new ByteBuffer[MAX_QUEUED_FRAMES + 1];
+        private int queueHead = 0;
+        private int queueSize = 0;
+        private int headOffset = 0;          // bytes of the head frame already written
+
+        private Frame cursor;                // newest frame looked at
+        private int lastQueuedTick = -1;     // deltas only follow this tick
+        private boolean synced = false;      // false until a keyframe, and after skipping
+        private boolean ending = false;
+        private boolean closed = false;
+
+        Spectator(SocketChannel ch, Feed feed) {
+            this.ch = ch;
+            this.feed = feed;
+            // start at the present; the next keyframe brings us in sync
+            this.cursor = feed.latest;
+            enqueue(feed.welcome);
+            if (cursor.end) {
+                // the match ended just before we got here: nothing follows END
+                enqueue(cursor.delta);
+                ending = true;
+            }
+        }
+
+        void takeNewFrames() {
+            Frame frame;
+            while (!ending && (frame = cursor.next) != null) {
+                cursor = frame;
+                if (frame.end) {
+                    enqueue(frame.delta);            // always room for the last one
+                    ending = true;
+                } else if (synced && frame.tick == lastQueuedTick + 1 && queueSize < MAX_QUEUED_FRAMES) {
+                    enqueue(frame.delta);
+                    lastQueuedTick = frame.tick;
+                } else if (frame.keyframe != null && queueSize == 0) {
+                    // caught up with everything queued: (re)sync
+                    if (lastQueuedTick >= 0) statsResyncs++;
+                    enqueue(frame.keyframe);
+                    lastQueuedTick = frame.tick;
+                    synced = true;
+                } else {
+                    if (lastQueuedTick >= 0) statsFramesSkipped++;
+                    synced = false;
+                }
+            }
+        }
+
+        private void enqueue(ByteBuffer frame) {
+            queue[(queueHead + queueSize) % queue.length] = frame;
+            queueSize++;
+        }
+
+        void flush() {
+            if (queueSize > 0) {
+                for (int i = 0; i < queueSize; i++) {
+                    writeScratch[i] = queue[(queueHead + i) % queue.length];
+                }
+                writeScratch[0].position(headOffset);
+                long written;
+                try {
+                    written = ch.write(writeScratch, 0, queueSize);
+                } catch (IOException ex) {
+                    written = -1;
+                } finally {
+                    // the buffers are shared: put them back for the next spectator
+                    for (int i = 0; i < queueSize; i++) {
+                        writeScratch[i].position(0);
+                    }
+                }
+                if (written < 0) {
+                    close();
+                    return;
+                }
+                statsBytesWritten += written;
+
+                // drop what went out completely
+                long left = written + headOffset;
+                while (queueSize > 0 && left >= queue[queueHead].limit()) {
+                    left -= queue[queueHead].limit();
+                    queue[queueHead] = null;
+                    queueHead = (queueHead + 1) % queue.length;
+                    queueSize--;
+                }
+                headOffset = (int) left;
+                Arrays.fill(writeScratch, null);
+            }
+
+            if (queueSize == 0 && ending) {
+                close();
+                return;
+            }
+            key.interestOps(queueSize > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ);
+        }
+
+        /**
+         * Spectators have nothing to say; read only to notice them leaving.
+         */
+        void discardInput() {
+            try {
+                readScratch.clear();
+                if (ch.read(readScratch) < 0) {
+                    close();
+                }
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            feed.viewers.decrementAndGet();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.cs304.airhockey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Delta compression for the match state sent to network clients.
+ *
+ * <p>The state is quantized to ints (GameSimulation.writeNetFields) and
+ * each field is sent as the difference from the same field in a baseline:
+ * the newest state the client has acknowledged, or zeros for a keyframe.
+ * Differences are bit-packed: one bit for "unchanged", otherwise a short
+ * prefix and a 4, 8, 12, 16 or 32-bit zigzag value. A moving puck and a few
+ * paddles usually cost well under 20 bytes.
+ *
+ * <p>Both ends keep the last {@link #HISTORY} states they sent or received,
+ * so any acknowledged state can serve as the baseline.
+ *
+ * <p>Payload: baseline age u8 (ticks back from this state, 0 = keyframe),
+ * then the packed fields, padded to a whole byte.
+ */
+public class StateCodec {
+
+    /**
+     * How many recent states each end keeps; a client whose newest
+     * acknowledgement is older than this gets a keyframe.
+     */
+    public static final int HISTORY = 32;
+
+    private static final int KEYFRAME = 0;
+
+    private static final int[] ZEROS = new int[GameSimulation.MAX_NET_FIELDS];
+
+    // sized for the match on first use: most matches need a few dozen fields
+    private final int[][] fields = new int[HISTORY][];
+    private final int[] fieldCount = new int[HISTORY];
+    private final int[] ticks = new int[HISTORY];
+    private final int[] header = new int[3];
+
+    // ----- bit writer / reader -----
+    private long bitBuffer;
+    private int bitCount;
+
+    public StateCodec() {
+        reset();
+    }
+
+    /**
+     * Forget every stored state (a new match starts).
+     */
+    public void reset() {
+        Arrays.fill(ticks, -1);
+    }
+
+    /**
+     * True if the state for this tick is still stored.
+     */
+    public boolean has(int tick) {
+        return tick >= 0 && ticks[tick % HISTORY] == tick;
+    }
+
+    // ==================== Sending ====================
+
+    /**
+     * Quantize and store the simulation's current state as the given tick.
+     */
+    public void store(int tick, GameSimulation sim) {
+        int slot = tick % HISTORY;
+        fieldCount[slot] = sim.writeNetFields(slotFor(slot, sim.getNetFieldCount()));
+        ticks[slot] = tick;
+    }
+
+    private int[] slotFor(int slot, int count) {
+        if (fields[slot] == null || fields[slot].length < count) {
+            fields[slot] = new int[count];
+        }
+        return fields[slot];
+    }
+
+    /**
+     * Write a stored state as a delta against baseTick, or as a keyframe
+     * if baseTick is not stored any more (or is -1).
+     *
+     * @return bytes written
+     */
+    public int encode(int tick, int baseTick, ByteBuffer out) {
+        int start = out.position();
+        int slot = tick % HISTORY;
+        int[] current = fields[slot];
+        int count = fieldCount[slot];
+
+        int[] base = ZEROS;
+        int age = KEYFRAME;
+        if (baseTick < tick && tick - baseTick < HISTORY && has(baseTick)
+                && fieldCount[baseTick % HISTORY] == count) {
+            base = fields[baseTick % HISTORY];
+            age = tick - baseTick;
+        }
+        out.put((byte) age);
+
+        bitBuffer = 0;
+        bitCount = 0;
+        for (int f = 0; f < count; f++) {
+            writeDelta(out, current[f] - base[f]);
+        }
+        flushBits(out);
+        return out.position() - start;
+    }
+
+    /**
+     * Most bytes encode() can write for a state with this many fields.
+     */
+    public static int maxEncodedSize(int fieldCount) {
+        return 1 + (fieldCount * (5 + 32) + 7) / 8;
+    }
+
+    /**
+     * Size of the full keyframe for a stored tick, for stats.
+     */
+    public int keyframeSize(int tick, ByteBuffer scratch) {
+        scratch.clear();
+        return encode(tick, -1, scratch);
+    }
+
+    private void writeDelta(ByteBuffer out, int delta) {
+        int z = (delta << 1) ^ (delta >> 31);
+        if (z == 0) {
+            writeBits(out, 0, 1);                       // 0: unchanged
+        } else if ((z >>> 4) == 0) {
+            writeBits(out, 0b01, 2);                    // 10: 4 bits
+            writeBits(out, z, 4);
+        } else if ((z >>> 8) == 0) {
+            writeBits(out, 0b011, 3);                   // 110: 8 bits
+            writeBits(out, z, 8);
+        } else if ((z >>> 12) == 0) {
+            writeBits(out, 0b0111, 4);                  // 1110: 12 bits
+            writeBits(out, z, 12);
+        } else if ((z >>> 16) == 0) {
+            writeBits(out, 0b01111, 5);                 // 11110: 16 bits
+            writeBits(out, z, 16);
+        } else {
+            writeBits(out, 0b11111, 5);                 // 11111: 32 bits
+            writeBits(out, z, 32);
+        }
+    }
+
+    /**
+     * Append the low n bits of value, least significant bit first.
+     */
+    private void writeBits(ByteBuffer out, int value, int n) {
+        bitBuffer |= (value & 0xFFFFFFFFL & ((1L << n) - 1)) << bitCount;
+        bitCount += n;
+        while (bitCount >= 8) {
+            out.put((byte) bitBuffer);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void flushBits(ByteBuffer out) {
+        if (bitCount > 0) {
+            out.put((byte) bitBuffer);
+        }
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    // ==================== Receiving ====================
+
+    /**
+     * Read a state written by encode() up to the buffer's limit and store
+     * it as the given tick.
+     *
+     * @throws IOException if its baseline is not stored here
+     */
+    public void decode(int tick, ByteBuffer in) throws IOException {
+        int age = in.get() & 0xFF;
+        int[] base = ZEROS;
+        if (age != KEYFRAME) {
+            int baseTick = tick - age;
+            if (!has(baseTick)) {
+                throw new IOException("State " + tick + " is relative to unknown state " + baseTick);
+            }
+            base = fields[baseTick % HISTORY];
+        }
+
+        bitBuffer = 0;
+        bitCount = 0;
+
+        // the paddle and puck counts (fields 1 and 2) give the length
+        for (int f = 0; f < header.length; f++) {
+            header[f] = base[f] + readDelta(in);
+        }
+        if (header[1] < 0 || header[1] > GameSimulation.MAX_PADDLES
+                || header[2] < 0 || header[2] > GameSimulation.MAX_PUCKS) {
+            throw new IOException("Bad state layout");
+        }
+        int count = GameSimulation.netFieldCount(header[1], header[2]);
+        if (base != ZEROS && fieldCount[(tick - age) % HISTORY] != count) {
+            throw new IOException("State " + tick + " has a different layout than its baseline");
+        }
+
+        int slot = tick % HISTORY;
+        int[] current = slotFor(slot, count);
+        System.arraycopy(header, 0, current, 0, header.length);
+        for (int f = header.length; f < count; f++) {
+            current[f] = base[f] + readDelta(in);
+        }
+        fieldCount[slot] = count;
+        ticks[slot] = tick;
+    }
+
+    /**
+     * Load a stored state into a simulation started with the match's spec.
+     */
+    public void apply(int tick, GameSimulation sim) {
+        sim.readNetFields(fields[tick % HISTORY]);
+    }
+
+    /**
+     * The fields of a stored state, as GameSimulation.writeNetFields()
+     * wrote them. Read only.
+     */
+    int[] getFields(int tick) {
+        return fields[tick % HISTORY];
+    }
+
+    private int readDelta(ByteBuffer in) {
+        int z;
+        if (readBits(in, 1) == 0) {
+            return 0;
+        } else if (readBits(in, 1) == 0) {
+            z = readBits(in, 4);
+        } else if (readBits(in, 1) == 0) {
+            z = readBits(in, 8);
+        } else if (readBits(in, 1) == 0) {
+            z = readBits(in, 12);
+        } else if (readBits(in, 1) == 0) {
+            z = readBits(in, 16);
+        } else {
+            z = readBits(in, 32);
+        }
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    private int readBits(ByteBuffer in, int n) {
+        while (bitCount < n) {
+            bitBuffer |= (long) (in.get() & 0xFF) << bitCount;
+            bitCount += 8;
+        }
+        int value = (int) (bitBuffer & ((1L << n) - 1));
+        bitBuffer >>>= n;
+        bitCount -= n;
+        return value;
+    }
+
+    // ==================== Benchmark ====================
+
+    /**
+     * Play recorded matches and compare full snapshots with delta states,
+     * acknowledged after a round trip of ackMs.
+     *
+     * <p>Usage: StateCodec [ackMs] replay.ahr...
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: StateCodec <ackMs> <replay" + Replay.FILE_EXTENSION + ">...");
+            System.exit(1);
+        }
+        int ackMs = Integer.parseInt(args[0]);
+
+        ByteBuffer full = ByteBuffer.allocate(GameSimulation.MAX_STATE_BYTES);
+        ByteBuffer packet = ByteBuffer.allocate(NetProtocol.MAX_FRAME_BYTES);
+        long totalFull = 0;
+        long totalKeyframe = 0;
+        long totalDelta = 0;
+        long totalStates = 0;
+        long encodeNanos = 0;
+
+        for (int a = 1; a < args.length; a++) {
+            Path path = Paths.get(args[a]);
+            Replay replay = Replay.read(path);
+            int ackTicks = Math.max(1, Math.round(ackMs * replay.getTickRate() / 1000f));
+
+            GameSimulation sim = new GameSimulation(null, replay.getTickRate());
+            GameSimulation mirror = new GameSimulation(null, replay.getTickRate());
+            ReplayPlayer player = new ReplayPlayer(replay);
+            player.start(sim);
+            replay.getSpec().start(mirror);
+
+            StateCodec server = new StateCodec();
+            StateCodec client = new StateCodec();
+            int[] expected = new int[GameSimulation.MAX_NET_FIELDS];
+            int[] actual = new int[GameSimulation.MAX_NET_FIELDS];
+            long fullBytes = 0;
+            long keyframeBytes = 0;
+            long deltaBytes = 0;
+            int tick = 0;
+
+            while (player.step(sim)) {
+                tick++;
+                full.clear();
+                sim.saveState(full);
+                fullBytes += full.position();
+
+                long start = System.nanoTime();
+                server.store(tick, sim);
+                packet.clear();
+                deltaBytes += server.encode(tick, tick - ackTicks, packet);
+                encodeNanos += System.nanoTime() - start;
+                keyframeBytes += server.keyframeSize(tick, full);
+
+                packet.flip();
+                client.decode(tick, packet);
+                client.apply(tick, mirror);
+                int count = sim.writeNetFields(expected);
+                mirror.writeNetFields(actual);
+                if (!Arrays.equals(expected, 0, count, actual, 0, count)) {
+                    throw new IllegalStateException(path + ": decoded state differs at tick " + tick);
+                }
+            }
+
+            System.out.printf("%-30s %-18s %6d states | full %5.0f B, keyframe %4.0f B, delta %5.1f B (%.0fx)%n",
+                    path.getFileName(), replay.getSpec().getGameType(), tick,
+                    (double) fullBytes / tick, (double) keyframeBytes / tick, (double) deltaBytes / tick,
+                    (double) fullBytes / deltaBytes);
+            totalFull += fullBytes;
+            totalKeyframe += keyframeBytes;
+            totalDelta += deltaBytes;
+            totalStates += tick;
+        }
+
+        System.out.printf("All: %d states, acked after %d ms | full %.0f B, keyframe %.0f B, delta %.1f B"
+                        + " per state (%.0fx smaller) | encode %.2f us%n",
+                totalStates, ackMs, (double) totalFull / totalStates, (double) totalKeyframe / totalStates,
+                (double) totalDelta / totalStates, (double) totalFull / totalDelta,
+                encodeNanos / 1e3 / totalStates);
+    }
+}
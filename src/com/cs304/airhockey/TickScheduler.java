@@ -0,0 +1,400 @@
+package com.cs304.airhockey;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the ticks of many headless matches at a fixed rate on a small,
+ * fixed set of shard threads.
+ *
+ * <p>A task is pinned to one shard by its key, so a match always ticks on
+ * the same thread (and usually stays warm in that core's cache; Java cannot
+ * pin the thread itself). Each shard keeps its tasks in a hashed timing
+ * wheel: {@link #SLOTS_PER_TICK} slots per tick period, each holding the
+ * tasks due in that slice of time. A slot is run as soon as its slice has
+ * passed, so a tick starts at most one slot late plus scheduling noise.
+ * Tasks scheduled at different moments keep their own phase, which spreads
+ * the work of a shard evenly over the period instead of in one burst.
+ *
+ * <p>A shard that falls behind catches up by at most {@link #MAX_LAG_TICKS}
+ * ticks per task; ticks later than that are shed, counted, and reported to
+ * the task, so an overloaded shard runs its matches slower instead of
+ * building an ever-growing backlog.
+ */
+public class TickScheduler {
+
+    /**
+     * One scheduled match (or anything else that ticks).
+     * Both methods are called on the task's shard thread only.
+     */
+    public interface Task {
+        /**
+         * Run one tick.
+         *
+         * @return false to stop being scheduled
+         */
+        boolean tick();
+
+        /**
+         * This many ticks were skipped because the shard fell too far behind.
+         */
+        void onTicksShed(int count);
+    }
+
+    // wheel resolution: a tick starts at most one slot late
+    static final int SLOTS_PER_TICK = 32;
+    // four tick periods: every task's next tick lands within one turn
+    private static final int WHEEL_SLOTS = 4 * SLOTS_PER_TICK;
+
+    // a task further behind than this many ticks skips ahead instead
+    static final int MAX_LAG_TICKS = 2;
+
+    private static final long STATS_WINDOW_NANOS = 1_000_000_000L;
+
+    private final int tickRate;
+    private final long tickNanos;
+    private final long slotNanos;
+    private final long originNanos;
+    private final Shard[] shards;
+    private volatile boolean running = false;
+
+    /**
+     * @param name   thread name prefix
+     * @param shards number of shard threads
+     */
+    public TickScheduler(String name, int shards, int tickRate) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards must be > 0");
+        }
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("tickRate must be > 0");
+        }
+        this.tickRate = tickRate;
+        this.tickNanos = 1_000_000_000L / tickRate;
+        this.slotNanos = tickNanos / SLOTS_PER_TICK;
+        this.originNanos = System.nanoTime();
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(name + "-" + i);
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Stop every shard after its current slot; tasks are dropped.
+     */
+    public void stop() {
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Tick the task on the shard for this key, starting one period from
+     * now, until tick() returns false. Any thread may call this.
+     */
+    public void schedule(Task task, int key) {
+        Shard shard = shards[Math.floorMod(key, shards.length)];
+        shard.added.add(new Entry(task, System.nanoTime() + tickNanos));
+        LockSupport.unpark(shard.thread);
+    }
+
+    /**
+     * The most recent full stats window of a shard.
+     */
+    public Stats getStats(int shard) {
+        return shards[shard].stats;
+    }
+
+    // ==================== Shards ====================
+
+    /**
+     * A scheduled task and its place in a wheel slot's list.
+     */
+    private static final class Entry {
+        final Task task;
+        long dueNanos;
+        Entry next;
+
+        Entry(Task task, long dueNanos) {
+            this.task = task;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private final class Shard {
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Entry> added = new ConcurrentLinkedQueue<>();
+
+        // ----- shard thread only -----
+        private final Entry[] wheel = new Entry[WHEEL_SLOTS];
+        private long nextSlot;          // absolute slot number, counted from originNanos
+        private int taskCount;
+
+        // ----- stats (shard thread, published once per window) -----
+        private volatile Stats stats = new Stats(0, 0, 0, 0, 0, 0, 0);
+        private long windowStartNanos;
+        private long windowTicks;
+        private long windowLagNanos;
+        private long windowMaxLagNanos;
+        private long windowLateTicks;
+        private long windowShedTicks;
+        private long windowBusyNanos;
+
+        Shard(String name) {
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            nextSlot = slotOf(System.nanoTime());
+            windowStartNanos = System.nanoTime();
+            while (running) {
+                Entry entry;
+                while ((entry = added.poll()) != null) {
+                    insert(entry);
+                    taskCount++;
+                }
+
+                // run every slot whose time slice is over
+                long now = System.nanoTime();
+                long elapsed = slotOf(now);
+                if (elapsed - nextSlot > WHEEL_SLOTS) {
+                    // a long stall: one turn of the wheel visits every task
+                    nextSlot = elapsed - WHEEL_SLOTS;
+                }
+                long busyStart = now;
+                while (nextSlot < elapsed && running) {
+                    runSlot(nextSlot++);
+                }
+                now = System.nanoTime();
+                windowBusyNanos += now - busyStart;
+
+                if (now - windowStartNanos >= STATS_WINDOW_NANOS) {
+                    publishStats(now);
+                }
+                LockSupport.parkNanos(nanosUntilNextWork(now));
+            }
+        }
+
+        private long slotOf(long nanos) {
+            return (nanos - originNanos) / slotNanos;
+        }
+
+        private void insert(Entry entry) {
+            // never into a slot that has already run, or it would wait a whole turn
+            long slot = Math.max(slotOf(entry.dueNanos), nextSlot);
+            int i = (int) (slot % WHEEL_SLOTS);
+            entry.next = wheel[i];
+            wheel[i] = entry;
+        }
+
+        private void runSlot(long slot) {
+            int i = (int) (slot % WHEEL_SLOTS);
+            Entry entry = wheel[i];
+            wheel[i] = null;
+            long slotEnd = originNanos + (slot + 1) * slotNanos;
+
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.dueNanos >= slotEnd) {
+                    // due on a later turn of the wheel
+                    entry.next = wheel[i];
+                    wheel[i] = entry;
+                } else if (runTask(entry)) {
+                    insert(entry);
+                } else {
+                    taskCount--;
+                }
+                entry = next;
+            }
+        }
+
+        private boolean runTask(Entry entry) {
+            long lag = System.nanoTime() - entry.dueNanos;
+            if (lag > MAX_LAG_TICKS * tickNanos) {
+                // too far behind to catch up: skip to the latest tick
+                int shed = (int) (lag / tickNanos);
+                entry.dueNanos += shed * tickNanos;
+                lag -= shed * tickNanos;
+                windowShedTicks += shed;
+                entry.task.onTicksShed(shed);
+            }
+            if (lag > tickNanos) {
+                windowLateTicks++;
+            }
+            windowTicks++;
+            windowLagNanos += lag;
+            windowMaxLagNanos = Math.max(windowMaxLagNanos, lag);
+
+            boolean keep;
+            try {
+                keep = entry.task.tick();
+            } catch (RuntimeException ex) {
+                System.err.println("[" + thread.getName() + "] Task failed, dropping it: " + ex);
+                keep = false;
+            }
+            entry.dueNanos += tickNanos;
+            return keep;
+        }
+
+        private long nanosUntilNextWork(long now) {
+            // the first slot with anything in it, or one period when idle
+            for (int n = 0; n < WHEEL_SLOTS; n++) {
+                if (wheel[(int) ((nextSlot + n) % WHEEL_SLOTS)] != null) {
+                    return originNanos + (nextSlot + n + 1) * slotNanos - now;
+                }
+            }
+            return tickNanos;
+        }
+
+        private void publishStats(long now) {
+            double seconds = (now - windowStartNanos) / 1e9;
+            stats = new Stats(taskCount, windowTicks / seconds,
+                    windowTicks == 0 ? 0 : windowLagNanos / 1e6 / windowTicks,
+                    windowMaxLagNanos / 1e6, windowLateTicks, windowShedTicks,
+                    windowBusyNanos / 1e9 / seconds);
+            windowStartNanos = now;
+            windowTicks = 0;
+            windowLagNanos = 0;
+            windowMaxLagNanos = 0;
+            windowLateTicks = 0;
+            windowShedTicks = 0;
+            windowBusyNanos = 0;
+        }
+    }
+
+    /**
+     * What one shard did over its last stats window (about a second).
+     * Lag is how long after its due time a tick started.
+     */
+    public static final class Stats {
+        private final int tasks;
+        private final double ticksPerSecond;
+        private final double avgLagMillis;
+        private final double maxLagMillis;
+        private final long lateTicks;
+        private final long shedTicks;
+        private final double load;
+
+        Stats(int tasks, double ticksPerSecond, double avgLagMillis, double maxLagMillis,
+              long lateTicks, long shedTicks, double load) {
+            this.tasks = tasks;
+            this.ticksPerSecond = ticksPerSecond;
+            this.avgLagMillis = avgLagMillis;
+            this.maxLagMillis = maxLagMillis;
+            this.lateTicks = lateTicks;
+            this.shedTicks = shedTicks;
+            this.load = load;
+        }
+
+        public int getTasks() {
+            return tasks;
+        }
+
+        public double getTicksPerSecond() {
+            return ticksPerSecond;
+        }
+
+        public double getAvgLagMillis() {
+            return avgLagMillis;
+        }
+
+        public double getMaxLagMillis() {
+            return maxLagMillis;
+        }
+
+        /** Ticks that started more than a whole period late. */
+        public long getLateTicks() {
+            return lateTicks;
+        }
+
+        /** Ticks skipped because their task was too far behind. */
+        public long getShedTicks() {
+            return shedTicks;
+        }
+
+        /** Fraction of the time the shard thread was running ticks. */
+        public double getLoad() {
+            return load;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d tasks, %.0f ticks/s | lag avg %.2f ms, max %.2f ms"
+                            + " | %d late, %d shed | load %.0f%%",
+                    tasks, ticksPerSecond, avgLagMillis, maxLagMillis, lateTicks, shedTicks, load * 100);
+        }
+    }
+
+    // ==================== Load test ====================
+
+    /**
+     * Tick thousands of AI-vs-AI matches and print every shard's stats
+     * once a second. Finished matches start again, so the load stays flat.
+     *
+     * <p>Usage: TickScheduler [matches] [shards] [seconds] [tickRate]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int shardCount = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int tickRate = args.length > 3 ? Integer.parseInt(args[3]) : GameSimulation.REFERENCE_TICK_RATE;
+
+        TickScheduler scheduler = new TickScheduler("airhockey-tick", shardCount, tickRate);
+        scheduler.start();
+        for (int m = 0; m < matches; m++) {
+            GameSimulation sim = new GameSimulation(null, tickRate);
+            sim.startNewMatch("Left AI", "Right AI", true, GameSimulation.Difficulty.MEDIUM);
+            sim.setAiControlled(GameSimulation.Side.LEFT, GameSimulation.Difficulty.MEDIUM);
+            scheduler.schedule(new Task() {
+                @Override
+                public boolean tick() {
+                    sim.update();
+                    if (!sim.isGameInProgress()) {
+                        sim.startNewMatch("Left AI", "Right AI", true, GameSimulation.Difficulty.MEDIUM);
+                        sim.setAiControlled(GameSimulation.Side.LEFT, GameSimulation.Difficulty.MEDIUM);
+                    }
+                    return true;
+                }
+
+                @Override
+                public void onTicksShed(int count) {
+                }
+            }, m);
+            // spread the starts over one period, like matches forming over time
+            if (m % Math.max(1, matches / tickRate) == 0) {
+                Thread.sleep(1);
+            }
+        }
+
+        long shed = 0;
+        System.out.println(matches + " matches at " + tickRate + " Hz on " + shardCount + " shards");
+        for (int s = 0; s < seconds; s++) {
+            Thread.sleep(1000);
+            for (int i = 0; i < shardCount; i++) {
+                Stats stats = scheduler.getStats(i);
+                if (s > 0) shed += stats.getShedTicks();
+                System.out.println("  shard " + i + ": " + stats);
+            }
+        }
+        scheduler.stop();
+        System.out.println("Shed after warm-up: " + shed + " ticks");
+    }
+}
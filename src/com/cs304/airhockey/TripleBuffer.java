@@ -0,0 +1,100 @@
+package com.cs304.airhockey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hands whole objects from one writer thread to one reader thread
+ * without locks. There are three slots: the writer fills its back slot
+ * and swaps it into the middle, the reader swaps the middle out when a
+ * newer one is there. Neither side ever waits for the other, and the
+ * reader always sees a slot the writer is done with.
+ */
+public final class TripleBuffer<T> {
+
+    // packed middle slot: index in the low bits, FRESH once published and not yet read
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final Object[] slots = new Object[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;       // writer thread only
+    private int front = 2;      // reader thread only
+
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = factory.get();
+        }
+    }
+
+    // ----- writer -----
+
+    /**
+     * The slot to fill next. It stays the writer's until {@link #publish()}.
+     */
+    @SuppressWarnings("unchecked")
+    public T back() {
+        return (T) slots[back];
+    }
+
+    /**
+     * Make the back slot the newest one; the writer gets a fresh back slot.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    // ----- reader -----
+
+    /**
+     * The newest published slot. It stays valid until the next call.
+     */
+    @SuppressWarnings("unchecked")
+    public T latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return (T) slots[front];
+    }
+
+    // ==================== Benchmark ====================
+
+    /**
+     * Writer publishes as fast as it can while the reader checks that
+     * every slot it gets is complete and never older than the last one.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int values = 64;
+        final long seconds = Long.getLong("airhockey.bench.seconds", 2);
+        TripleBuffer<long[]> buffer = new TripleBuffer<>(() -> new long[values]);
+
+        Thread writer = new Thread(() -> {
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            for (long n = 1; System.nanoTime() < end; n++) {
+                long[] slot = buffer.back();
+                for (int i = 0; i < values; i++) slot[i] = n;
+                buffer.publish();
+            }
+        }, "writer");
+        writer.start();
+
+        long reads = 0, torn = 0, backwards = 0, last = 0;
+        while (writer.isAlive()) {
+            long[] slot = buffer.latest();
+            long n = slot[0];
+            for (int i = 1; i < values; i++) {
+                if (slot[i] != n) {
+                    torn++;
+                    break;
+                }
+            }
+            if (n < last) backwards++;
+            last = n;
+            reads++;
+        }
+        writer.join();
+
+        System.out.println("published: " + buffer.latest()[0] + "  reads: " + reads
+                + "  torn: " + torn + "  out of order: " + backwards);
+    }
+}
@@ -0,0 +1,191 @@
+package com.cs304.airhockey;
+
+/**
+ * Uniform spatial grid used as a broadphase for puck-puck collisions.
+ * Items are bucketed by a counting sort into flat int arrays, so a
+ * rebuild every tick costs O(n) and allocates nothing.
+ *
+ * <p>main() runs headless multi-puck matches, times the ticks and checks
+ * that no puck ever leaves the rink through a wall.
+ *
+ * <p>Usage: UniformGrid [pucks] [seconds] [tickRate]
+ */
+public class UniformGrid {
+
+    /**
+     * Called for every candidate pair found by the broadphase.
+     */
+    public interface PairVisitor {
+        void visitPair(int a, int b);
+    }
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+
+    // cellStart[c] .. cellStart[c + 1] is the slice of cellItems in cell c
+    private final int[] cellStart;
+    private final int[] cellFill;
+    private final int[] cellItems;
+    private final int[] itemCell;
+
+    /**
+     * @param cellSize should be at least the largest collision distance
+     *                 (two radii), so only neighbouring cells can touch
+     * @param capacity maximum number of items
+     */
+    public UniformGrid(double minX, double minY, double maxX, double maxY,
+                       double cellSize, int capacity) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be > 0");
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.cols = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil((maxY - minY) / cellSize));
+
+        this.cellStart = new int[cols * rows + 1];
+        this.cellFill = new int[cols * rows];
+        this.cellItems = new int[capacity];
+        this.itemCell = new int[capacity];
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Bucket items 0..count-1 by position. Items outside the bounds
+     * are clamped into the border cells.
+     */
+    public void build(double[] xs, double[] ys, int count) {
+        int cellCount = cols * rows;
+        for (int c = 0; c <= cellCount; c++) {
+            cellStart[c] = 0;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int cx = clampIndex((int) ((xs[i] - minX) / cellSize), cols);
+            int cy = clampIndex((int) ((ys[i] - minY) / cellSize), rows);
+            int c = cy * cols + cx;
+            itemCell[i] = c;
+            cellStart[c + 1]++;
+        }
+
+        // prefix sum -> start offsets
+        for (int c = 0; c < cellCount; c++) {
+            cellStart[c + 1] += cellStart[c];
+            cellFill[c] = cellStart[c];
+        }
+
+        for (int i = 0; i < count; i++) {
+            cellItems[cellFill[itemCell[i]]++] = i;
+        }
+    }
+
+    /**
+     * Visit every pair of items in the same or adjacent cells, once each.
+     * Only half of the neighbourhood (E, NW, N, NE) is scanned from each
+     * cell so no pair is reported twice.
+     *
+     * @return number of candidate pairs visited
+     */
+    public int visitPairs(PairVisitor visitor) {
+        int pairs = 0;
+
+        for (int cy = 0; cy < rows; cy++) {
+            for (int cx = 0; cx < cols; cx++) {
+                int c = cy * cols + cx;
+                int start = cellStart[c];
+                int end = cellStart[c + 1];
+                if (start == end) continue;
+
+                // pairs inside this cell
+                for (int i = start; i < end; i++) {
+                    for (int j = i + 1; j < end; j++) {
+                        visitor.visitPair(cellItems[i], cellItems[j]);
+                        pairs++;
+                    }
+                }
+
+                pairs += visitCells(visitor, start, end, cx + 1, cy);
+                pairs += visitCells(visitor, start, end, cx - 1, cy + 1);
+                pairs += visitCells(visitor, start, end, cx, cy + 1);
+                pairs += visitCells(visitor, start, end, cx + 1, cy + 1);
+            }
+        }
+        return pairs;
+    }
+
+    private int visitCells(PairVisitor visitor, int start, int end, int ox, int oy) {
+        if (ox < 0 || ox >= cols || oy >= rows) return 0;
+
+        int o = oy * cols + ox;
+        int oStart = cellStart[o];
+        int oEnd = cellStart[o + 1];
+        for (int i = start; i < end; i++) {
+            for (int j = oStart; j < oEnd; j++) {
+                visitor.visitPair(cellItems[i], cellItems[j]);
+            }
+        }
+        return (end - start) * (oEnd - oStart);
+    }
+
+    private static int clampIndex(int v, int size) {
+        if (v < 0) return 0;
+        if (v >= size) return size - 1;
+        return v;
+    }
+
+    // ==================== Benchmark ====================
+
+    public static void main(String[] args) {
+        int pucks = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+        int tickRate = args.length > 2 ? Integer.parseInt(args[2]) : GameSimulation.DEFAULT_TICK_RATE;
+
+        GameSimulation sim = new GameSimulation(null, tickRate);
+        sim.setSeed(42);
+        sim.startNewMultiPuck("Left", "Right", pucks);
+
+        int ticks = seconds * tickRate;
+        int matches = 1;
+        long escapes = 0;           // puck-ticks spent past the top or bottom wall
+        int worstTick = -1;
+        double worstY = 0;
+        long start = System.nanoTime();
+        for (int t = 0; t < ticks; t++) {
+            if (!sim.isGameInProgress()) {
+                sim.startNewMultiPuck("Left", "Right", pucks);
+                matches++;
+            }
+            sim.update();
+
+            double limit = GameSimulation.WORLD_TOP - sim.getPuckR() + 1e-6;
+            for (int p = 0; p < sim.getPuckCount(); p++) {
+                double y = Math.abs(sim.getPuckY(p));
+                if (y > limit) {
+                    escapes++;
+                    if (y > worstY) {
+                        worstY = y;
+                        worstTick = t;
+                    }
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Pucks:   %d, radius %.1f, %d matches%n", pucks, sim.getPuckR(), matches);
+        System.out.printf("Ticks:   %d at %d Hz, %.1f us per tick%n", ticks, tickRate, elapsed * 1e6 / ticks);
+        if (escapes == 0) {
+            System.out.println("Checks:  every puck stayed inside the rink");
+        } else {
+            System.out.printf("Checks:  %d puck-ticks outside the rink, worst |y| %.1f at tick %d%n",
+                    escapes, worstY, worstTick);
+            System.exit(1);
+        }
+    }
+}